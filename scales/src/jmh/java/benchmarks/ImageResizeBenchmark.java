@@ -0,0 +1,67 @@
+package benchmarks;
+
+import io.vertx.core.buffer.Buffer;
+import org.openjdk.jmh.annotations.*;
+import scales.utility.ImageResize;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode, resize, encode and the whole pipeline of ImageResize over the synthetic corpus.
+ * Run with `gradle :scales:jmh`, allocation rate is reported by the gc profiler
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ImageResizeBenchmark {
+
+    @Param({"2", "12", "24"})
+    private int megapixels;
+
+    @Param({"JPG_RGB", "JPG_GRAY", "JPG_CMYK", "PNG_RGB", "PNG_GRAY"})
+    private String corpus;
+
+    @Param({"1080"})
+    private int width;
+
+    @Param({"jpg"})
+    private String extension;
+
+    private byte[] mEncoded;
+    private Buffer mBuffer;
+    private BufferedImage mDecoded;
+    private BufferedImage mScaled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mEncoded = SyntheticCorpus.valueOf(corpus).generate(megapixels);
+        mBuffer = Buffer.buffer(mEncoded);
+        mDecoded = ImageResize.bytesToImage(mEncoded);
+        mScaled = ImageResize.resizeToWidth(mDecoded, width);
+    }
+
+    @Benchmark
+    public BufferedImage bytesToImage() throws IOException {
+        return ImageResize.bytesToImage(mEncoded);
+    }
+
+    @Benchmark
+    public BufferedImage resizeToWidth() {
+        return ImageResize.resizeToWidth(mDecoded, width);
+    }
+
+    @Benchmark
+    public byte[] imageToBytes() throws IOException {
+        return ImageResize.imageToBytes(mScaled, extension);
+    }
+
+    @Benchmark
+    public Buffer bufferResizeToWidth() throws IOException {
+        return ImageResize.bufferResizeToWidth(mBuffer, width, extension);
+    }
+}
@@ -0,0 +1,80 @@
+package benchmarks;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Encoded images generated locally, so that benchmarks don't depend on any downloads.
+ * Content is a mix of gradients, hard edges and noise, compressing roughly like a photo
+ */
+enum SyntheticCorpus {
+    JPG_RGB("jpg", 3),
+    JPG_GRAY("jpg", 1),
+    JPG_CMYK("jpg", 4),
+    PNG_RGB("png", 3),
+    PNG_GRAY("png", 1);
+
+    // originals are of 3:2 aspect ratio, like the most of camera photos
+    private static final double ASPECT = 1.5;
+    private static final long SEED = 42;
+
+    private final String mFormat;
+    private final int mBands;
+
+    SyntheticCorpus(String format, int bands) {
+        mFormat = format;
+        mBands = bands;
+    }
+
+    byte[] generate(int megapixels) throws IOException {
+        int width = (int) Math.sqrt(megapixels * 1_000_000L * ASPECT);
+        int height = (int) (width / ASPECT);
+
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, mBands, null);
+        fill(((DataBufferByte) raster.getDataBuffer()).getData(), width, height);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(mFormat).next();
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
+             ImageOutputStream ios = ImageIO.createImageOutputStream(baos)) {
+            writer.setOutput(ios);
+            // there is no CMYK BufferedImage type, so it's written as a plain 4 band raster
+            writer.write(null, mBands == 4 ? new IIOImage(raster, null, null) : new IIOImage(image(raster), null, null), null);
+            ios.flush();
+            return baos.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private RenderedImage image(WritableRaster raster) {
+        int type = mBands == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR;
+        BufferedImage img = new BufferedImage(raster.getWidth(), raster.getHeight(), type);
+        img.setData(raster);
+        return img;
+    }
+
+    private void fill(byte[] data, int width, int height) {
+        Random random = new Random(SEED);
+        for (int y = 0, i = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean edge = ((x / 97) + (y / 61)) % 2 == 0;
+                for (int b = 0; b < mBands; b++, i++) {
+                    int gradient = b % 2 == 0 ? x * 255 / width : y * 255 / height;
+                    int value = gradient + (edge ? 40 : -40) + random.nextInt(17) - 8;
+                    data[i] = (byte) Math.max(0, Math.min(255, value));
+                }
+            }
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package scales.model;
 
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import scales.utility.ImageResize;
+import scales.utility.ResizeEngines;
+import scales.utility.ResizeWorkers;
 
 import javax.annotation.Nonnull;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Data class: representation of conf/config.json in plain java class
@@ -17,6 +23,8 @@ public class Config {
     private static final String SIZES = "sizes";
     private static final String NAME = "name";
     private static final String WIDTH = "width";
+    private static final String ENCODING = "encoding";
+    private static final String LAZY = "lazy";
 
     private static final String AWS = "aws";
     private static final String PHOTOS_BUCKET = "photosBucket";
@@ -24,6 +32,80 @@ public class Config {
     private static final String REGION = "region";
     private static final String EXTENSION = "extension";
 
+    private static final String RESIZE = "resize";
+    private static final String TILED_THRESHOLD = "tiledThresholdPixels";
+    private static final String STRIP_PIXELS = "stripPixels";
+    private static final String ENGINE = "engine";
+    private static final String WORKER_POOL_SIZE = "workerPoolSize";
+    private static final String MAX_QUEUED = "maxQueued";
+    private static final String WEIGHTS = "weights";
+    private static final String MEMORY_SHARE = "memoryShare";
+
+    private static final int DEFAULT_MAX_QUEUED = 256;
+    private static final double DEFAULT_MEMORY_SHARE = 0.5;
+
+    private static final String TRANSFER = "transfer";
+    private static final String RANGED_DOWNLOAD_THRESHOLD = "rangedDownloadThreshold";
+    private static final String RANGE_SIZE = "rangeSize";
+    private static final String MULTIPART_THRESHOLD = "multipartThreshold";
+    private static final String PART_SIZE = "partSize";
+    private static final String PARALLELISM = "parallelism";
+    private static final String PART_RETRIES = "partRetries";
+    private static final String DELETE_BATCH_WINDOW = "deleteBatchWindowMs";
+    private static final String DELETE_BATCH_MAX_KEYS = "deleteBatchMaxKeys";
+
+    private static final long DEFAULT_RANGED_DOWNLOAD_THRESHOLD = 16 * 1024 * 1024;
+    private static final int DEFAULT_RANGE_SIZE = 8 * 1024 * 1024;
+    private static final long DEFAULT_MULTIPART_THRESHOLD = 16 * 1024 * 1024;
+    // S3 doesn't accept parts smaller than 5MB, except for the last one
+    private static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_PART_RETRIES = 3;
+    private static final long DEFAULT_DELETE_BATCH_WINDOW = 50;
+    private static final int DEFAULT_DELETE_BATCH_MAX_KEYS = 1000;
+
+    private static final String STORAGE = "storage";
+    private static final String STORAGE_TYPE = "type";
+    private static final String STORAGE_ROOT = "root";
+    private static final String MMAP_THRESHOLD = "mmapThreshold";
+    private static final String IO_THREADS = "ioThreads";
+
+    private static final String DEFAULT_STORAGE_TYPE = "s3";
+    private static final long DEFAULT_MMAP_THRESHOLD = 8 * 1024 * 1024;
+    private static final int DEFAULT_IO_THREADS = 8;
+
+    private static final String CACHE = "cache";
+    private static final String CACHE_ENABLED = "enabled";
+    private static final String CACHE_DIR = "dir";
+    private static final String CACHE_MAX_BYTES = "maxBytes";
+    private static final String ORIGIN_CACHE_MAX_BYTES = "originMaxBytes";
+
+    private static final long DEFAULT_CACHE_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private static final String BACKFILL = "backfill";
+    private static final String BACKFILL_ENABLED = "enabled";
+    private static final String BACKFILL_CHECKPOINT = "checkpoint";
+    private static final String BACKFILL_RATE = "ratePerSecond";
+    private static final String BACKFILL_MAX_IN_FLIGHT = "maxInFlight";
+    private static final String BACKFILL_PAGE_SIZE = "pageSize";
+    private static final String BACKFILL_YIELD_QUEUE_DEPTH = "yieldQueueDepth";
+
+    private static final double DEFAULT_BACKFILL_RATE = 20;
+    private static final int DEFAULT_BACKFILL_MAX_IN_FLIGHT = 4;
+    private static final int DEFAULT_BACKFILL_PAGE_SIZE = 1000;
+    private static final int DEFAULT_BACKFILL_YIELD_QUEUE_DEPTH = 0;
+
+    private static final String HTTP = "http";
+    private static final String HTTP_ENABLED = "enabled";
+    private static final String HTTP_PORT = "port";
+
+    private static final int DEFAULT_HTTP_PORT = 8080;
+
+    private static final String DEPLOYMENT = "deployment";
+    private static final String INSTANCES = "instances";
+    private static final String WORKER = "worker";
+    private static final String WORKER_POOL_NAME = "workerPoolName";
+
     private static final String KAFKA = "kafka";
     private static final String KAFKA_HOST = "host";
     private static final String KAFKA_PORT = "port";
@@ -32,18 +114,101 @@ public class Config {
     private static final String SAGAS_TOPIC = "sagasTopic";
     private static final String DELETE_REQUEST = "deleteRequest";
     private static final String SCALE_REQUEST = "scaleRequest";
+    private static final String REPORT_SIZES = "reportSizes";
+    private static final String MAX_IN_FLIGHT_PER_PARTITION = "maxInFlightPerPartition";
+    private static final String COMMIT_INTERVAL = "commitIntervalMs";
+    private static final String REVOKE_TIMEOUT = "revokeTimeoutMs";
+    private static final String MAX_POLL_RECORDS = "maxPollRecords";
+    private static final String PAUSE_IN_FLIGHT = "pauseInFlight";
+    private static final String RESUME_IN_FLIGHT = "resumeInFlight";
+    private static final String PAUSE_MEMORY_SHARE = "pauseMemoryShare";
+    private static final String RESUME_MEMORY_SHARE = "resumeMemoryShare";
+    private static final String PAUSE_QUEUE_SHARE = "pauseQueueShare";
+    private static final String RESUME_QUEUE_SHARE = "resumeQueueShare";
+    private static final String GROUP_ID = "groupId";
+    private static final String CLIENT_ID = "clientId";
+    private static final String PRODUCER = "producer";
+    private static final String LINGER = "lingerMs";
+    private static final String BATCH_SIZE = "batchSize";
+    private static final String COMPRESSION = "compression";
+    private static final String IDEMPOTENCE = "idempotence";
+    private static final String ACKS = "acks";
+    private static final String WRITE_QUEUE_SIZE = "writeQueueSize";
+    private static final String AGGREGATE_WINDOW = "aggregateWindowMs";
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_PARTITION = 64;
+    private static final long DEFAULT_COMMIT_INTERVAL = 1000;
+    private static final long DEFAULT_REVOKE_TIMEOUT = 10_000;
+    private static final int DEFAULT_MAX_POLL_RECORDS = 100;
+    // with a whole poll on top it's still less than resize.maxQueued
+    private static final int DEFAULT_PAUSE_IN_FLIGHT = 128;
+    private static final int DEFAULT_RESUME_IN_FLIGHT = 64;
+    private static final double DEFAULT_PAUSE_MEMORY_SHARE = 0.9;
+    private static final double DEFAULT_RESUME_MEMORY_SHARE = 0.7;
+    private static final double DEFAULT_PAUSE_QUEUE_SHARE = 0.5;
+    private static final double DEFAULT_RESUME_QUEUE_SHARE = 0.25;
+    private static final String DEFAULT_GROUP_ID = "my_group";
+    private static final String DEFAULT_CLIENT_ID = "photo-scale";
+    private static final long DEFAULT_LINGER = 20;
+    private static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+    private static final String DEFAULT_COMPRESSION = "lz4";
+    private static final String DEFAULT_ACKS = "all";
+    private static final int DEFAULT_WRITE_QUEUE_SIZE = 1024;
 
     // Variables
 
     private final JsonObject mConfigObject;
 
     private final HashMap<String, Integer> mSizes;
+    private final HashMap<String, EncodingProfile> mProfiles;
+    private final Set<String> mLazySizes;
     private final String mRegion;
     private final String mPhotosBucket;
     private final String mUserpicsBucket;
 
     private final String mExtension;
 
+    private final long mTiledThreshold;
+    private final int mStripPixels;
+    private final String mResizeEngine;
+    private final int mWorkerPoolSize;
+    private final int mMaxQueued;
+    private final Map<String, Integer> mPriorityWeights;
+    private final double mMemoryShare;
+
+    private final long mRangedDownloadThreshold;
+    private final int mRangeSize;
+    private final long mMultipartThreshold;
+    private final int mPartSize;
+    private final int mTransferParallelism;
+    private final int mPartRetries;
+    private final long mDeleteBatchWindow;
+    private final int mDeleteBatchMaxKeys;
+
+    private final String mStorageType;
+    private final String mStorageRoot;
+    private final long mMmapThreshold;
+    private final int mIoThreads;
+
+    private final boolean mCacheEnabled;
+    private final String mCacheDir;
+    private final long mCacheMaxBytes;
+
+    private final long mOriginCacheMaxBytes;
+
+    private final boolean mBackfillEnabled;
+    private final String mBackfillCheckpoint;
+    private final double mBackfillRate;
+    private final int mBackfillMaxInFlight;
+    private final int mBackfillPageSize;
+    private final int mBackfillYieldQueueDepth;
+
+    private final boolean mHttpEnabled;
+    private final int mHttpPort;
+
+    // verticle class name -> how to deploy it
+    private final JsonObject mDeployment;
+
     private final String mKafkaHost;
     private final String mKafkaPort;
     private final String mPhotosTopic;
@@ -52,21 +217,88 @@ public class Config {
 
     private final String mDeleteRequest;
     private final String mScaleRequest;
+    private final boolean mReportSizes;
+    private final int mMaxInFlightPerPartition;
+    private final long mCommitInterval;
+    private final long mRevokeTimeout;
+    private final int mMaxPollRecords;
+    private final int mPauseInFlight;
+    private final int mResumeInFlight;
+    private final double mPauseMemoryShare;
+    private final double mResumeMemoryShare;
+    private final double mPauseQueueShare;
+    private final double mResumeQueueShare;
+    private final String mGroupId;
+    private final String mClientId;
+    private final long mProducerLinger;
+    private final int mProducerBatchSize;
+    private final String mProducerCompression;
+    private final boolean mProducerIdempotence;
+    private final String mProducerAcks;
+    private final int mProducerWriteQueueSize;
+    private final long mAggregateWindow;
 
     // Constructors
 
     public Config(@Nonnull JsonObject config) {
         mConfigObject = config;
 
+        mExtension = config.getString(EXTENSION);
+
         JsonArray sizes = config.getJsonArray(SIZES);
         mSizes = jsonSizesArrayToMap(sizes);
+        mProfiles = jsonSizesArrayToProfiles(sizes, mExtension);
+        mLazySizes = jsonSizesArrayToLazy(sizes);
 
         JsonObject aws = config.getJsonObject(AWS);
         mRegion = aws.getString(REGION);
         mUserpicsBucket = aws.getString(USERPICS_BUCKET);
         mPhotosBucket = aws.getString(PHOTOS_BUCKET);
 
-        mExtension = config.getString(EXTENSION);
+        JsonObject resize = config.getJsonObject(RESIZE, new JsonObject());
+        mTiledThreshold = resize.getLong(TILED_THRESHOLD, ImageResize.DEFAULT_TILED_THRESHOLD);
+        mStripPixels = resize.getInteger(STRIP_PIXELS, ImageResize.DEFAULT_STRIP_PIXELS);
+        mResizeEngine = resize.getString(ENGINE, ResizeEngines.AUTO);
+        mWorkerPoolSize = resize.getInteger(WORKER_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+        mMaxQueued = resize.getInteger(MAX_QUEUED, DEFAULT_MAX_QUEUED);
+        mPriorityWeights = jsonToWeights(resize.getJsonObject(WEIGHTS));
+        mMemoryShare = resize.getDouble(MEMORY_SHARE, DEFAULT_MEMORY_SHARE);
+
+        JsonObject transfer = config.getJsonObject(TRANSFER, new JsonObject());
+        mRangedDownloadThreshold = transfer.getLong(RANGED_DOWNLOAD_THRESHOLD, DEFAULT_RANGED_DOWNLOAD_THRESHOLD);
+        mRangeSize = transfer.getInteger(RANGE_SIZE, DEFAULT_RANGE_SIZE);
+        mMultipartThreshold = transfer.getLong(MULTIPART_THRESHOLD, DEFAULT_MULTIPART_THRESHOLD);
+        mPartSize = transfer.getInteger(PART_SIZE, DEFAULT_PART_SIZE);
+        mTransferParallelism = transfer.getInteger(PARALLELISM, DEFAULT_PARALLELISM);
+        mPartRetries = transfer.getInteger(PART_RETRIES, DEFAULT_PART_RETRIES);
+        mDeleteBatchWindow = transfer.getLong(DELETE_BATCH_WINDOW, DEFAULT_DELETE_BATCH_WINDOW);
+        mDeleteBatchMaxKeys = transfer.getInteger(DELETE_BATCH_MAX_KEYS, DEFAULT_DELETE_BATCH_MAX_KEYS);
+
+        JsonObject storage = config.getJsonObject(STORAGE, new JsonObject());
+        mStorageType = storage.getString(STORAGE_TYPE, DEFAULT_STORAGE_TYPE);
+        mStorageRoot = storage.getString(STORAGE_ROOT);
+        mMmapThreshold = storage.getLong(MMAP_THRESHOLD, DEFAULT_MMAP_THRESHOLD);
+        mIoThreads = storage.getInteger(IO_THREADS, DEFAULT_IO_THREADS);
+
+        JsonObject cache = config.getJsonObject(CACHE, new JsonObject());
+        mCacheEnabled = cache.getBoolean(CACHE_ENABLED, false);
+        mCacheDir = cache.getString(CACHE_DIR);
+        mCacheMaxBytes = cache.getLong(CACHE_MAX_BYTES, DEFAULT_CACHE_MAX_BYTES);
+        mOriginCacheMaxBytes = cache.getLong(ORIGIN_CACHE_MAX_BYTES, 0L);
+
+        JsonObject backfill = config.getJsonObject(BACKFILL, new JsonObject());
+        mBackfillEnabled = backfill.getBoolean(BACKFILL_ENABLED, false);
+        mBackfillCheckpoint = backfill.getString(BACKFILL_CHECKPOINT);
+        mBackfillRate = backfill.getDouble(BACKFILL_RATE, DEFAULT_BACKFILL_RATE);
+        mBackfillMaxInFlight = backfill.getInteger(BACKFILL_MAX_IN_FLIGHT, DEFAULT_BACKFILL_MAX_IN_FLIGHT);
+        mBackfillPageSize = backfill.getInteger(BACKFILL_PAGE_SIZE, DEFAULT_BACKFILL_PAGE_SIZE);
+        mBackfillYieldQueueDepth = backfill.getInteger(BACKFILL_YIELD_QUEUE_DEPTH, DEFAULT_BACKFILL_YIELD_QUEUE_DEPTH);
+
+        JsonObject http = config.getJsonObject(HTTP, new JsonObject());
+        mHttpEnabled = http.getBoolean(HTTP_ENABLED, false);
+        mHttpPort = http.getInteger(HTTP_PORT, DEFAULT_HTTP_PORT);
+
+        mDeployment = config.getJsonObject(DEPLOYMENT, new JsonObject());
 
         JsonObject kafka = config.getJsonObject(KAFKA);
         mKafkaHost = kafka.getString(KAFKA_HOST);
@@ -76,18 +308,83 @@ public class Config {
         mSagasTopic = kafka.getString(SAGAS_TOPIC);
         mDeleteRequest = kafka.getString(DELETE_REQUEST);
         mScaleRequest = kafka.getString(SCALE_REQUEST);
+        mReportSizes = kafka.getBoolean(REPORT_SIZES, false);
+        mMaxInFlightPerPartition = kafka.getInteger(MAX_IN_FLIGHT_PER_PARTITION, DEFAULT_MAX_IN_FLIGHT_PER_PARTITION);
+        mCommitInterval = kafka.getLong(COMMIT_INTERVAL, DEFAULT_COMMIT_INTERVAL);
+        mRevokeTimeout = kafka.getLong(REVOKE_TIMEOUT, DEFAULT_REVOKE_TIMEOUT);
+        mMaxPollRecords = kafka.getInteger(MAX_POLL_RECORDS, DEFAULT_MAX_POLL_RECORDS);
+        mPauseInFlight = kafka.getInteger(PAUSE_IN_FLIGHT, DEFAULT_PAUSE_IN_FLIGHT);
+        mResumeInFlight = kafka.getInteger(RESUME_IN_FLIGHT, DEFAULT_RESUME_IN_FLIGHT);
+        mPauseMemoryShare = kafka.getDouble(PAUSE_MEMORY_SHARE, DEFAULT_PAUSE_MEMORY_SHARE);
+        mResumeMemoryShare = kafka.getDouble(RESUME_MEMORY_SHARE, DEFAULT_RESUME_MEMORY_SHARE);
+        mPauseQueueShare = kafka.getDouble(PAUSE_QUEUE_SHARE, DEFAULT_PAUSE_QUEUE_SHARE);
+        mResumeQueueShare = kafka.getDouble(RESUME_QUEUE_SHARE, DEFAULT_RESUME_QUEUE_SHARE);
+        mGroupId = kafka.getString(GROUP_ID, DEFAULT_GROUP_ID);
+        mClientId = kafka.getString(CLIENT_ID, DEFAULT_CLIENT_ID);
+
+        JsonObject producer = kafka.getJsonObject(PRODUCER, new JsonObject());
+        mProducerLinger = producer.getLong(LINGER, DEFAULT_LINGER);
+        mProducerBatchSize = producer.getInteger(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        mProducerCompression = producer.getString(COMPRESSION, DEFAULT_COMPRESSION);
+        mProducerIdempotence = producer.getBoolean(IDEMPOTENCE, true);
+        mProducerAcks = producer.getString(ACKS, DEFAULT_ACKS);
+        mProducerWriteQueueSize = producer.getInteger(WRITE_QUEUE_SIZE, DEFAULT_WRITE_QUEUE_SIZE);
+        mAggregateWindow = producer.getLong(AGGREGATE_WINDOW, 0L);
     }
 
     // Public
 
     JsonObject toJson() {
-        JsonArray sizes = mapSizesToJsonArray(mSizes);
+        JsonArray sizes = mapSizesToJsonArray(mSizes, mProfiles, mLazySizes);
 
         JsonObject aws = new JsonObject()
                 .put(PHOTOS_BUCKET, mPhotosBucket)
                 .put(USERPICS_BUCKET, mUserpicsBucket)
                 .put(REGION, mRegion);
 
+        JsonObject resize = new JsonObject()
+                .put(TILED_THRESHOLD, mTiledThreshold)
+                .put(STRIP_PIXELS, mStripPixels)
+                .put(ENGINE, mResizeEngine)
+                .put(WORKER_POOL_SIZE, mWorkerPoolSize)
+                .put(MAX_QUEUED, mMaxQueued)
+                .put(WEIGHTS, new JsonObject(new HashMap<String, Object>(mPriorityWeights)))
+                .put(MEMORY_SHARE, mMemoryShare);
+
+        JsonObject transfer = new JsonObject()
+                .put(RANGED_DOWNLOAD_THRESHOLD, mRangedDownloadThreshold)
+                .put(RANGE_SIZE, mRangeSize)
+                .put(MULTIPART_THRESHOLD, mMultipartThreshold)
+                .put(PART_SIZE, mPartSize)
+                .put(PARALLELISM, mTransferParallelism)
+                .put(PART_RETRIES, mPartRetries)
+                .put(DELETE_BATCH_WINDOW, mDeleteBatchWindow)
+                .put(DELETE_BATCH_MAX_KEYS, mDeleteBatchMaxKeys);
+
+        JsonObject storage = new JsonObject()
+                .put(STORAGE_TYPE, mStorageType)
+                .put(STORAGE_ROOT, mStorageRoot)
+                .put(MMAP_THRESHOLD, mMmapThreshold)
+                .put(IO_THREADS, mIoThreads);
+
+        JsonObject cache = new JsonObject()
+                .put(CACHE_ENABLED, mCacheEnabled)
+                .put(CACHE_DIR, mCacheDir)
+                .put(CACHE_MAX_BYTES, mCacheMaxBytes)
+                .put(ORIGIN_CACHE_MAX_BYTES, mOriginCacheMaxBytes);
+
+        JsonObject backfill = new JsonObject()
+                .put(BACKFILL_ENABLED, mBackfillEnabled)
+                .put(BACKFILL_CHECKPOINT, mBackfillCheckpoint)
+                .put(BACKFILL_RATE, mBackfillRate)
+                .put(BACKFILL_MAX_IN_FLIGHT, mBackfillMaxInFlight)
+                .put(BACKFILL_PAGE_SIZE, mBackfillPageSize)
+                .put(BACKFILL_YIELD_QUEUE_DEPTH, mBackfillYieldQueueDepth);
+
+        JsonObject http = new JsonObject()
+                .put(HTTP_ENABLED, mHttpEnabled)
+                .put(HTTP_PORT, mHttpPort);
+
         JsonObject kafka = new JsonObject()
                 .put(KAFKA_HOST, mKafkaHost)
                 .put(KAFKA_PORT, mKafkaPort)
@@ -95,12 +392,40 @@ public class Config {
                 .put(USERPICS_TOPIC, mUserpicsTopic)
                 .put(SAGAS_TOPIC, mSagasTopic)
                 .put(DELETE_REQUEST, mDeleteRequest)
-                .put(SCALE_REQUEST, mScaleRequest);
+                .put(SCALE_REQUEST, mScaleRequest)
+                .put(REPORT_SIZES, mReportSizes)
+                .put(MAX_IN_FLIGHT_PER_PARTITION, mMaxInFlightPerPartition)
+                .put(COMMIT_INTERVAL, mCommitInterval)
+                .put(REVOKE_TIMEOUT, mRevokeTimeout)
+                .put(MAX_POLL_RECORDS, mMaxPollRecords)
+                .put(PAUSE_IN_FLIGHT, mPauseInFlight)
+                .put(RESUME_IN_FLIGHT, mResumeInFlight)
+                .put(PAUSE_MEMORY_SHARE, mPauseMemoryShare)
+                .put(RESUME_MEMORY_SHARE, mResumeMemoryShare)
+                .put(PAUSE_QUEUE_SHARE, mPauseQueueShare)
+                .put(RESUME_QUEUE_SHARE, mResumeQueueShare)
+                .put(GROUP_ID, mGroupId)
+                .put(CLIENT_ID, mClientId)
+                .put(PRODUCER, new JsonObject()
+                        .put(LINGER, mProducerLinger)
+                        .put(BATCH_SIZE, mProducerBatchSize)
+                        .put(COMPRESSION, mProducerCompression)
+                        .put(IDEMPOTENCE, mProducerIdempotence)
+                        .put(ACKS, mProducerAcks)
+                        .put(WRITE_QUEUE_SIZE, mProducerWriteQueueSize)
+                        .put(AGGREGATE_WINDOW, mAggregateWindow));
 
         return new JsonObject()
                 .put(SIZES, sizes)
                 .put(EXTENSION, mExtension)
                 .put(AWS, aws)
+                .put(RESIZE, resize)
+                .put(TRANSFER, transfer)
+                .put(STORAGE, storage)
+                .put(CACHE, cache)
+                .put(BACKFILL, backfill)
+                .put(HTTP, http)
+                .put(DEPLOYMENT, mDeployment)
                 .put(KAFKA, kafka);
     }
 
@@ -114,6 +439,23 @@ public class Config {
         return mSizes;
     }
 
+    // size name -> how to encode it's scales
+    public HashMap<String, EncodingProfile> getProfiles() {
+        return mProfiles;
+    }
+
+    // sizes, that are scaled only once requested over http, not on upload
+    public Set<String> getLazySizes() {
+        return mLazySizes;
+    }
+
+    // sizes, that are scaled on upload
+    public HashMap<String, Integer> getEagerSizes() {
+        HashMap<String, Integer> eager = new HashMap<>(mSizes);
+        eager.keySet().removeAll(mLazySizes);
+        return eager;
+    }
+
     public String getRegion() {
         return mRegion;
     }
@@ -130,6 +472,158 @@ public class Config {
         return mExtension;
     }
 
+    public long getTiledThreshold() {
+        return mTiledThreshold;
+    }
+
+    public int getStripPixels() {
+        return mStripPixels;
+    }
+
+    public String getResizeEngine() {
+        return mResizeEngine;
+    }
+
+    public int getWorkerPoolSize() {
+        return mWorkerPoolSize;
+    }
+
+    public int getMaxQueued() {
+        return mMaxQueued;
+    }
+
+    // priority class of resize workers -> it's share of the threads, when the others have work too
+    public Map<String, Integer> getPriorityWeights() {
+        return mPriorityWeights;
+    }
+
+    // share of the maximum heap, that decoded originals and their scales may take at once
+    public double getMemoryShare() {
+        return mMemoryShare;
+    }
+
+    // originals of this many bytes and more are downloaded with ranged GETs, zero disables it
+    public long getRangedDownloadThreshold() {
+        return mRangedDownloadThreshold;
+    }
+
+    public int getRangeSize() {
+        return mRangeSize;
+    }
+
+    // scales of this many bytes and more are uploaded with multipart upload, zero disables it
+    public long getMultipartThreshold() {
+        return mMultipartThreshold;
+    }
+
+    public int getPartSize() {
+        return mPartSize;
+    }
+
+    // concurrent ranges or parts of a single object
+    public int getTransferParallelism() {
+        return mTransferParallelism;
+    }
+
+    public int getPartRetries() {
+        return mPartRetries;
+    }
+
+    // deletes of different requests are sent together, if they come within this window
+    public long getDeleteBatchWindow() {
+        return mDeleteBatchWindow;
+    }
+
+    public int getDeleteBatchMaxKeys() {
+        return mDeleteBatchMaxKeys;
+    }
+
+    // "s3" or "filesystem"
+    public String getStorageType() {
+        return mStorageType;
+    }
+
+    // directory with a subdirectory per bucket, for filesystem storage only
+    public String getStorageRoot() {
+        return mStorageRoot;
+    }
+
+    // originals of this many bytes and more are memory-mapped, for filesystem storage only
+    public long getMmapThreshold() {
+        return mMmapThreshold;
+    }
+
+    // threads of the blocking storage io, e.g. reading local files or headers of originals, that are downloading
+    public int getIoThreads() {
+        return mIoThreads;
+    }
+
+    public boolean isCacheEnabled() {
+        return mCacheEnabled;
+    }
+
+    // directory of the local scale cache
+    public String getCacheDir() {
+        return mCacheDir;
+    }
+
+    public long getCacheMaxBytes() {
+        return mCacheMaxBytes;
+    }
+
+    // memory for recently downloaded originals, zero disables their caching
+    public long getOriginCacheMaxBytes() {
+        return mOriginCacheMaxBytes;
+    }
+
+    public boolean isBackfillEnabled() {
+        return mBackfillEnabled;
+    }
+
+    // file, where backfill keeps it's position
+    public String getBackfillCheckpoint() {
+        return mBackfillCheckpoint;
+    }
+
+    // originals per second, that backfill sends to scaling at most
+    public double getBackfillRate() {
+        return mBackfillRate;
+    }
+
+    public int getBackfillMaxInFlight() {
+        return mBackfillMaxInFlight;
+    }
+
+    public int getBackfillPageSize() {
+        return mBackfillPageSize;
+    }
+
+    // backfill waits while there are more resizes of live traffic queued than this
+    public int getBackfillYieldQueueDepth() {
+        return mBackfillYieldQueueDepth;
+    }
+
+    public boolean isHttpEnabled() {
+        return mHttpEnabled;
+    }
+
+    public int getHttpPort() {
+        return mHttpPort;
+    }
+
+    // number of instances, standard or worker, and worker pool of the verticle, one standard instance by default
+    public DeploymentOptions getDeploymentOptions(@Nonnull String verticle) {
+        JsonObject deployment = mDeployment.getJsonObject(verticle, new JsonObject());
+        DeploymentOptions options = new DeploymentOptions()
+                .setInstances(deployment.getInteger(INSTANCES, 1))
+                .setWorker(deployment.getBoolean(WORKER, false));
+
+        if (deployment.containsKey(WORKER_POOL_NAME)) options.setWorkerPoolName(deployment.getString(WORKER_POOL_NAME));
+        if (deployment.containsKey(WORKER_POOL_SIZE)) options.setWorkerPoolSize(deployment.getInteger(WORKER_POOL_SIZE));
+
+        return options;
+    }
+
     public String getKafkaHost() {
         return mKafkaHost;
     }
@@ -154,6 +648,100 @@ public class Config {
         return mScaleRequest;
     }
 
+    // whether every uploaded scale is reported on it's own, besides the whole request
+    public boolean isReportSizes() {
+        return mReportSizes;
+    }
+
+    // records of one partition, that are processed at once, before consuming it is paused
+    public int getMaxInFlightPerPartition() {
+        return mMaxInFlightPerPartition;
+    }
+
+    // how often offsets of completed records are committed
+    public long getCommitInterval() {
+        return mCommitInterval;
+    }
+
+    // how long requests of revoked partitions are waited for, before the done ones are committed
+    public long getRevokeTimeout() {
+        return mRevokeTimeout;
+    }
+
+    // records consumer takes with one poll
+    public int getMaxPollRecords() {
+        return mMaxPollRecords;
+    }
+
+    // consuming is paused, once this many requests are processed at once, and resumed below resumeInFlight
+    public int getPauseInFlight() {
+        return mPauseInFlight;
+    }
+
+    public int getResumeInFlight() {
+        return mResumeInFlight;
+    }
+
+    // the same for the share of memory budget taken by resizing
+    public double getPauseMemoryShare() {
+        return mPauseMemoryShare;
+    }
+
+    public double getResumeMemoryShare() {
+        return mResumeMemoryShare;
+    }
+
+    public double getPauseQueueShare() {
+        return mPauseQueueShare;
+    }
+
+    public double getResumeQueueShare() {
+        return mResumeQueueShare;
+    }
+
+    // consumer group, that all the nodes share
+    public String getGroupId() {
+        return mGroupId;
+    }
+
+    // prefix of client id of every consumer, each of them adds it's own suffix
+    public String getClientId() {
+        return mClientId;
+    }
+
+    // settings of sagas producer
+
+    public long getProducerLinger() {
+        return mProducerLinger;
+    }
+
+    public int getProducerBatchSize() {
+        return mProducerBatchSize;
+    }
+
+    // compression.type of kafka, e.g. lz4, zstd or none
+    public String getProducerCompression() {
+        return mProducerCompression;
+    }
+
+    public boolean isProducerIdempotence() {
+        return mProducerIdempotence;
+    }
+
+    public String getProducerAcks() {
+        return mProducerAcks;
+    }
+
+    // statuses, that are not acknowledged yet, before consuming is paused
+    public int getProducerWriteQueueSize() {
+        return mProducerWriteQueueSize;
+    }
+
+    // statuses are packed into one record per this window, zero sends every status as a record of it's own
+    public long getAggregateWindow() {
+        return mAggregateWindow;
+    }
+
     public String getSagasTopic() { return mSagasTopic; }
 
     // Utils
@@ -168,17 +756,50 @@ public class Config {
         return map;
     }
 
-    private JsonArray mapSizesToJsonArray(@Nonnull HashMap<String, Integer> map) {
+    private HashMap<String, EncodingProfile> jsonSizesArrayToProfiles(@Nonnull JsonArray jarr,
+                                                                     @Nonnull String defaultFormat) {
+        HashMap<String, EncodingProfile> map = new HashMap<>();
+        for (int i = 0; i < jarr.size(); i++) {
+            JsonObject current = jarr.getJsonObject(i);
+            map.put(
+                    current.getString(NAME),
+                    new EncodingProfile(current.getJsonObject(ENCODING, new JsonObject()), defaultFormat)
+            );
+        }
+
+        return map;
+    }
+
+    private Map<String, Integer> jsonToWeights(JsonObject json) {
+        if (json == null) return ResizeWorkers.DEFAULT_WEIGHTS;
+
+        HashMap<String, Integer> weights = new HashMap<>(ResizeWorkers.DEFAULT_WEIGHTS);
+        json.forEach(weight -> weights.put(weight.getKey(), ((Number) weight.getValue()).intValue()));
+        return weights;
+    }
+
+    private Set<String> jsonSizesArrayToLazy(@Nonnull JsonArray jarr) {
+        Set<String> lazy = new HashSet<>();
+        for (int i = 0; i < jarr.size(); i++) {
+            JsonObject current = jarr.getJsonObject(i);
+            if (current.getBoolean(LAZY, false)) lazy.add(current.getString(NAME));
+        }
+
+        return lazy;
+    }
+
+    private JsonArray mapSizesToJsonArray(@Nonnull HashMap<String, Integer> sizes,
+                                          @Nonnull HashMap<String, EncodingProfile> profiles,
+                                          @Nonnull Set<String> lazy) {
         JsonArray jarr = new JsonArray();
-        Iterator it = map.entrySet().iterator();
-        while (it.hasNext()) {
-            HashMap.Entry pair = (HashMap.Entry) it.next();
+        for (Map.Entry<String, Integer> pair : sizes.entrySet()) {
             jarr.add(
                     new JsonObject()
                             .put(NAME, pair.getKey())
                             .put(WIDTH, pair.getValue())
+                            .put(ENCODING, profiles.get(pair.getKey()).toJson())
+                            .put(LAZY, lazy.contains(pair.getKey()))
             );
-            it.remove(); // avoids a ConcurrentModificationException
         }
 
         return jarr;
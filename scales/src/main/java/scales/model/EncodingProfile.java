@@ -0,0 +1,101 @@
+package scales.model;
+
+import io.vertx.core.json.JsonObject;
+
+import javax.annotation.Nonnull;
+import java.util.Objects;
+
+/**
+ * Data class: how a scale is encoded, the "encoding" object of a size in conf/config.json.
+ * Every setting is optional, missing ones are left to the writer defaults
+ */
+public class EncodingProfile {
+
+    // Constants
+
+    private static final String FORMAT = "format";
+    private static final String QUALITY = "quality";
+    private static final String PROGRESSIVE = "progressive";
+    private static final String OPTIMIZE_HUFFMAN = "optimizeHuffman";
+
+    // Variables
+
+    private final String mFormat;
+    // null stands for writer's default quality
+    private final Float mQuality;
+    private final boolean mProgressive;
+    private final boolean mOptimizeHuffman;
+
+    // Constructors
+
+    public EncodingProfile(@Nonnull JsonObject json, @Nonnull String defaultFormat) {
+        mFormat = json.getString(FORMAT, defaultFormat);
+        mQuality = json.getFloat(QUALITY);
+        mProgressive = json.getBoolean(PROGRESSIVE, false);
+        mOptimizeHuffman = json.getBoolean(OPTIMIZE_HUFFMAN, false);
+    }
+
+    // profile with nothing but the format
+    public EncodingProfile(@Nonnull String format) {
+        mFormat = format;
+        mQuality = null;
+        mProgressive = false;
+        mOptimizeHuffman = false;
+    }
+
+    // Accessors
+
+    JsonObject toJson() {
+        JsonObject json = new JsonObject()
+                .put(FORMAT, mFormat)
+                .put(PROGRESSIVE, mProgressive)
+                .put(OPTIMIZE_HUFFMAN, mOptimizeHuffman);
+        if (mQuality != null) json.put(QUALITY, mQuality);
+
+        return json;
+    }
+
+    public String getFormat() {
+        return mFormat;
+    }
+
+    public Float getQuality() {
+        return mQuality;
+    }
+
+    public boolean isProgressive() {
+        return mProgressive;
+    }
+
+    public boolean isOptimizeHuffman() {
+        return mOptimizeHuffman;
+    }
+
+    // Utils
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EncodingProfile)) return false;
+        EncodingProfile that = (EncodingProfile) o;
+        return mProgressive == that.mProgressive &&
+                mOptimizeHuffman == that.mOptimizeHuffman &&
+                mFormat.equals(that.mFormat) &&
+                Objects.equals(mQuality, that.mQuality);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(mFormat, mQuality, mProgressive, mOptimizeHuffman);
+    }
+
+    @Override
+    public String toString() {
+        return "EncodingProfile {" +
+                "mFormat = '" + mFormat + '\'' +
+                "mQuality = '" + mQuality + '\'' +
+                "mProgressive = '" + mProgressive + '\'' +
+                "mOptimizeHuffman = '" + mOptimizeHuffman + '\'' +
+                '}';
+    }
+}
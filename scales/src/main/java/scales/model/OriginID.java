@@ -1,8 +1,11 @@
 package scales.model;
 
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Data class: representation of link to a photo in S3
@@ -13,6 +16,7 @@ public class OriginID {
 
     private static final String PHOTO_ID = "photoID";
     private static final String PHOTO_TYPE = "photoType";
+    private static final String SIZES = "sizes";
 
     // Variables
 
@@ -25,6 +29,8 @@ public class OriginID {
     }
 
     private final photoType mType;
+    // null stands for all of the configured sizes
+    private final List<String> mSizes;
 
     // Constructors
 
@@ -33,6 +39,9 @@ public class OriginID {
 
         mPhotoID = json.getString(PHOTO_ID);
         mType = photoTypeConversion(json.getString(PHOTO_TYPE));
+
+        JsonArray sizes = json.getJsonArray(SIZES);
+        mSizes = sizes == null ? null : sizes.stream().map(Object::toString).collect(Collectors.toList());
     }
 
     // photoType conversion functions
@@ -56,11 +65,19 @@ public class OriginID {
     }
 
     public OriginID(@Nonnull String photoID, photoType type) throws AssertionError {
+        this(photoID, type, null);
+    }
+
+    // only some of the sizes, e.g. the ones, that are missing
+    public OriginID(@Nonnull String photoID, photoType type, List<String> sizes) throws AssertionError {
         mJson = new JsonObject()
                 .put(PHOTO_ID, photoID)
                 .put(PHOTO_TYPE, photoTypeConversion(type));
+        if (sizes != null) mJson.put(SIZES, new JsonArray(sizes));
+
         mPhotoID = photoID;
         mType = type;
+        mSizes = sizes;
     }
 
     // Accessors
@@ -77,6 +94,10 @@ public class OriginID {
         return mType;
     }
 
+    public List<String> getSizes() {
+        return mSizes;
+    }
+
     private String getTypeString() {
         return photoTypeConversion(mType);
     }
@@ -88,6 +109,7 @@ public class OriginID {
         return "OriginID {" +
                 "mPhotoID = '" + mPhotoID + '\'' +
                 "mType = '" + getTypeString() + '\'' +
+                "mSizes = '" + mSizes + '\'' +
                 '}';
     }
 }
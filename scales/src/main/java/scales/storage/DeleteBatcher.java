@@ -0,0 +1,113 @@
+package scales.storage;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Collects deletes of many requests into one deleteAll per bucket:
+ * keys are sent after the window passes or once there are maxKeys of them, whichever comes first.
+ * Result of every key goes back to each of the requests waiting for it.
+ * Window of 0 or less sends every request's keys right away.
+ * Is to be used from a single event loop
+ */
+public class DeleteBatcher {
+
+    // Constants
+
+    private static final long NO_TIMER = -1;
+
+    // Variables
+
+    private final Vertx mVertx;
+    private final ObjectStore mStore;
+    private final long mWindow;
+    private final int mMaxKeys;
+
+    // bucket -> batch being collected
+    private final HashMap<String, Batch> mPending = new HashMap<>();
+
+    // Constructors
+
+    public DeleteBatcher(@Nonnull Vertx vertx, @Nonnull ObjectStore store, long windowMs, int maxKeys) {
+        mVertx = vertx;
+        mStore = store;
+        mWindow = windowMs;
+        mMaxKeys = maxKeys;
+    }
+
+    // Public
+
+    // completes when all of the keys are deleted, fails if any of them is not
+    public Future<Void> delete(@Nonnull String bucket, @Nonnull List<String> keys) {
+        List<Future<Void>> results = new ArrayList<>();
+        for (String key : keys) {
+            Batch batch = mPending.computeIfAbsent(bucket, this::newBatch);
+            // every request gets a promise of it's own, as future takes only one handler
+            Promise<Void> result = Promise.promise();
+            batch.mKeys.computeIfAbsent(key, k -> new ArrayList<>()).add(result);
+            results.add(result.future());
+
+            if (batch.mKeys.size() >= mMaxKeys) flush(bucket, batch);
+        }
+        // no window to wait for the other requests
+        if (mWindow <= 0) flushAll();
+
+        return CompositeFuture.all(new ArrayList<>(results)).mapEmpty();
+    }
+
+    // sends all of the keys collected so far, e.g. before the batcher is replaced
+    public void flushAll() {
+        new HashMap<>(mPending).forEach(this::flush);
+    }
+
+    // whether the batcher is the one, that would be created for those
+    public boolean matches(@Nonnull ObjectStore store, long windowMs, int maxKeys) {
+        return mStore == store && mWindow == windowMs && mMaxKeys == maxKeys;
+    }
+
+    // Private
+
+    private Batch newBatch(String bucket) {
+        Batch batch = new Batch();
+        // timers of 0 are not allowed, such batches are flushed by delete
+        if (mWindow > 0) batch.mTimer = mVertx.setTimer(mWindow, id -> flush(bucket, batch));
+        return batch;
+    }
+
+    private void flush(String bucket, Batch batch) {
+        // batch may have been flushed by size already
+        if (mPending.get(bucket) != batch) return;
+        mPending.remove(bucket);
+        if (batch.mTimer != NO_TIMER) mVertx.cancelTimer(batch.mTimer);
+
+        mStore.deleteAll(bucket, new ArrayList<>(batch.mKeys.keySet())).setHandler(ar -> {
+            for (Map.Entry<String, List<Promise<Void>>> key : batch.mKeys.entrySet()) {
+                for (Promise<Void> result : key.getValue()) {
+                    if (ar.failed()) {
+                        result.fail(ar.cause());
+                    } else if (ar.result().containsKey(key.getKey())) {
+                        result.fail(key.getKey() + " | " + ar.result().get(key.getKey()));
+                    } else {
+                        result.complete();
+                    }
+                }
+            }
+        });
+    }
+
+    private static class Batch {
+        // key -> promises of all of the requests, that want it deleted
+        private final LinkedHashMap<String, List<Promise<Void>>> mKeys = new LinkedHashMap<>();
+        private long mTimer = NO_TIMER;
+    }
+}
@@ -0,0 +1,328 @@
+package scales.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.buffer.Buffer;
+import scales.model.Config;
+import scales.utility.ByteBufImageInputStream;
+import scales.utility.StreamingImageInputStream;
+
+import javax.annotation.Nonnull;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Object store on top of a local directory, e.g. NVMe or mounted NFS: bucket is a subdirectory, key is a file in it.
+ * Big originals are memory-mapped, the rest is read with FileChannel in chunks.
+ * Scales are written with AsynchronousFileChannel to a temporary file, that is then moved in place,
+ * so readers never see a partially written scale. Blocking calls go to the storage io pool
+ */
+public class FileSystemObjectStore implements ObjectStore {
+
+    // Constants
+
+    public static final String TYPE = "filesystem";
+
+    private static final int READ_CHUNK = 64 * 1024;
+    private static final String TEMP_SUFFIX = ".part";
+
+    // listing of the bucket is reused for the following pages for so long,
+    // keys added after it was taken are scaled by live traffic anyway
+    private static final long SNAPSHOT_TTL = 10 * 60 * 1000;
+    private static final int SNAPSHOT_MAX_KEYS = 1_000_000;
+
+    // Variables
+
+    private final Vertx mVertx;
+    private final WorkerExecutor mIo;
+    private final Path mRoot;
+    private final long mMmapThreshold;
+    // sorted keys of the latest listing, written on io pool
+    private volatile Snapshot mSnapshot;
+
+    // Constructors
+
+    public FileSystemObjectStore(@Nonnull Vertx vertx, @Nonnull Config config) {
+        mVertx = vertx;
+        mIo = ObjectStores.ioExecutor(vertx, config);
+        mRoot = Paths.get(config.getStorageRoot()).toAbsolutePath().normalize();
+        mMmapThreshold = config.getMmapThreshold();
+    }
+
+    // Overrides
+
+    // local files are cheap to stat, head is of no use
+    @Override
+    public Future<ImageInputStream> get(String bucket, String key, ObjectHead head) {
+        Path path = path(bucket, key);
+        if (path == null) return Future.failedFuture("Invalid key: " + key);
+
+        Promise<ImageInputStream> promise = Promise.promise();
+        mIo.<ImageInputStream>executeBlocking(opened -> {
+            FileChannel channel;
+            long size;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+                size = channel.size();
+            } catch (NoSuchFileException e) {
+                opened.fail(new ObjectNotFoundException(bucket, key));
+                return;
+            } catch (IOException e) {
+                opened.fail(e);
+                return;
+            }
+
+            if (size >= mMmapThreshold) {
+                // mapping stays valid after the channel is closed
+                try (channel) {
+                    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    opened.complete(new ByteBufImageInputStream(Unpooled.wrappedBuffer(mapped)));
+                } catch (IOException e) {
+                    opened.fail(e);
+                }
+                return;
+            }
+
+            // decoding starts right away, while the rest is read on this very worker
+            StreamingImageInputStream origin = new StreamingImageInputStream((int) size);
+            opened.complete(origin);
+            readInto(channel, origin);
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    @Override
+    public Future<Void> put(String bucket, String key, ByteBuf data) {
+        Path path = path(bucket, key);
+        if (path == null) {
+            data.release();
+            return Future.failedFuture("Invalid key: " + key);
+        }
+
+        Context context = mVertx.getOrCreateContext();
+        Promise<Void> promise = Promise.promise();
+        mIo.<Void>executeBlocking(opened -> {
+            try {
+                Files.createDirectories(path.getParent());
+                Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), TEMP_SUFFIX);
+                AsynchronousFileChannel channel = AsynchronousFileChannel.open(temp, StandardOpenOption.WRITE);
+
+                write(channel, data.nioBuffer(), 0, err -> {
+                    Throwable cause = finishWrite(channel, temp, path, err);
+                    context.runOnContext(v -> {
+                        data.release();
+                        if (cause == null) {
+                            promise.complete();
+                        } else {
+                            promise.fail(cause);
+                        }
+                    });
+                });
+                opened.complete();
+            } catch (IOException e) {
+                opened.fail(e);
+            }
+        }, false, opened -> {
+            if (opened.failed()) {
+                data.release();
+                promise.fail(opened.cause());
+            }
+        });
+
+        return promise.future();
+    }
+
+    // ETag of size and modification time, like web servers do for static files
+    @Override
+    public Future<ObjectHead> head(String bucket, String key) {
+        Path path = path(bucket, key);
+        if (path == null) return Future.failedFuture("Invalid key: " + key);
+
+        Promise<ObjectHead> promise = Promise.promise();
+        mIo.<ObjectHead>executeBlocking(tagged -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                tagged.complete(new ObjectHead(Long.toHexString(attributes.size()) + "-" +
+                        Long.toHexString(attributes.lastModifiedTime().toMillis()), attributes.size()));
+            } catch (NoSuchFileException e) {
+                tagged.fail(new ObjectNotFoundException(bucket, key));
+            } catch (IOException e) {
+                tagged.fail(e);
+            }
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    @Override
+    public Future<Void> delete(String bucket, String key) {
+        Path path = path(bucket, key);
+        if (path == null) return Future.failedFuture("Invalid key: " + key);
+
+        Promise<Void> promise = Promise.promise();
+        mIo.<Void>executeBlocking(deleted -> {
+            try {
+                Files.deleteIfExists(path);
+                deleted.complete();
+            } catch (IOException e) {
+                deleted.fail(e);
+            }
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    // the first page walks and sorts the whole directory, the following ones are taken from that very listing,
+    // as long as it's fresh; buckets of more than SNAPSHOT_MAX_KEYS keys are walked for every page
+    @Override
+    public Future<ObjectListing> list(String bucket, String startAfter, int maxKeys) {
+        Path dir = mRoot.resolve(bucket).normalize();
+        if (!dir.getParent().equals(mRoot)) return Future.failedFuture("Invalid bucket: " + bucket);
+
+        Promise<ObjectListing> promise = Promise.promise();
+        mIo.<ObjectListing>executeBlocking(listed -> {
+            try {
+                List<String> keys = sortedKeys(bucket, dir, startAfter == null);
+
+                int from = 0;
+                if (startAfter != null) {
+                    int found = Collections.binarySearch(keys, startAfter);
+                    from = found >= 0 ? found + 1 : -found - 1;
+                }
+                int to = Math.min(from + maxKeys, keys.size());
+
+                listed.complete(new ObjectListing(new ArrayList<>(keys.subList(from, to)), to < keys.size()));
+            } catch (IOException e) {
+                listed.fail(e);
+            }
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    @Override
+    public void close() {
+        mIo.close();
+    }
+
+    // Private
+
+    // keys of the bucket in lexicographic order, the directory is walked again if fresh ones are asked for
+    private List<String> sortedKeys(String bucket, Path dir, boolean fresh) throws IOException {
+        Snapshot snapshot = mSnapshot;
+        if (!fresh && snapshot != null && snapshot.mBucket.equals(bucket) &&
+                System.currentTimeMillis() - snapshot.mTaken < SNAPSHOT_TTL) {
+            return snapshot.mKeys;
+        }
+
+        if (!Files.isDirectory(dir)) return new ArrayList<>();
+
+        List<String> keys;
+        try (Stream<Path> files = Files.list(dir)) {
+            keys = files
+                    .map(file -> file.getFileName().toString())
+                    .filter(key -> !key.endsWith(TEMP_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        if (keys.size() <= SNAPSHOT_MAX_KEYS) mSnapshot = new Snapshot(bucket, keys);
+        return keys;
+    }
+
+    // null if key points outside of the root
+    private Path path(String bucket, String key) {
+        Path path = mRoot.resolve(bucket).resolve(key).normalize();
+        return path.startsWith(mRoot.resolve(bucket)) && !path.equals(mRoot.resolve(bucket)) ? path : null;
+    }
+
+    private static void readInto(FileChannel channel, StreamingImageInputStream origin) {
+        byte[] chunk = new byte[READ_CHUNK];
+        ByteBuffer wrapped = ByteBuffer.wrap(chunk);
+
+        try (channel) {
+            int read;
+            while ((read = channel.read(wrapped.clear())) != -1) {
+                // chunk is copied by the stream, so it's reused
+                origin.append(Buffer.buffer(Unpooled.wrappedBuffer(chunk, 0, read)));
+            }
+            origin.end();
+        } catch (IOException e) {
+            origin.fail(e);
+        }
+    }
+
+    private static void write(AsynchronousFileChannel channel, ByteBuffer src, long position, Handler<Throwable> done) {
+        channel.write(src, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer written, Void attachment) {
+                if (src.hasRemaining()) {
+                    write(channel, src, position + written, done);
+                } else {
+                    done.handle(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable err, Void attachment) {
+                done.handle(err);
+            }
+        });
+    }
+
+    // close temporary file and move it in place, or remove it if anything failed
+    private static Throwable finishWrite(AsynchronousFileChannel channel, Path temp, Path path, Throwable err) {
+        try {
+            channel.close();
+            if (err == null) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return null;
+            }
+        } catch (IOException e) {
+            err = e;
+        }
+
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException ignored) {
+        }
+        return err;
+    }
+
+    private static class Snapshot {
+
+        private final String mBucket;
+        private final List<String> mKeys;
+        private final long mTaken = System.currentTimeMillis();
+
+        Snapshot(String bucket, List<String> keys) {
+            mBucket = bucket;
+            mKeys = keys;
+        }
+    }
+}
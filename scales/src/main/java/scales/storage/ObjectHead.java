@@ -0,0 +1,42 @@
+package scales.storage;
+
+
+/**
+ * Data class: what is known about the object without downloading it
+ */
+public class ObjectHead {
+
+    // Variables
+
+    private final String mETag;
+    private final long mLength;
+
+    // Constructors
+
+    public ObjectHead(String eTag, long length) {
+        mETag = eTag;
+        mLength = length;
+    }
+
+    // Accessors
+
+    // something, that changes whenever the object does, e.g. S3 ETag, null if store can't tell
+    public String getETag() {
+        return mETag;
+    }
+
+    // in bytes, -1 if store can't tell
+    public long getLength() {
+        return mLength;
+    }
+
+    // Utils
+
+    @Override
+    public String toString() {
+        return "ObjectHead {" +
+                "mETag = '" + mETag + '\'' +
+                "mLength = '" + mLength + '\'' +
+                '}';
+    }
+}
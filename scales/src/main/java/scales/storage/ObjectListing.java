@@ -0,0 +1,43 @@
+package scales.storage;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+
+/**
+ * Data class: one page of keys of a bucket, in lexicographic order
+ */
+public class ObjectListing {
+
+    // Variables
+
+    private final List<String> mKeys;
+    private final boolean mTruncated;
+
+    // Constructors
+
+    public ObjectListing(@Nonnull List<String> keys, boolean truncated) {
+        mKeys = keys;
+        mTruncated = truncated;
+    }
+
+    // Accessors
+
+    public List<String> getKeys() {
+        return mKeys;
+    }
+
+    // whether there are more keys after the last one of this page
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    // Utils
+
+    @Override
+    public String toString() {
+        return "ObjectListing {" +
+                "mKeys = '" + mKeys.size() + '\'' +
+                "mTruncated = '" + mTruncated + '\'' +
+                '}';
+    }
+}
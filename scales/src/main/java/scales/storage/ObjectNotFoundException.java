@@ -0,0 +1,13 @@
+package scales.storage;
+
+
+/**
+ * Failure of the store, that is asked for the object, which doesn't exist
+ */
+public class ObjectNotFoundException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ObjectNotFoundException(String bucket, String key) {
+        super("No such object: " + bucket + "/" + key);
+    }
+}
@@ -0,0 +1,60 @@
+package scales.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+
+import javax.imageio.stream.ImageInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+
+/**
+ * Where originals are taken from and scales are put to, objects are addressed by bucket and key.
+ * All the methods are to be called on event loop, results come back on it too.
+ * Reads of the object, that doesn't exist, fail with ObjectNotFoundException
+ */
+public interface ObjectStore {
+
+    // completes as soon as the object is readable,
+    // the stream may still be filled while image is being decoded from it
+    default Future<ImageInputStream> get(String bucket, String key) {
+        return get(bucket, key, null);
+    }
+
+    // same, head is the one just taken by head(), so that store doesn't have to ask for it again, null if none
+    Future<ImageInputStream> get(String bucket, String key, ObjectHead head);
+
+    // takes ownership of data and releases it when done
+    Future<Void> put(String bucket, String key, ByteBuf data);
+
+    // ETag and length of the object
+    Future<ObjectHead> head(String bucket, String key);
+
+    // deleting absent object is not an error
+    Future<Void> delete(String bucket, String key);
+
+    // up to maxKeys keys, that come after startAfter in lexicographic order, null startAfter is the beginning
+    Future<ObjectListing> list(String bucket, String startAfter, int maxKeys);
+
+    // releases connections and threads of the store, requests, that are still running, may fail
+    default void close() {
+    }
+
+    // completes with keys, that were not deleted, mapped to the reason;
+    // one request per key, unless the store can do better
+    default Future<Map<String, String>> deleteAll(String bucket, List<String> keys) {
+        HashMap<String, String> errors = new HashMap<>();
+        List<Future<Void>> deletes = keys
+                .stream()
+                .map(key -> delete(bucket, key).recover(err -> {
+                    errors.put(key, err.getMessage());
+                    return Future.succeededFuture();
+                }))
+                .collect(Collectors.toList());
+        return CompositeFuture.join(new ArrayList<>(deletes)).map(errors);
+    }
+}
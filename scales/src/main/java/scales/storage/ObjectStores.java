@@ -0,0 +1,71 @@
+package scales.storage;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import scales.model.Config;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Creates the object store, that is set up in config
+ */
+public class ObjectStores {
+
+    // Constants
+
+    // replaced store is closed once the transfers, that have been started on it, are likely over
+    private static final long CLOSE_DELAY = 60 * 1000;
+
+    // blocking storage io doesn't take the default worker pool away from the rest of work
+    private static final String IO_POOL = "scales-storage-io";
+
+    // Public
+
+    public static ObjectStore fromConfig(@Nonnull Vertx vertx, @Nonnull Config config) {
+        switch (config.getStorageType()) {
+            case S3ObjectStore.TYPE:
+                return new S3ObjectStore(vertx, config);
+            case FileSystemObjectStore.TYPE:
+                return new FileSystemObjectStore(vertx, config);
+            default:
+                throw new IllegalArgumentException("Unknown storage type: " + config.getStorageType());
+        }
+    }
+
+    // pool of blocking storage io, shared by everyone, who takes it, each one closes it once done
+    public static WorkerExecutor ioExecutor(@Nonnull Vertx vertx, @Nonnull Config config) {
+        return vertx.createSharedWorkerExecutor(IO_POOL, config.getIoThreads());
+    }
+
+    // current store, if config didn't change the storage since previous one, new store otherwise,
+    // the current one is closed a bit later then; store is null before the first config
+    public static ObjectStore update(@Nonnull Vertx vertx, ObjectStore store,
+                                     Config previous, @Nonnull Config config) {
+        if (store != null && previous != null && settings(previous).equals(settings(config))) return store;
+
+        ObjectStore updated = fromConfig(vertx, config);
+        if (store != null) vertx.setTimer(CLOSE_DELAY, id -> store.close());
+        return updated;
+    }
+
+    // Private
+
+    // everything the stores are created from
+    private static List<Object> settings(Config config) {
+        return List.of(
+                config.getStorageType(),
+                Objects.toString(config.getRegion()),
+                Objects.toString(config.getStorageRoot()),
+                config.getMmapThreshold(),
+                config.getRangedDownloadThreshold(),
+                config.getRangeSize(),
+                config.getMultipartThreshold(),
+                config.getPartSize(),
+                config.getTransferParallelism(),
+                config.getPartRetries()
+        );
+    }
+}
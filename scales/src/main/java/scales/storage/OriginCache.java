@@ -0,0 +1,236 @@
+package scales.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded in-memory cache of recently downloaded originals, so that re-scaling one soon after upload
+ * (retry, backfill, lazy size) doesn't download it again. Originals are addressed by bucket and key,
+ * entry is valid only for the ETag it was downloaded with, data is kept off-heap in pooled direct buffers.
+ * Segmented LRU: new entries go to probation segment, the ones hit again are promoted to protected segment,
+ * so that a burst of one-off uploads doesn't wash out originals, that are actually re-scaled
+ */
+public class OriginCache implements Shareable {
+
+    // Constants
+
+    // share of bytes, that protected segment may take
+    private static final double PROTECTED_SHARE = 0.8;
+
+    // Variables
+
+    private final Vertx mVertx;
+    private final long mMaxBytes;
+    private final long mMaxProtectedBytes;
+
+    // bucket/key -> entry, least recently used first
+    private final LinkedHashMap<String, Entry> mProbation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> mProtected = new LinkedHashMap<>(16, 0.75f, true);
+    private long mProbationBytes;
+    private long mProtectedBytes;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private boolean mClosed;
+
+    // Constructors
+
+    public OriginCache(@Nonnull Vertx vertx, long maxBytes) {
+        mVertx = vertx;
+        mMaxBytes = maxBytes;
+        mMaxProtectedBytes = (long) (maxBytes * PROTECTED_SHARE);
+    }
+
+    // Public
+
+    // original to be released by the caller, null on miss
+    public synchronized ByteBuf get(@Nonnull String bucket, @Nonnull String key, @Nonnull String eTag) {
+        String name = name(bucket, key);
+
+        Entry entry = mProtected.get(name);
+        if (entry == null) {
+            entry = mProbation.remove(name);
+            if (entry != null) {
+                mProbationBytes -= entry.size();
+                if (entry.mETag.equals(eTag)) {
+                    // hit for the second time, it's worth protecting
+                    mProtected.put(name, entry);
+                    mProtectedBytes += entry.size();
+                    demote();
+                } else {
+                    entry.mData.release();
+                    entry = null;
+                }
+            }
+        } else if (!entry.mETag.equals(eTag)) {
+            invalidate(bucket, key);
+            entry = null;
+        }
+
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+
+        mHits++;
+        return entry.mData.retainedDuplicate();
+    }
+
+    // copies the original off-heap on worker, originals bigger than the whole cache are not admitted;
+    // completes once the copy is in the cache, or right away if it's not admitted
+    public Future<Void> put(@Nonnull String bucket, @Nonnull String key, @Nonnull String eTag,
+                            @Nonnull Buffer original) {
+        int size = original.length();
+        if (size == 0 || size > mMaxBytes) return Future.succeededFuture();
+
+        Promise<Void> promise = Promise.promise();
+        mVertx.<Void>executeBlocking(copied -> {
+            ByteBuf data = PooledByteBufAllocator.DEFAULT.directBuffer(size, size);
+            data.writeBytes(original.getByteBuf());
+            insert(name(bucket, key), new Entry(eTag, data));
+            copied.complete();
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    // e.g. once the original is deleted
+    public synchronized void invalidate(@Nonnull String bucket, @Nonnull String key) {
+        String name = name(bucket, key);
+
+        Entry entry = mProbation.remove(name);
+        if (entry != null) {
+            mProbationBytes -= entry.size();
+            entry.mData.release();
+        }
+        entry = mProtected.remove(name);
+        if (entry != null) {
+            mProtectedBytes -= entry.size();
+            entry.mData.release();
+        }
+    }
+
+    // current state along with hits and misses since the previous call
+    public synchronized JsonObject stats() {
+        JsonObject stats = new JsonObject()
+                .put("entries", mProbation.size() + mProtected.size())
+                .put("bytes", mProbationBytes + mProtectedBytes)
+                .put("protectedBytes", mProtectedBytes)
+                .put("maxBytes", mMaxBytes)
+                .put("hits", mHits)
+                .put("misses", mMisses)
+                .put("hitRatio", mHits + mMisses == 0 ? 0.0 : (double) mHits / (mHits + mMisses))
+                .put("evictions", mEvictions);
+
+        mHits = 0;
+        mMisses = 0;
+        return stats;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    // drop everything, e.g. when the cache is replaced
+    public synchronized void close() {
+        mClosed = true;
+        mProbation.values().forEach(entry -> entry.mData.release());
+        mProtected.values().forEach(entry -> entry.mData.release());
+        mProbation.clear();
+        mProtected.clear();
+        mProbationBytes = 0;
+        mProtectedBytes = 0;
+    }
+
+    // Private
+
+    private synchronized void insert(String name, Entry entry) {
+        // copied after the cache was replaced
+        if (mClosed) {
+            entry.mData.release();
+            return;
+        }
+
+        // newer download of the same original replaces the older one
+        Entry previous = mProbation.remove(name);
+        if (previous != null) {
+            mProbationBytes -= previous.size();
+            previous.mData.release();
+        }
+        previous = mProtected.remove(name);
+        if (previous != null) {
+            mProtectedBytes -= previous.size();
+            previous.mData.release();
+        }
+
+        mProbation.put(name, entry);
+        mProbationBytes += entry.size();
+        evict();
+    }
+
+    // least recently used protected entries go back to probation, once protected segment is full
+    private void demote() {
+        Iterator<Map.Entry<String, Entry>> it = mProtected.entrySet().iterator();
+        while (mProtectedBytes > mMaxProtectedBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            mProtectedBytes -= eldest.getValue().size();
+            mProbation.put(eldest.getKey(), eldest.getValue());
+            mProbationBytes += eldest.getValue().size();
+        }
+        evict();
+    }
+
+    // probation goes first, protected only if probation alone can't free enough
+    private void evict() {
+        evict(mProbation, true);
+        evict(mProtected, false);
+    }
+
+    private void evict(LinkedHashMap<String, Entry> segment, boolean probation) {
+        Iterator<Map.Entry<String, Entry>> it = segment.entrySet().iterator();
+        while (mProbationBytes + mProtectedBytes > mMaxBytes && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            if (probation) {
+                mProbationBytes -= eldest.size();
+            } else {
+                mProtectedBytes -= eldest.size();
+            }
+            eldest.mData.release();
+            mEvictions++;
+        }
+    }
+
+    private static String name(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    private static class Entry {
+
+        private final String mETag;
+        private final ByteBuf mData;
+
+        Entry(String eTag, ByteBuf data) {
+            mETag = eTag;
+            mData = data;
+        }
+
+        int size() {
+            return mData.readableBytes();
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package scales.storage;
+
+import com.hubrick.vertx.s3.client.S3Client;
+import com.hubrick.vertx.s3.client.S3ClientOptions;
+import com.hubrick.vertx.s3.exception.HttpErrorException;
+import com.hubrick.vertx.s3.model.Part;
+import com.hubrick.vertx.s3.model.request.AbortMultipartUploadRequest;
+import com.hubrick.vertx.s3.model.request.CompleteMultipartUploadRequest;
+import com.hubrick.vertx.s3.model.request.ContinueMultipartUploadRequest;
+import com.hubrick.vertx.s3.model.request.DeleteObjectRequest;
+import com.hubrick.vertx.s3.model.request.GetObjectRequest;
+import com.hubrick.vertx.s3.model.request.HeadObjectRequest;
+import com.hubrick.vertx.s3.model.request.InitMultipartUploadRequest;
+import com.hubrick.vertx.s3.model.request.PutObjectRequest;
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+import scales.model.Config;
+import scales.utility.StreamingImageInputStream;
+
+import javax.annotation.Nonnull;
+import javax.imageio.stream.ImageInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+
+/**
+ * Object store on top of S3, uses several connections for big objects:
+ * originals above the threshold are fetched as concurrent ranged GETs into one presized buffer,
+ * scales above the threshold are uploaded with multipart upload, every part being retried on it's own.
+ * All the methods are to be called on event loop
+ */
+public class S3ObjectStore implements ObjectStore {
+
+    // Constants
+
+    public static final String TYPE = "s3";
+
+    // very sensible data
+
+    private static final String ACCESS_KEY = System.getenv("AWS_S3_ACCESS_KEY");
+    private static final String SECRET_KEY = System.getenv("AWS_S3_SECRET_KEY");
+
+    // initial size of the original buffer, when S3 doesn't tell it's length
+    private static final int DEFAULT_ORIGIN_SIZE = 1024 * 1024;
+
+    // Variables
+
+    private final S3Client mClient;
+    private final S3Requests mRequests;
+    // zero disables ranged downloads and multipart uploads respectively
+    private final long mRangedDownloadThreshold;
+    private final int mRangeSize;
+    private final long mMultipartThreshold;
+    private final int mPartSize;
+    private final int mParallelism;
+    private final int mPartRetries;
+
+    // Constructors
+
+    public S3ObjectStore(@Nonnull Vertx vertx, @Nonnull Config config) throws NullPointerException {
+        this(vertx, config, setupS3Client(vertx, config.getRegion()));
+    }
+
+    // client may be null, if the calls of it are overridden, e.g. in tests
+    protected S3ObjectStore(@Nonnull Vertx vertx, @Nonnull Config config, S3Client client) {
+        mClient = client;
+        mRequests = new S3Requests(vertx, config.getRegion(), ACCESS_KEY, SECRET_KEY);
+        mRangedDownloadThreshold = config.getRangedDownloadThreshold();
+        mRangeSize = config.getRangeSize();
+        mMultipartThreshold = config.getMultipartThreshold();
+        mPartSize = config.getPartSize();
+        mParallelism = config.getTransferParallelism();
+        mPartRetries = config.getPartRetries();
+    }
+
+    // Overrides
+
+    // completes as soon as data starts coming, the rest of it keeps on filling the stream;
+    // length of the head, e.g. the one taken along with ETag, saves a HEAD request of it's own
+    @Override
+    public Future<ImageInputStream> get(String bucket, String key, ObjectHead head) {
+        if (mRangedDownloadThreshold <= 0) return getWhole(bucket, key);
+        if (head != null && head.getLength() >= 0) return getSized(bucket, key, head.getLength());
+
+        return head(bucket, key).compose(fresh -> getSized(bucket, key, fresh.getLength()));
+    }
+
+    @Override
+    public Future<Void> put(String bucket, String key, ByteBuf data) {
+        Future<Void> result = mMultipartThreshold <= 0 || data.readableBytes() < mMultipartThreshold ?
+                putWhole(bucket, key, data) : putMultipart(bucket, key, data);
+
+        Promise<Void> promise = Promise.promise();
+        result.setHandler(ar -> {
+            data.release();
+            promise.handle(ar);
+        });
+
+        return promise.future();
+    }
+
+    @Override
+    public Future<ObjectHead> head(String bucket, String key) {
+        Promise<ObjectHead> promise = Promise.promise();
+        mClient.headObject(bucket, key, new HeadObjectRequest(),
+                headResponse -> {
+                    Long length = headResponse.getHeader().getContentLength();
+                    promise.complete(new ObjectHead(headResponse.getHeader().getETag(), length == null ? -1 : length));
+                },
+                err -> promise.fail(notFound(err, bucket, key))
+        );
+
+        return promise.future();
+    }
+
+    @Override
+    public Future<Void> delete(String bucket, String key) {
+        Promise<Void> promise = Promise.promise();
+        mClient.deleteObject(bucket, key, new DeleteObjectRequest(),
+                deleteResponse -> promise.complete(),
+                promise::fail
+        );
+
+        return promise.future();
+    }
+
+    // ListObjectsV2
+    @Override
+    public Future<ObjectListing> list(String bucket, String startAfter, int maxKeys) {
+        return mRequests.listObjects(bucket, startAfter, Math.min(maxKeys, S3Requests.MAX_KEYS));
+    }
+
+    @Override
+    public void close() {
+        if (mClient != null) mClient.close();
+        mRequests.close();
+    }
+
+    // one DeleteObjects request per up to a thousand keys
+    @Override
+    public Future<Map<String, String>> deleteAll(String bucket, List<String> keys) {
+        List<Future<Map<String, String>>> requests = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += S3Requests.MAX_KEYS) {
+            List<String> chunk = keys.subList(from, Math.min(from + S3Requests.MAX_KEYS, keys.size()));
+            requests.add(mRequests.deleteObjects(bucket, chunk));
+        }
+
+        return CompositeFuture.all(new ArrayList<>(requests)).map(all -> {
+            HashMap<String, String> errors = new HashMap<>();
+            for (int i = 0; i < all.size(); i++) {
+                errors.putAll(all.resultAt(i));
+            }
+            return errors;
+        });
+    }
+
+    // Protected, single calls of the client, ranged downloads and multipart uploads are made of
+
+    // data of bytes from..to inclusive, handlers are to be set right away
+    protected Future<ReadStream<Buffer>> rangeData(String bucket, String key, long from, long to) {
+        Promise<ReadStream<Buffer>> promise = Promise.promise();
+        mClient.getObject(bucket, key, new GetObjectRequest().withRange("bytes=" + from + "-" + to),
+                getResponse -> promise.complete(getResponse.getData()),
+                promise::fail
+        );
+
+        return promise.future();
+    }
+
+    // upload id
+    protected Future<String> initMultipart(String bucket, String key) {
+        Promise<String> promise = Promise.promise();
+        mClient.initMultipartUpload(bucket, key, new InitMultipartUploadRequest(),
+                initResponse -> promise.complete(initResponse.getData().getUploadId()),
+                promise::fail
+        );
+
+        return promise.future();
+    }
+
+    // ETag of the uploaded part, a single attempt
+    protected Future<String> uploadPart(String bucket, String key, String uploadId, int partNumber, Buffer part) {
+        Promise<String> promise = Promise.promise();
+        mClient.continueMultipartUpload(bucket, key, new ContinueMultipartUploadRequest(part, partNumber, uploadId),
+                partResponse -> promise.complete(partResponse.getHeader().getETag()),
+                promise::fail
+        );
+
+        return promise.future();
+    }
+
+    protected Future<Void> completeMultipart(String bucket, String key, String uploadId, String[] eTags) {
+        List<Part> parts = new ArrayList<>();
+        for (int i = 0; i < eTags.length; i++) {
+            parts.add(new Part(i + 1, eTags[i]));
+        }
+
+        Promise<Void> promise = Promise.promise();
+        mClient.completeMultipartUpload(bucket, key, new CompleteMultipartUploadRequest(uploadId, parts),
+                completeResponse -> promise.complete(),
+                promise::fail
+        );
+
+        return promise.future();
+    }
+
+    // so that parts already uploaded aren't stored (and paid for) forever
+    protected void abortMultipart(String bucket, String key, String uploadId) {
+        mClient.abortMultipartUpload(bucket, key, new AbortMultipartUploadRequest(uploadId),
+                abortResponse -> {
+                },
+                err -> {
+                }
+        );
+    }
+
+    // Private
+
+    private static S3Client setupS3Client(Vertx vertx, String region) throws NullPointerException {
+        if (ACCESS_KEY == null || SECRET_KEY == null || region == null) {
+            throw new NullPointerException("Environment variables not settled up to it's values!");
+        }
+
+        S3ClientOptions clientOptions = new S3ClientOptions()
+                .setAwsRegion(region)
+                .setAwsServiceName("s3")
+                .setAwsAccessKey(ACCESS_KEY)
+                .setAwsSecretKey(SECRET_KEY);
+
+        return new S3Client(vertx, clientOptions);
+    }
+
+    // 404 is told apart from the rest of failures
+    private static Throwable notFound(Throwable err, String bucket, String key) {
+        if (err instanceof HttpErrorException && ((HttpErrorException) err).getStatus() == 404) {
+            return new ObjectNotFoundException(bucket, key);
+        }
+        return err;
+    }
+
+    // big ones in ranges, length is -1 if unknown
+    private Future<ImageInputStream> getSized(String bucket, String key, long length) {
+        if (length < mRangedDownloadThreshold) return getWhole(bucket, key);
+
+        StreamingImageInputStream origin = new StreamingImageInputStream((int) length);
+        getRanges(bucket, key, length, origin).setHandler(ar -> {
+            if (ar.succeeded()) {
+                origin.end();
+            } else {
+                origin.fail(ar.cause());
+            }
+        });
+
+        return Future.succeededFuture(origin);
+    }
+
+    private Future<ImageInputStream> getWhole(String bucket, String key) {
+        Promise<ImageInputStream> promise = Promise.promise();
+        mClient.getObject(bucket, key, new GetObjectRequest(),
+                getResponse -> {
+                    Long length = getResponse.getHeader().getContentLength();
+                    StreamingImageInputStream origin = new StreamingImageInputStream(
+                            length == null ? DEFAULT_ORIGIN_SIZE : length.intValue()
+                    );
+
+                    getResponse.getData().handler(origin::append);
+                    getResponse.getData().exceptionHandler(origin::fail);
+                    getResponse.getData().endHandler(ar -> origin.end());
+                    promise.complete(origin);
+                },
+                err -> promise.fail(notFound(err, bucket, key))
+        );
+
+        return promise.future();
+    }
+
+    private Future<Void> getRanges(String bucket, String key, long length, StreamingImageInputStream origin) {
+        int ranges = (int) ((length + mRangeSize - 1) / mRangeSize);
+
+        return runBounded(ranges, i -> {
+            long from = (long) i * mRangeSize;
+            long to = Math.min(from + mRangeSize, length) - 1;
+
+            return getRange(bucket, key, from, to, origin);
+        });
+    }
+
+    // bytes from..to inclusive, written at their place in origin
+    private Future<Void> getRange(String bucket, String key, long from, long to, StreamingImageInputStream origin) {
+        Promise<Void> promise = Promise.promise();
+        rangeData(bucket, key, from, to).setHandler(started -> {
+            if (started.failed()) {
+                promise.tryFail(started.cause());
+                return;
+            }
+
+            ReadStream<Buffer> data = started.result();
+            long[] position = {from};
+            data.handler(chunk -> {
+                origin.write(position[0], chunk);
+                position[0] += chunk.length();
+            });
+            data.exceptionHandler(promise::tryFail);
+            data.endHandler(ar -> {
+                if (position[0] == to + 1) {
+                    promise.tryComplete();
+                } else {
+                    promise.tryFail("Range " + from + "-" + to + " ended at " + position[0]);
+                }
+            });
+        });
+
+        return promise.future();
+    }
+
+    // request body wraps the buffer itself, no copies
+    private Future<Void> putWhole(String bucket, String key, ByteBuf data) {
+        Promise<Void> promise = Promise.promise();
+        mClient.putObject(bucket, key, new PutObjectRequest(Buffer.buffer(data)),
+                putResponse -> promise.complete(),
+                promise::fail
+        );
+
+        return promise.future();
+    }
+
+    private Future<Void> putMultipart(String bucket, String key, ByteBuf data) {
+        int parts = (data.readableBytes() + mPartSize - 1) / mPartSize;
+        String[] eTags = new String[parts];
+
+        Promise<Void> promise = Promise.promise();
+        initMultipart(bucket, key).setHandler(initAr -> {
+            if (initAr.failed()) {
+                promise.fail(initAr.cause());
+                return;
+            }
+
+            String uploadId = initAr.result();
+            runBounded(parts, i -> {
+                int offset = data.readerIndex() + i * mPartSize;
+                int partLength = Math.min(mPartSize, data.writerIndex() - offset);
+                Buffer part = Buffer.buffer(data.slice(offset, partLength));
+
+                // part numbers start from 1
+                return putPart(bucket, key, uploadId, i + 1, part, mPartRetries)
+                        .map(eTag -> eTags[i] = eTag)
+                        .mapEmpty();
+            }).compose(
+                    v -> completeMultipart(bucket, key, uploadId, eTags)
+            ).setHandler(ar -> {
+                if (ar.failed()) abortMultipart(bucket, key, uploadId);
+                promise.handle(ar);
+            });
+        });
+
+        return promise.future();
+    }
+
+    // ETag of the uploaded part
+    private Future<String> putPart(String bucket, String key, String uploadId,
+                                   int partNumber, Buffer part, int retriesLeft) {
+        Future<String> uploaded = uploadPart(bucket, key, uploadId, partNumber, part);
+
+        if (retriesLeft <= 0) return uploaded;
+        return uploaded.recover(
+                err -> putPart(bucket, key, uploadId, partNumber, part, retriesLeft - 1)
+        );
+    }
+
+    // run tasks 0..count-1, no more than mParallelism at a time, fail on the first failure
+    private Future<Void> runBounded(int count, IntFunction<Future<Void>> task) {
+        Promise<Void> promise = Promise.promise();
+        int[] started = {0};
+        int[] finished = {0};
+
+        Runnable[] next = new Runnable[1];
+        next[0] = () -> {
+            int i = started[0]++;
+            task.apply(i).setHandler(ar -> {
+                if (ar.failed()) {
+                    promise.tryFail(ar.cause());
+                    return;
+                }
+
+                finished[0]++;
+                if (finished[0] == count) {
+                    promise.tryComplete();
+                } else if (started[0] < count && !promise.future().isComplete()) {
+                    next[0].run();
+                }
+            });
+        };
+
+        if (count == 0) {
+            promise.complete();
+        }
+        for (int i = 0; i < Math.min(mParallelism, count); i++) {
+            next[0].run();
+        }
+
+        return promise.future();
+    }
+}
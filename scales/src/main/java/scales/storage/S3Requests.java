@@ -0,0 +1,267 @@
+package scales.storage;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+
+/**
+ * S3 REST calls, which S3 client at hand doesn't have, signed with AWS Signature Version 4:
+ * multi-object delete of up to MAX_KEYS keys with a single request and ListObjectsV2
+ */
+class S3Requests {
+
+    // Constants
+
+    static final int MAX_KEYS = 1000;
+
+    private static final String SERVICE = "s3";
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter AMZ_DATE = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+    // Variables
+
+    private final WebClient mClient;
+    private final String mHost;
+    private final String mRegion;
+    private final String mAccessKey;
+    private final String mSecretKey;
+
+    // Constructors
+
+    S3Requests(Vertx vertx, String region, String accessKey, String secretKey) {
+        mHost = SERVICE + "." + region + ".amazonaws.com";
+        mRegion = region;
+        mAccessKey = accessKey;
+        mSecretKey = secretKey;
+        mClient = WebClient.create(vertx, new WebClientOptions()
+                .setSsl(true)
+                .setDefaultHost(mHost)
+                .setDefaultPort(443)
+        );
+    }
+
+    // Package-private
+
+    void close() {
+        mClient.close();
+    }
+
+    // completes with keys, that were not deleted, mapped to the reason; fails if request failed as a whole
+    Future<Map<String, String>> deleteObjects(String bucket, List<String> keys) {
+        TreeMap<String, String> query = new TreeMap<>();
+        query.put("delete", "");
+
+        return send(HttpMethod.POST, bucket, query, deleteBody(keys)).map(S3Requests::deleteErrors);
+    }
+
+    // up to maxKeys keys, that come after startAfter in lexicographic order, null startAfter is the beginning
+    Future<ObjectListing> listObjects(String bucket, String startAfter, int maxKeys) {
+        TreeMap<String, String> query = new TreeMap<>();
+        query.put("list-type", "2");
+        query.put("max-keys", Integer.toString(maxKeys));
+        if (startAfter != null) query.put("start-after", startAfter);
+
+        return send(HttpMethod.GET, bucket, query, new byte[0]).map(response -> {
+            Document document = parse(response);
+            List<String> keys = new ArrayList<>();
+            for (Element object : elements(document, "Contents")) {
+                keys.add(text(object, "Key"));
+            }
+            return new ObjectListing(keys, "true".equals(text(document.getDocumentElement(), "IsTruncated")));
+        });
+    }
+
+    // body of successful response
+    private Future<Buffer> send(HttpMethod method, String bucket, TreeMap<String, String> query, byte[] body) {
+        // path-style, bucket names with dots don't match the wildcard certificate of virtual hosts
+        String path = "/" + bucket;
+        String canonicalQuery = query.entrySet()
+                .stream()
+                .map(param -> uriEncode(param.getKey()) + "=" + uriEncode(param.getValue()))
+                .collect(Collectors.joining("&"));
+
+        TreeMap<String, String> headers = new TreeMap<>();
+        if (body.length > 0) {
+            headers.put("content-md5", Base64.getEncoder().encodeToString(digest("MD5", body)));
+            headers.put("content-type", "application/xml");
+        }
+        headers.put("host", mHost);
+        headers.put("x-amz-content-sha256", hex(digest("SHA-256", body)));
+        headers.put("x-amz-date", AMZ_DATE.format(ZonedDateTime.now(ZoneOffset.UTC)));
+        headers.put("authorization", authorization(method.name(), path, canonicalQuery, headers));
+
+        // query is sent as it is, so it's the one, that is signed
+        HttpRequest<Buffer> request = mClient.request(method, path + "?" + canonicalQuery);
+        headers.forEach(request::putHeader);
+
+        Promise<Buffer> promise = Promise.promise();
+        request.sendBuffer(Buffer.buffer(body), ar -> {
+            if (ar.failed()) {
+                promise.fail(ar.cause());
+                return;
+            }
+
+            HttpResponse<Buffer> response = ar.result();
+            Buffer responseBody = response.body() == null ? Buffer.buffer() : response.body();
+            if (response.statusCode() != 200) {
+                promise.fail("S3 " + method + " " + path + ": " + response.statusCode() + " " + responseBody);
+            } else {
+                promise.complete(responseBody);
+            }
+        });
+
+        return promise.future();
+    }
+
+    // AWS Signature Version 4, headers are lowercase and all of them are signed
+    String authorization(String method, String path, String query, TreeMap<String, String> headers) {
+        String amzDate = headers.get("x-amz-date");
+        String date = amzDate.substring(0, "yyyyMMdd".length());
+        String scope = String.join("/", date, mRegion, SERVICE, "aws4_request");
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        headers.forEach((name, value) -> canonicalHeaders.append(name).append(':').append(value.trim()).append('\n'));
+        String signedHeaders = String.join(";", headers.keySet());
+
+        String canonicalRequest = String.join("\n",
+                method, path, query, canonicalHeaders.toString(), signedHeaders, headers.get("x-amz-content-sha256")
+        );
+        String stringToSign = String.join("\n",
+                ALGORITHM, amzDate, scope, hex(digest("SHA-256", canonicalRequest.getBytes(StandardCharsets.UTF_8)))
+        );
+
+        byte[] key = hmac(("AWS4" + mSecretKey).getBytes(StandardCharsets.UTF_8), date);
+        key = hmac(key, mRegion);
+        key = hmac(key, SERVICE);
+        key = hmac(key, "aws4_request");
+        String signature = hex(hmac(key, stringToSign));
+
+        return ALGORITHM + " Credential=" + mAccessKey + "/" + scope +
+                ", SignedHeaders=" + signedHeaders +
+                ", Signature=" + signature;
+    }
+
+    // Utils
+
+    // quiet mode, so that response lists failed keys only
+    static byte[] deleteBody(List<String> keys) {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Delete><Quiet>true</Quiet>");
+        for (String key : keys) {
+            xml.append("<Object><Key>").append(escape(key)).append("</Key></Object>");
+        }
+        xml.append("</Delete>");
+
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // keys of DeleteObjects response, that were not deleted, mapped to the reason
+    static Map<String, String> deleteErrors(Buffer response) {
+        HashMap<String, String> errors = new HashMap<>();
+        for (Element error : elements(parse(response), "Error")) {
+            errors.put(text(error, "Key"), text(error, "Code") + ": " + text(error, "Message"));
+        }
+        return errors;
+    }
+
+    // response is small, so it's parsed right on event loop
+    private static Document parse(Buffer response) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(response.getBytes()));
+        } catch (Exception e) {
+            throw new IllegalStateException("Malformed S3 response", e);
+        }
+    }
+
+    private static List<Element> elements(Document document, String tag) {
+        List<Element> elements = new ArrayList<>();
+        NodeList nodes = document.getElementsByTagName(tag);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? "" : nodes.item(0).getTextContent();
+    }
+
+    // RFC 3986 unreserved characters are left as they are, the rest is percent-encoded
+    private static String uriEncode(String text) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') ||
+                    c == '-' || c == '_' || c == '.' || c == '~') {
+                encoded.append(c);
+            } else {
+                encoded.append(String.format("%%%02X", b & 0xff));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;")
+                .replace("<", "&lt;")
+                .replace(">", "&gt;")
+                .replace("\"", "&quot;")
+                .replace("'", "&apos;");
+    }
+
+    private static byte[] digest(String algorithm, byte[] data) {
+        try {
+            return MessageDigest.getInstance(algorithm).digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
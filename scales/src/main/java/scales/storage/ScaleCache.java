@@ -0,0 +1,280 @@
+package scales.storage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+import scales.model.EncodingProfile;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Bounded local disk cache of encoded scales, so that replayed requests skip decoding, resizing and encoding.
+ * Scale is addressed by the original's ETag, width and encoding profile, so changed original is never served stale.
+ * Only the LRU index of file names and sizes is kept on heap, the index is rebuilt from the directory on startup
+ */
+public class ScaleCache implements Shareable {
+
+    // Constants
+
+    private static final String TEMP_SUFFIX = ".part";
+
+    // Variables
+
+    private final Vertx mVertx;
+    private final Path mDir;
+    private final long mMaxBytes;
+
+    // file name -> size in bytes, least recently used first
+    private final LinkedHashMap<String, Long> mIndex = new LinkedHashMap<>(16, 0.75f, true);
+    private long mBytes;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    // Constructors
+
+    public ScaleCache(@Nonnull Vertx vertx, @Nonnull String dir, long maxBytes) {
+        mVertx = vertx;
+        mDir = Paths.get(dir).toAbsolutePath().normalize();
+        mMaxBytes = maxBytes;
+    }
+
+    // Public
+
+    // scales, that were written before, are there once this completes
+    public Future<Void> open() {
+        Promise<Void> promise = Promise.promise();
+        mVertx.<Void>executeBlocking(opened -> {
+            try {
+                Files.createDirectories(mDir);
+                rebuildIndex();
+                opened.complete();
+            } catch (IOException e) {
+                opened.fail(e);
+            }
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    public static String key(@Nonnull String eTag, int width, @Nonnull EncodingProfile profile) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                    String.join("|", eTag, Integer.toString(width), profile.toString())
+                            .getBytes(StandardCharsets.UTF_8)
+            );
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // maps names to keys, result maps names of the cached ones to their scales, pooled buffers to be released
+    public Future<HashMap<String, ByteBuf>> getAll(@Nonnull Map<String, String> keys) {
+        Promise<HashMap<String, ByteBuf>> promise = Promise.promise();
+        mVertx.<HashMap<String, ByteBuf>>executeBlocking(read -> {
+            HashMap<String, ByteBuf> hits = new HashMap<>();
+            keys.forEach((name, key) -> {
+                ByteBuf scale = read(key);
+                if (scale == null) {
+                    mMisses.incrementAndGet();
+                } else {
+                    mHits.incrementAndGet();
+                    hits.put(name, scale);
+                }
+            });
+            read.complete(hits);
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    // takes ownership of scale and releases it once it's written,
+    // completes once the scale is readable and the cache is back within it's size, failure to write is not fatal
+    public Future<Void> put(@Nonnull String key, @Nonnull ByteBuf scale) {
+        Promise<Void> promise = Promise.promise();
+        mVertx.<Void>executeBlocking(written -> {
+            try {
+                write(key, scale);
+                written.complete();
+            } catch (IOException e) {
+                written.fail(e);
+            } finally {
+                scale.release();
+            }
+        }, false, promise);
+
+        return promise.future();
+    }
+
+    // current state along with hits and misses since the previous call
+    public JsonObject stats() {
+        long hits = mHits.getAndSet(0);
+        long misses = mMisses.getAndSet(0);
+
+        synchronized (this) {
+            return new JsonObject()
+                    .put("entries", mIndex.size())
+                    .put("bytes", mBytes)
+                    .put("maxBytes", mMaxBytes)
+                    .put("hits", hits)
+                    .put("misses", misses)
+                    .put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses))
+                    .put("evictions", mEvictions.get());
+        }
+    }
+
+    // whether this cache is the one, that config asks for
+    public boolean matches(@Nonnull String dir, long maxBytes) {
+        return mDir.equals(Paths.get(dir).toAbsolutePath().normalize()) && mMaxBytes == maxBytes;
+    }
+
+    // Private
+
+    // oldest files are the least recently used ones
+    private void rebuildIndex() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listed = Files.list(mDir)) {
+            files = listed.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        List<Path> entries = new ArrayList<>();
+        for (Path file : files) {
+            // leftovers of writes, interrupted by restart
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file);
+            } else {
+                entries.add(file);
+            }
+        }
+        entries.sort(Comparator.comparing(ScaleCache::lastModified));
+
+        synchronized (this) {
+            for (Path file : entries) {
+                long size = file.toFile().length();
+                mIndex.put(file.getFileName().toString(), size);
+                mBytes += size;
+            }
+        }
+        evict();
+    }
+
+    // null on miss
+    private ByteBuf read(String key) {
+        synchronized (this) {
+            if (mIndex.get(key) == null) return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(mDir.resolve(key), StandardOpenOption.READ)) {
+            int size = (int) channel.size();
+            ByteBuf scale = PooledByteBufAllocator.DEFAULT.directBuffer(size, size);
+            try {
+                while (scale.isWritable()) {
+                    if (scale.writeBytes(channel, scale.writerIndex(), scale.writableBytes()) < 0) {
+                        throw new IOException("Truncated cache entry: " + key);
+                    }
+                }
+                return scale;
+            } catch (IOException e) {
+                scale.release();
+                throw e;
+            }
+        } catch (NoSuchFileException e) {
+            // evicted in the meantime or deleted behind the cache's back, the entry is dropped unless it's written again
+            synchronized (this) {
+                if (Files.notExists(mDir.resolve(key))) remove(key);
+            }
+            return null;
+        } catch (IOException e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    private void write(String key, ByteBuf scale) throws IOException {
+        Path temp = mDir.resolve(key + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        int size = scale.readableBytes();
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // channel may write less, than it's asked to
+                int written = 0;
+                while (written < size) {
+                    written += scale.getBytes(scale.readerIndex() + written, channel, written, size - written);
+                }
+            }
+
+            // file and it's entry change together, so eviction of the old entry never deletes the new file
+            synchronized (this) {
+                Files.move(temp, mDir.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long previous = mIndex.put(key, (long) size);
+                mBytes += size - (previous == null ? 0 : previous);
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+        evict();
+    }
+
+    // files are deleted under the lock too, so the one, that is written again meanwhile, stays
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> it = mIndex.entrySet().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            String key = eldest.getKey();
+            mBytes -= eldest.getValue();
+            it.remove();
+
+            mEvictions.incrementAndGet();
+            try {
+                Files.deleteIfExists(mDir.resolve(key));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = mIndex.remove(key);
+        if (size != null) mBytes -= size;
+    }
+
+    private static long lastModified(Path file) {
+        return file.toFile().lastModified();
+    }
+}
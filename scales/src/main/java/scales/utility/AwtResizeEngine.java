@@ -0,0 +1,28 @@
+package scales.utility;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+
+/**
+ * Baseline engine: AWT area averaging through getScaledInstance(SCALE_SMOOTH)
+ */
+public class AwtResizeEngine implements ResizeEngine {
+
+    public static final String NAME = "awt";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage img, int width, int height) {
+        Image tmp = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = resized.createGraphics();
+        g2d.drawImage(tmp, 0, 0, null);
+        g2d.dispose();
+        return resized;
+    }
+}
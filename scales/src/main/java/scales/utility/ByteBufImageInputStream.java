@@ -0,0 +1,58 @@
+package scales.utility;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+
+/**
+ * Seekable image input stream reading straight from the readable bytes of a netty ByteBuf
+ * (e.g. the one behind a vertx Buffer), without copying them anywhere
+ */
+public class ByteBufImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuf mBuf;
+    private final int mStart;
+    private final int mLength;
+
+    public ByteBufImageInputStream(ByteBuf buf) {
+        mBuf = buf;
+        mStart = buf.readerIndex();
+        mLength = buf.readableBytes();
+    }
+
+    @Override
+    public int read() {
+        if (streamPos >= mLength) return -1;
+
+        bitOffset = 0;
+        return mBuf.getByte(mStart + (int) streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (streamPos >= mLength) return -1;
+
+        bitOffset = 0;
+        int n = (int) Math.min(len, mLength - streamPos);
+        mBuf.getBytes(mStart + (int) streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return mLength;
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package scales.utility;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.io.IOException;
+
+
+/**
+ * Seekable image output stream writing straight into a netty ByteBuf,
+ * the ByteBuf grows as needed and it's writer index always points to the end of written data
+ */
+public class ByteBufImageOutputStream extends ImageOutputStreamImpl {
+
+    private final ByteBuf mBuf;
+    private final int mStart;
+
+    public ByteBufImageOutputStream(ByteBuf buf) {
+        mBuf = buf;
+        mStart = buf.writerIndex();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        flushBits();
+        ensureWritable(1);
+        mBuf.setByte(mStart + (int) streamPos, b);
+        advance(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return;
+
+        flushBits();
+        ensureWritable(len);
+        mBuf.setBytes(mStart + (int) streamPos, b, off, len);
+        advance(len);
+    }
+
+    @Override
+    public int read() {
+        if (streamPos >= length()) return -1;
+
+        bitOffset = 0;
+        return mBuf.getByte(mStart + (int) streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        if (streamPos >= length()) return -1;
+
+        bitOffset = 0;
+        int n = (int) Math.min(len, length() - streamPos);
+        mBuf.getBytes(mStart + (int) streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    @Override
+    public long length() {
+        return mBuf.writerIndex() - mStart;
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+
+    // Private
+
+    // writes past the end grow the buffer
+    private void ensureWritable(int len) {
+        long end = mStart + streamPos + len;
+        if (end > mBuf.writerIndex()) {
+            mBuf.ensureWritable((int) (end - mBuf.writerIndex()));
+        }
+    }
+
+    private void advance(int len) {
+        streamPos += len;
+        if (mStart + streamPos > mBuf.writerIndex()) {
+            mBuf.writerIndex(mStart + (int) streamPos);
+        }
+    }
+}
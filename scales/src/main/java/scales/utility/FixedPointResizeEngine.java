@@ -0,0 +1,140 @@
+package scales.utility;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+
+/**
+ * Same Lanczos3 as the separable engine, but the vertical pass is done in fixed point
+ * over planar channels. Its inner loops are plain int multiply-adds over contiguous arrays,
+ * which the JIT turns into SIMD instructions of the CPU it runs on.
+ * Intermediate takes three times the memory of the separable one for that
+ */
+public class FixedPointResizeEngine implements ResizeEngine {
+
+    public static final String NAME = "fixed-point";
+
+    // weights are integers of WEIGHT_ONE scale
+    private static final int PRECISION = 14;
+    private static final int WEIGHT_ONE = 1 << PRECISION;
+    private static final int ROUNDING = 1 << (PRECISION - 1);
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage img, int width, int height) {
+        int srcWidth = img.getWidth();
+        int srcHeight = img.getHeight();
+
+        Resampler.Weights horizontal = new Resampler.Weights(srcWidth, width, Resampler.Filter.LANCZOS3);
+        Resampler.Weights vertical = new Resampler.Weights(srcHeight, height, Resampler.Filter.LANCZOS3);
+        int[] weights = toFixedPoint(vertical);
+
+        // planar channels of (width x srcHeight)
+        int[] r = new int[width * srcHeight];
+        int[] g = new int[width * srcHeight];
+        int[] b = new int[width * srcHeight];
+        Resampler.POOL.invoke(new Resampler.RowsAction(0, srcHeight, (from, to) ->
+                horizontalPass(img, horizontal, r, g, b, width, from, to)
+        ));
+
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] target = ((DataBufferInt) resized.getRaster().getDataBuffer()).getData();
+        Resampler.POOL.invoke(new Resampler.RowsAction(0, height, (from, to) ->
+                verticalPass(r, g, b, vertical, weights, target, width, from, to)
+        ));
+
+        return resized;
+    }
+
+    // Passes
+
+    private static void horizontalPass(BufferedImage img, Resampler.Weights weights,
+                                       int[] dstR, int[] dstG, int[] dstB, int dstWidth,
+                                       int fromRow, int toRow) {
+        int srcWidth = img.getWidth();
+        Resampler.RowReader reader = new Resampler.RowReader(img);
+        float[] r = new float[srcWidth];
+        float[] g = new float[srcWidth];
+        float[] b = new float[srcWidth];
+
+        for (int y = fromRow; y < toRow; y++) {
+            reader.read(y, r, g, b);
+
+            int offset = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int start = weights.start[x];
+                int w = x * weights.taps;
+                float sr = 0, sg = 0, sb = 0;
+                for (int k = 0; k < weights.count[x]; k++) {
+                    float weight = weights.values[w + k];
+                    sr += weight * r[start + k];
+                    sg += weight * g[start + k];
+                    sb += weight * b[start + k];
+                }
+                dstR[offset + x] = Resampler.clamp(sr);
+                dstG[offset + x] = Resampler.clamp(sg);
+                dstB[offset + x] = Resampler.clamp(sb);
+            }
+        }
+    }
+
+    private static void verticalPass(int[] srcR, int[] srcG, int[] srcB,
+                                     Resampler.Weights weights, int[] fixedWeights,
+                                     int[] dst, int width, int fromRow, int toRow) {
+        int[] r = new int[width];
+        int[] g = new int[width];
+        int[] b = new int[width];
+
+        for (int y = fromRow; y < toRow; y++) {
+            Arrays.fill(r, ROUNDING);
+            Arrays.fill(g, ROUNDING);
+            Arrays.fill(b, ROUNDING);
+
+            int w = y * weights.taps;
+            for (int k = 0; k < weights.count[y]; k++) {
+                int weight = fixedWeights[w + k];
+                int offset = (weights.start[y] + k) * width;
+                // one channel per loop keeps them simple enough to be vectorized
+                for (int x = 0; x < width; x++) r[x] += weight * srcR[offset + x];
+                for (int x = 0; x < width; x++) g[x] += weight * srcG[offset + x];
+                for (int x = 0; x < width; x++) b[x] += weight * srcB[offset + x];
+            }
+
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                dst[offset + x] = (clamp(r[x] >> PRECISION) << 16) |
+                        (clamp(g[x] >> PRECISION) << 8) |
+                        clamp(b[x] >> PRECISION);
+            }
+        }
+    }
+
+    // Utils
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    // weights scaled to WEIGHT_ONE, rounding error of each window is put into it's largest weight,
+    // so that flat areas stay exactly flat
+    private static int[] toFixedPoint(Resampler.Weights weights) {
+        int[] fixed = new int[weights.values.length];
+        for (int i = 0; i < weights.start.length; i++) {
+            int w = i * weights.taps;
+            int sum = 0;
+            int largest = w;
+            for (int k = 0; k < weights.count[i]; k++) {
+                fixed[w + k] = Math.round(weights.values[w + k] * WEIGHT_ONE);
+                sum += fixed[w + k];
+                if (fixed[w + k] > fixed[largest]) largest = w + k;
+            }
+            if (weights.count[i] > 0) fixed[largest] += WEIGHT_ONE - sum;
+        }
+        return fixed;
+    }
+}
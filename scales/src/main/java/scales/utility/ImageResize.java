@@ -1,53 +1,335 @@
 package scales.utility;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.vertx.core.buffer.Buffer;
+import scales.model.EncodingProfile;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
 
 
 // class for image resizing from different sources
 public class ImageResize {
 
+    // subsampled decode keeps at least this many times the target width of pixels,
+    // so that the final filter still has enough samples to work with
+    private static final int SUBSAMPLING_MARGIN = 2;
+
+    // originals decoding to more pixels than that are resized by strips
+    public static final long DEFAULT_TILED_THRESHOLD = 50_000_000L;
+    public static final int DEFAULT_STRIP_PIXELS = 16 * 1024 * 1024;
+
+    // readers, that write the destination by rows from top to bottom, so it could be streamed into resampler
+    private static final Set<String> STREAMED_FORMATS = Set.of("jpeg", "png");
+
+    // rough guess of encoded scale size, good enough to avoid most of the buffer regrowth
+    private static final int EXPECTED_COMPRESSION = 4;
+    private static final int MIN_ENCODED_SIZE = 16 * 1024;
+
     public static Buffer bufferResizeToWidth(Buffer buff, int width, String extension) throws IOException {
-        return Buffer.buffer(
-                imageToBytes(
-                        resizeToWidth(
-                                bytesToImage(buff.getBytes()),
-                                width
-                        ), extension
-                ));
+        ByteBuf scaled = Unpooled.buffer();
+        try (ImageOutputStream ios = new ByteBufImageOutputStream(scaled)) {
+            ImageWriters.write(
+                    resizeToWidth(
+                            bufferToImage(buff, width),
+                            width
+                    ), new EncodingProfile(extension), ios
+            );
+        }
+        return Buffer.buffer(scaled);
+    }
+
+    public static ByteBuf[] resizeToWidths(Buffer buff, int[] widths, String extension) throws IOException {
+        EncodingProfile[] profiles = new EncodingProfile[widths.length];
+        Arrays.fill(profiles, new EncodingProfile(extension));
+        return resizeToWidths(buff, widths, profiles, ResizeEngines.DEFAULT, DEFAULT_TILED_THRESHOLD, DEFAULT_STRIP_PIXELS);
+    }
+
+    // decode buff only once and scale it to every one of widths,
+    // going from the largest width to the smallest one, so that each
+    // scale is derived from the previous (bigger) one instead of the original, by engine.
+    // Originals, which decode to more than tiledThreshold pixels, are never decoded as a whole,
+    // the largest scale is built from strips of about stripPixels pixels instead.
+    // i-th returned buffer is the scale of widths[i] encoded with profiles[i],
+    // buffers are pooled and should be released by the caller once they are not needed
+    public static ByteBuf[] resizeToWidths(Buffer buff, int[] widths, EncodingProfile[] profiles, ResizeEngine engine,
+                                           long tiledThreshold, int stripPixels) throws IOException {
+        try (ImageInputStream iis = new ByteBufImageInputStream(buff.getByteBuf())) {
+            return resizeToWidths(iis, widths, profiles, engine, tiledThreshold, stripPixels);
+        }
+    }
+
+    // same as above, but reads the original from any image stream, e.g. the one still being downloaded
+    public static ByteBuf[] resizeToWidths(ImageInputStream iis, int[] widths, EncodingProfile[] profiles,
+                                           ResizeEngine engine, long tiledThreshold, int stripPixels) throws IOException {
+        ByteBuf[] scales = new ByteBuf[widths.length];
+        try {
+            resizeEach(iis, widths, engine, tiledThreshold, stripPixels,
+                    (i, scaled) -> scales[i] = imageToByteBuf(scaled, profiles[i]));
+        } catch (IOException | RuntimeException e) {
+            // scales done before the failure would never be released otherwise
+            for (ByteBuf scale : scales) {
+                if (scale != null) scale.release();
+            }
+            throw e;
+        }
+
+        return scales;
+    }
+
+    // decode and resize like above, but leave encoding to the caller,
+    // so that every scale could be encoded (and sent away) on it's own, e.g. the smallest ones first
+    public static BufferedImage[] resizeImages(ImageInputStream iis, int[] widths, ResizeEngine engine,
+                                               long tiledThreshold, int stripPixels) throws IOException {
+        BufferedImage[] scales = new BufferedImage[widths.length];
+        resizeEach(iis, widths, engine, tiledThreshold, stripPixels, (i, scaled) -> scales[i] = scaled);
+        return scales;
+    }
+
+    // bytes, that images of resizeImages (and the decoded original, they are made of) take at most,
+    // only the header of the original is read, stream is rewound to the start afterwards
+    public static long estimateFootprint(ImageInputStream iis, int[] widths,
+                                         long tiledThreshold, int stripPixels) throws IOException {
+        ImageReader reader = openReader(iis);
+        try {
+            int originWidth = reader.getWidth(0);
+            int originHeight = reader.getHeight(0);
+            int subsampling = subsamplingFactor(originWidth, Arrays.stream(widths).max().orElse(0));
+            long bytesPerPixel = bytesPerPixel(reader);
+
+            long decodedWidth = ceilDiv(originWidth, subsampling);
+            long decodedPixels = isTiled(originWidth, originHeight, subsampling, tiledThreshold) ?
+                    Math.max(stripPixels, decodedWidth) : decodedWidth * ceilDiv(originHeight, subsampling);
+
+            long scalesPixels = 0;
+            for (int width : widths) {
+                scalesPixels += (long) width * heightForWidth(originWidth, originHeight, width);
+            }
+
+            // engines may well resize into int pixels, whatever the original is
+            return decodedPixels * bytesPerPixel + scalesPixels * Math.max(bytesPerPixel, 4);
+        } finally {
+            reader.dispose();
+            iis.seek(0);
+        }
     }
 
     public static BufferedImage resizeToWidth(BufferedImage img, int width) {
-        int height = (int) ((1.0 * img.getHeight()) / img.getWidth() * width);
-        return resize(img, height, width);
+        return ResizeEngines.DEFAULT.resize(img, width, heightForWidth(img.getWidth(), img.getHeight(), width));
     }
 
-    private static BufferedImage resize(BufferedImage img, int height, int width) {
-        Image tmp = img.getScaledInstance(width, height, Image.SCALE_SMOOTH);
-        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = resized.createGraphics();
-        g2d.drawImage(tmp, 0, 0, null);
-        g2d.dispose();
-        return resized;
+    private static int heightForWidth(int originWidth, int originHeight, int width) {
+        return Math.max(1, (int) ((1.0 * originHeight) / originWidth * width));
+    }
+
+    // the largest integer factor, that still leaves at least
+    // SUBSAMPLING_MARGIN times targetWidth of source pixels
+    public static int subsamplingFactor(int originWidth, int targetWidth) {
+        if (targetWidth <= 0) return 1;
+        return Math.max(1, originWidth / (SUBSAMPLING_MARGIN * targetWidth));
     }
 
     public static BufferedImage bytesToImage(byte[] bts) throws IOException {
         try (ByteArrayInputStream bais = new ByteArrayInputStream(bts)) {
-            return ImageIO.read(bais);
+            BufferedImage img = ImageIO.read(bais);
+            if (img == null) throw new IOException("Unsupported image format");
+            return img;
+        }
+    }
+
+    // decode only as much of the image, as is needed to scale it down to targetWidth
+    public static BufferedImage bufferToImage(Buffer buff, int targetWidth) throws IOException {
+        try (ImageInputStream iis = new ByteBufImageInputStream(buff.getByteBuf())) {
+            ImageReader reader = openReader(iis);
+            try {
+                return read(reader, subsamplingFactor(reader.getWidth(0), targetWidth));
+            } finally {
+                reader.dispose();
+            }
         }
     }
 
     public static byte[] imageToBytes(BufferedImage img, String ext) throws IOException {
+        return imageToBytes(img, new EncodingProfile(ext));
+    }
+
+    public static byte[] imageToBytes(BufferedImage img, EncodingProfile profile) throws IOException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            ImageIO.write(img, ext, baos);
-            baos.flush();
+            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(baos)) {
+                ImageWriters.write(img, profile, ios);
+            }
             return baos.toByteArray();
         }
     }
+
+    // encode img into the pooled buffer, which is sized for the expected output up front
+    public static ByteBuf imageToByteBuf(BufferedImage img, EncodingProfile profile) throws IOException {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer(expectedEncodedSize(img));
+        try (ImageOutputStream ios = new ByteBufImageOutputStream(buf)) {
+            ImageWriters.write(img, profile, ios);
+        } catch (IOException | RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        return buf;
+    }
+
+    // Utils
+
+    private static int expectedEncodedSize(BufferedImage img) {
+        return Math.max(MIN_ENCODED_SIZE, img.getWidth() * img.getHeight() / EXPECTED_COMPRESSION);
+    }
+
+    @FunctionalInterface
+    private interface ScaleConsumer {
+        void accept(int i, BufferedImage scaled) throws IOException;
+    }
+
+    // scales of widths from the largest to the smallest, each one is passed to consumer along with it's index
+    private static void resizeEach(ImageInputStream iis, int[] widths, ResizeEngine engine,
+                                   long tiledThreshold, int stripPixels, ScaleConsumer consumer) throws IOException {
+        int maxWidth = Arrays.stream(widths).max().orElse(0);
+
+        Integer[] order = new Integer[widths.length];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> widths[i]).reversed());
+
+        ImageReader reader = openReader(iis);
+        try {
+            // header only, nothing is decoded yet
+            int originWidth = reader.getWidth(0);
+            int originHeight = reader.getHeight(0);
+            // the largest scale decides how much of the original we could skip
+            int subsampling = subsamplingFactor(originWidth, maxWidth);
+
+            BufferedImage previous = null;
+            for (int i : order) {
+                // take height from the original size, so rounding errors won't pile up along the chain
+                int height = heightForWidth(originWidth, originHeight, widths[i]);
+
+                BufferedImage scaled;
+                if (previous != null) {
+                    scaled = engine.resize(previous, widths[i], height);
+                } else if (isTiled(originWidth, originHeight, subsampling, tiledThreshold)) {
+                    scaled = resizeTiled(reader, originWidth, originHeight, subsampling, stripPixels,
+                            height, widths[i]);
+                } else {
+                    scaled = engine.resize(read(reader, subsampling), widths[i], height);
+                }
+
+                consumer.accept(i, scaled);
+                previous = scaled;
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static ImageReader openReader(ImageInputStream iis) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if (!readers.hasNext()) throw new IOException("Unsupported image format");
+
+        ImageReader reader = readers.next();
+        // not seek forward only, as strips are read from the same image again and again
+        reader.setInput(iis, false, true);
+        return reader;
+    }
+
+    // of the decoded image, 4 if the reader can't tell before decoding
+    private static long bytesPerPixel(ImageReader reader) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) return 4;
+
+        int bits = Arrays.stream(type.getSampleModel().getSampleSize()).sum();
+        return Math.max(1, (bits + 7) / 8);
+    }
+
+    private static boolean isTiled(int originWidth, int originHeight, int subsampling, long tiledThreshold) {
+        long decodedPixels = (long) ceilDiv(originWidth, subsampling) * ceilDiv(originHeight, subsampling);
+        return decodedPixels > tiledThreshold;
+    }
+
+    // read original by horizontal strips, straight into the resampler,
+    // which is the only engine able to work with strips
+    private static BufferedImage resizeTiled(ImageReader reader, int originWidth, int originHeight, int subsampling,
+                                             int stripPixels, int height, int width) throws IOException {
+        int decodedWidth = ceilDiv(originWidth, subsampling);
+        int decodedHeight = ceilDiv(originHeight, subsampling);
+        int stripHeight = Math.max(1, stripPixels / decodedWidth);
+
+        if (STREAMED_FORMATS.contains(reader.getFormatName().toLowerCase(Locale.ROOT))) {
+            try {
+                return resizeStreamed(reader, decodedWidth, decodedHeight, subsampling, stripHeight, width, height);
+            } catch (IOException | RuntimeException e) {
+                if (!isOutOfOrder(e)) throw e;
+            }
+        }
+
+        // the rest, e.g. interlaced ones, are decoded from the top for every strip, which is slow, but they are rare
+        return Resampler.resampleStrips(decodedWidth, decodedHeight, (fromRow, rows) -> {
+            ImageReadParam param = reader.getDefaultReadParam();
+            int regionY = fromRow * subsampling;
+            int regionHeight = Math.min(rows * subsampling, originHeight - regionY);
+            param.setSourceRegion(new Rectangle(0, regionY, originWidth, regionHeight));
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, param);
+        }, stripHeight, width, height, Resampler.Filter.LANCZOS3);
+    }
+
+    // single read of the whole original, every strip goes to the resampler as soon as it's decoded
+    private static BufferedImage resizeStreamed(ImageReader reader, int decodedWidth, int decodedHeight,
+                                                int subsampling, int stripHeight,
+                                                int width, int height) throws IOException {
+        Resampler.Strips strips = new Resampler.Strips(decodedWidth, decodedHeight, stripHeight,
+                width, height, Resampler.Filter.LANCZOS3);
+        StripDestination destination = new StripDestination(reader.getImageTypes(0).next(),
+                decodedWidth, decodedHeight, stripHeight, strips::accept);
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(destination.getImage());
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        reader.read(0, param);
+        destination.finish();
+
+        return strips.finish();
+    }
+
+    // readers wrap exceptions of the destination into their own ones
+    private static boolean isOutOfOrder(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StripDestination.OutOfOrderException) return true;
+        }
+        return false;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static BufferedImage read(ImageReader reader, int subsampling) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        return reader.read(0, param);
+    }
 }
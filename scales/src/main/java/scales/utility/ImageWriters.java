@@ -0,0 +1,77 @@
+package scales.utility;
+
+import scales.model.EncodingProfile;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+
+
+/**
+ * Per-thread cache of image writers and their params,
+ * so that encoding doesn't look writers up in the service registry
+ * and set them up on every single call
+ */
+public class ImageWriters {
+
+    // format name -> writer of the current thread
+    private static final ThreadLocal<HashMap<String, ImageWriter>> WRITERS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    // profile -> param of the current thread's writer
+    private static final ThreadLocal<HashMap<EncodingProfile, ImageWriteParam>> PARAMS =
+            ThreadLocal.withInitial(HashMap::new);
+
+    public static void write(BufferedImage img, EncodingProfile profile, ImageOutputStream output) throws IOException {
+        ImageWriter writer = writer(profile.getFormat());
+        ImageWriteParam param = PARAMS.get().computeIfAbsent(profile, p -> param(writer, p));
+
+        writer.setOutput(output);
+        try {
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.setOutput(null);
+        }
+    }
+
+    // Private
+
+    private static ImageWriter writer(String format) throws IOException {
+        ImageWriter writer = WRITERS.get().computeIfAbsent(format, f -> {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(f);
+            return writers.hasNext() ? writers.next() : null;
+        });
+
+        if (writer == null) throw new IOException("Unsupported image format: " + format);
+        return writer;
+    }
+
+    private static ImageWriteParam param(ImageWriter writer, EncodingProfile profile) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+
+        if (profile.getQuality() != null && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null) {
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            }
+            param.setCompressionQuality(profile.getQuality());
+        }
+
+        if (profile.isProgressive() && param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+
+        if (profile.isOptimizeHuffman() && param instanceof JPEGImageWriteParam) {
+            ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(true);
+        }
+
+        return param;
+    }
+}
@@ -0,0 +1,153 @@
+package scales.utility;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+
+/**
+ * Registry of operations, that are running right now, by key, e.g. scaling of a photo to certain sizes.
+ * Request for the operation, that is already running, waits for it's result instead of doing the same work again.
+ * All the operations on one origin, e.g. photo, may be cancelled, so that the work, that checks it,
+ * stops at the next stage, e.g. before it uploads scales of the photo, that is being deleted
+ */
+public class InFlight implements Shareable {
+
+    // Variables
+
+    private final Vertx mVertx;
+
+    // guarded by this
+    private final HashMap<String, Operation> mOperations = new HashMap<>();
+    private long mCoalesced;
+    private long mCancelled;
+
+    // Constructors
+
+    public InFlight(Vertx vertx) {
+        mVertx = vertx;
+    }
+
+    // Public
+
+    // work is started by the first caller, the rest share it's result, which comes back on the caller's context
+    public Future<Void> run(String origin, String key, Function<Operation, Future<Void>> work) {
+        Promise<Void> promise = Promise.promise();
+        Waiter waiter = new Waiter(mVertx.getOrCreateContext(), promise);
+
+        Operation operation;
+        synchronized (this) {
+            Operation current = mOperations.get(key);
+            // the cancelled one is about to stop, it's result is of no use
+            if (current != null && !current.isCancelled()) {
+                current.mWaiters.add(waiter);
+                mCoalesced++;
+                return promise.future();
+            }
+
+            operation = new Operation(origin);
+            operation.mWaiters.add(waiter);
+            mOperations.put(key, operation);
+        }
+
+        Future<Void> done;
+        try {
+            done = work.apply(operation);
+        } catch (RuntimeException e) {
+            done = Future.failedFuture(e);
+        }
+        done.setHandler(ar -> finished(key, operation, ar));
+
+        return promise.future();
+    }
+
+    // completes, once all the operations on origin are over, whether they failed or not
+    public Future<Void> cancel(String origin) {
+        ArrayList<Promise<Void>> stopped = new ArrayList<>();
+        Context context = mVertx.getOrCreateContext();
+
+        synchronized (this) {
+            mOperations.values().forEach(operation -> {
+                if (!operation.mOrigin.equals(origin)) return;
+
+                if (!operation.isCancelled()) mCancelled++;
+                operation.mCancelled = true;
+                Promise<Void> promise = Promise.promise();
+                operation.mWaiters.add(new Waiter(context, promise));
+                stopped.add(promise);
+            });
+        }
+
+        Promise<Void> all = Promise.promise();
+        int[] left = {stopped.size()};
+        if (left[0] == 0) all.complete();
+        stopped.forEach(promise -> promise.future().setHandler(ar -> {
+            if (--left[0] == 0) all.complete();
+        }));
+
+        return all.future();
+    }
+
+    // current state along with coalesced and cancelled operations since the previous call
+    public synchronized JsonObject stats() {
+        JsonObject stats = new JsonObject()
+                .put("running", mOperations.size())
+                .put("coalesced", mCoalesced)
+                .put("cancelled", mCancelled);
+
+        mCoalesced = 0;
+        mCancelled = 0;
+        return stats;
+    }
+
+    // Private
+
+    private void finished(String key, Operation operation, AsyncResult<Void> result) {
+        List<Waiter> waiters;
+        synchronized (this) {
+            mOperations.remove(key, operation);
+            waiters = new ArrayList<>(operation.mWaiters);
+            operation.mWaiters.clear();
+        }
+
+        waiters.forEach(waiter -> waiter.mContext.runOnContext(v -> waiter.mPromise.handle(result)));
+    }
+
+    public static class Operation {
+
+        private final String mOrigin;
+        private volatile boolean mCancelled;
+
+        // guarded by the registry
+        private final List<Waiter> mWaiters = new ArrayList<>();
+
+        Operation(String origin) {
+            mOrigin = origin;
+        }
+
+        // may be checked from any thread, e.g. by resize job on worker
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private static class Waiter {
+
+        private final Context mContext;
+        private final Promise<Void> mPromise;
+
+        Waiter(Context context, Promise<Void> promise) {
+            mContext = context;
+            mPromise = promise;
+        }
+    }
+}
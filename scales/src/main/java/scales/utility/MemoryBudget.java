@@ -0,0 +1,105 @@
+package scales.utility;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayDeque;
+
+
+/**
+ * Asynchronous semaphore of bytes: decoding takes as many bytes, as it's images are about to occupy,
+ * and waits if there are not enough of them left, instead of running the heap out.
+ * Waiters are served in arrival order, so big images are not starved by the small ones,
+ * the one bigger than the whole budget waits for all of it
+ */
+public class MemoryBudget implements Shareable {
+
+    // Variables
+
+    private final Vertx mVertx;
+    private final long mTotal;
+
+    // guarded by this
+    private long mAvailable;
+    private final ArrayDeque<Waiter> mWaiters = new ArrayDeque<>();
+
+    // Constructors
+
+    public MemoryBudget(Vertx vertx, long total) {
+        mVertx = vertx;
+        mTotal = total;
+        mAvailable = total;
+    }
+
+    // share of the maximum heap, e.g. -Xmx
+    public static long ofHeap(double share) {
+        return (long) (Runtime.getRuntime().maxMemory() * share);
+    }
+
+    // Public
+
+    // completes on the caller's context, once bytes are taken, actual amount taken is the result
+    public Future<Long> acquire(long bytes) {
+        long taken = Math.min(Math.max(bytes, 0), mTotal);
+
+        synchronized (this) {
+            if (mWaiters.isEmpty() && mAvailable >= taken) {
+                mAvailable -= taken;
+                return Future.succeededFuture(taken);
+            }
+
+            Waiter waiter = new Waiter(taken, mVertx.getOrCreateContext());
+            mWaiters.add(waiter);
+            return waiter.mPromise.future();
+        }
+    }
+
+    // bytes, that acquire completed with
+    public void release(long bytes) {
+        ArrayDeque<Waiter> ready = new ArrayDeque<>();
+        synchronized (this) {
+            mAvailable += bytes;
+            while (!mWaiters.isEmpty() && mWaiters.peek().mBytes <= mAvailable) {
+                Waiter waiter = mWaiters.poll();
+                mAvailable -= waiter.mBytes;
+                ready.add(waiter);
+            }
+        }
+
+        ready.forEach(waiter -> waiter.mContext.runOnContext(v -> waiter.mPromise.complete(waiter.mBytes)));
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    // share of the budget, that is taken, 1 if anyone waits for it
+    public synchronized double pressure() {
+        if (!mWaiters.isEmpty()) return 1;
+
+        return mTotal == 0 ? 0 : (double) (mTotal - mAvailable) / mTotal;
+    }
+
+    public synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("totalBytes", mTotal)
+                .put("availableBytes", mAvailable)
+                .put("waiting", mWaiters.size());
+    }
+
+    private static class Waiter {
+
+        private final long mBytes;
+        private final Context mContext;
+        private final Promise<Long> mPromise = Promise.promise();
+
+        Waiter(long bytes, Context context) {
+            mBytes = bytes;
+            mContext = context;
+        }
+    }
+}
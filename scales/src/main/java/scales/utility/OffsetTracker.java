@@ -0,0 +1,129 @@
+package scales.utility;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.kafka.client.common.TopicPartition;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Offsets of consumed records, that are being processed, by partition. Records may be completed in any order,
+ * but the offset to commit moves only past the completed ones, that have no uncompleted record before them,
+ * so that nothing uncompleted is ever committed and restart replays only the tail after the watermark.
+ * Each partition has a window of records in flight, completed ones, that wait for the ones before, count too
+ */
+public class OffsetTracker {
+
+    // Variables
+
+    private final int mWindow;
+    private final HashMap<TopicPartition, Partition> mPartitions = new HashMap<>();
+
+    // Constructors
+
+    public OffsetTracker(int window) {
+        mWindow = window;
+    }
+
+    // Public
+
+    // record, that is about to be processed
+    public void track(TopicPartition partition, long offset) {
+        Partition state = mPartitions.computeIfAbsent(partition, p -> new Partition());
+        state.mRecords.put(offset, false);
+        state.mPosition = Math.max(state.mPosition, offset + 1);
+        state.mConsumed++;
+    }
+
+    // true if the watermark of partition has moved, records of partitions, that are not tracked, are ignored
+    public boolean complete(TopicPartition partition, long offset) {
+        Partition state = mPartitions.get(partition);
+        if (state == null || !state.mRecords.containsKey(offset)) return false;
+
+        state.mRecords.put(offset, true);
+        state.mCompleted++;
+
+        boolean moved = false;
+        while (!state.mRecords.isEmpty() && state.mRecords.firstEntry().getValue()) {
+            // committed offset is the one of the next record to consume
+            state.mWatermark = state.mRecords.pollFirstEntry().getKey() + 1;
+            moved = true;
+        }
+        return moved;
+    }
+
+    // true if no more records of partition should be taken until some are completed
+    public boolean isFull(TopicPartition partition) {
+        Partition state = mPartitions.get(partition);
+        return state != null && state.mRecords.size() >= mWindow;
+    }
+
+    public int inFlight(TopicPartition partition) {
+        Partition state = mPartitions.get(partition);
+        return state == null ? 0 : state.mRecords.size();
+    }
+
+    // offset of the next record to consume, -1 if partition is not tracked
+    public long position(TopicPartition partition) {
+        Partition state = mPartitions.get(partition);
+        return state == null ? -1 : state.mPosition;
+    }
+
+    // offsets to commit by partition, only the ones, that have moved since they were committed the last time
+    public Map<TopicPartition, Long> committable() {
+        HashMap<TopicPartition, Long> offsets = new HashMap<>();
+        mPartitions.forEach((partition, state) -> {
+            if (state.mWatermark > state.mCommitted) offsets.put(partition, state.mWatermark);
+        });
+        return offsets;
+    }
+
+    // once commit of committable offsets succeeded
+    public void committed(Map<TopicPartition, Long> offsets) {
+        offsets.forEach((partition, offset) -> {
+            Partition state = mPartitions.get(partition);
+            if (state != null) state.mCommitted = Math.max(state.mCommitted, offset);
+        });
+    }
+
+    // e.g. once partition is revoked, records of it, that are still in flight, will be consumed again by the new owner
+    public void remove(TopicPartition partition) {
+        mPartitions.remove(partition);
+    }
+
+    // state of every partition along with records consumed and completed since the previous call
+    public JsonObject stats() {
+        JsonObject stats = new JsonObject();
+        mPartitions.forEach((partition, state) -> {
+            stats.put(partition.getTopic() + "-" + partition.getPartition(), new JsonObject()
+                    .put("inFlight", state.mRecords.size())
+                    .put("position", state.mPosition)
+                    .put("watermark", state.mWatermark)
+                    .put("committed", state.mCommitted)
+                    .put("consumed", state.mConsumed)
+                    .put("completed", state.mCompleted));
+
+            state.mConsumed = 0;
+            state.mCompleted = 0;
+        });
+        return stats;
+    }
+
+    public int getWindow() {
+        return mWindow;
+    }
+
+    private static class Partition {
+
+        // offset -> whether the record is completed, only the ones after the watermark
+        private final TreeMap<Long, Boolean> mRecords = new TreeMap<>();
+        private long mWatermark = -1;
+        private long mCommitted = -1;
+        private long mPosition = -1;
+
+        private long mConsumed;
+        private long mCompleted;
+    }
+}
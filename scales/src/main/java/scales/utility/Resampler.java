@@ -0,0 +1,423 @@
+package scales.utility;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Two-pass separable resampler working straight on the raster data.
+ * First pass filters every source row horizontally into the intermediate
+ * image of (target width x source height) in 16-bit fixed point, second one filters its columns
+ * vertically into the target. Rows of both passes are split across the
+ * fork-join pool, so that a single big resize uses every core.
+ */
+public class Resampler {
+
+    // Constants
+
+    // rows processed by one fork-join task without splitting it further
+    private static final int ROWS_PER_TASK = 16;
+
+    // intermediate keeps channels as fixed point of 1 / INTERMEDIATE_SCALE precision, so that
+    // the rounding and the overshoot of the filter aren't clamped away before the second pass
+    private static final int INTERMEDIATE_SCALE = 64;
+
+    static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    public enum Filter {
+        BOX(0.5) {
+            @Override
+            double weight(double x) {
+                return x >= -0.5 && x < 0.5 ? 1.0 : 0.0;
+            }
+        },
+
+        // cubic with B = C = 1/3, as proposed by Mitchell and Netravali
+        MITCHELL(2.0) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 1.0) {
+                    return (7.0 * x * x * x - 12.0 * x * x + 16.0 / 3.0) / 6.0;
+                } else if (x < 2.0) {
+                    return (-7.0 / 3.0 * x * x * x + 12.0 * x * x - 20.0 * x + 32.0 / 3.0) / 6.0;
+                }
+                return 0.0;
+            }
+        },
+
+        LANCZOS3(3.0) {
+            @Override
+            double weight(double x) {
+                x = Math.abs(x);
+                if (x < 3.0) {
+                    return sinc(x) * sinc(x / 3.0);
+                }
+                return 0.0;
+            }
+        };
+
+        // filter is zero outside of [-support, support]
+        final double support;
+
+        Filter(double support) {
+            this.support = support;
+        }
+
+        abstract double weight(double x);
+
+        private static double sinc(double x) {
+            if (x == 0.0) return 1.0;
+            x *= Math.PI;
+            return Math.sin(x) / x;
+        }
+    }
+
+    // Public
+
+    public static BufferedImage resample(BufferedImage img, int width, int height, Filter filter) {
+        int srcWidth = img.getWidth();
+        int srcHeight = img.getHeight();
+
+        Weights horizontal = new Weights(srcWidth, width, filter);
+        Weights vertical = new Weights(srcHeight, height, filter);
+
+        // interleaved rgb of (width x srcHeight)
+        short[] intermediate = new short[3 * width * srcHeight];
+        POOL.invoke(new RowsAction(0, srcHeight, (from, to) ->
+                horizontalPass(img, horizontal, intermediate, width, from, to, 0, srcHeight)
+        ));
+
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] target = ((DataBufferInt) resized.getRaster().getDataBuffer()).getData();
+        POOL.invoke(new RowsAction(0, height, (from, to) ->
+                verticalPass(intermediate, srcHeight, vertical, target, width, from, to)
+        ));
+
+        return resized;
+    }
+
+    /**
+     * Source image, that is read by horizontal strips
+     */
+    @FunctionalInterface
+    public interface StripSource {
+        // rows [fromRow, fromRow + rows) of the source image
+        BufferedImage read(int fromRow, int rows) throws IOException;
+    }
+
+    /**
+     * Same as resample, but never holds the whole source in memory.
+     * Source is read strip by strip, every strip row is filtered horizontally
+     * into the ring of rows, which is only as big as one vertical filter window plus a strip,
+     * and the target rows are filtered out of that ring as soon as their window is loaded
+     */
+    public static BufferedImage resampleStrips(int srcWidth, int srcHeight, StripSource source, int stripHeight,
+                                               int width, int height, Filter filter) throws IOException {
+        Strips strips = new Strips(srcWidth, srcHeight, stripHeight, width, height, filter);
+        while (!strips.isDone()) {
+            int rows = Math.min(stripHeight, srcHeight - strips.getLoaded());
+            strips.accept(source.read(strips.getLoaded(), rows), rows);
+        }
+
+        return strips.finish();
+    }
+
+    /**
+     * The same resampling by strips, but the source pushes strips as they come,
+     * e.g. from the decoder, that produces rows from top to bottom
+     */
+    public static final class Strips {
+
+        private final Weights mHorizontal;
+        private final Weights mVertical;
+        private final int mStripHeight;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mRingRows;
+        private final short[] mRing;
+        private final BufferedImage mResized;
+        private final int[] mTarget;
+
+        // source rows [0, mLoaded) are already filtered horizontally, target rows [0, mY) are done
+        private int mLoaded;
+        private int mY;
+
+        public Strips(int srcWidth, int srcHeight, int stripHeight, int width, int height, Filter filter) {
+            mHorizontal = new Weights(srcWidth, width, filter);
+            mVertical = new Weights(srcHeight, height, filter);
+            mStripHeight = stripHeight;
+            mWidth = width;
+            mHeight = height;
+
+            mRingRows = Math.min(srcHeight, mVertical.taps + stripHeight);
+            mRing = new short[3 * width * mRingRows];
+
+            mResized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            mTarget = ((DataBufferInt) mResized.getRaster().getDataBuffer()).getData();
+        }
+
+        // rows [0, rows) of strip are the next rows of the source, no more than a strip at a time
+        public void accept(BufferedImage strip, int rows) {
+            if (rows > mStripHeight) throw new IllegalArgumentException("Strip of " + rows + " rows");
+
+            int base = mLoaded;
+            POOL.invoke(new RowsAction(0, rows, (from, to) ->
+                    horizontalPass(strip, mHorizontal, mRing, mWidth, from, to, base, mRingRows)
+            ));
+            mLoaded += rows;
+
+            // every target row, which window is loaded by now
+            int last = mY;
+            while (last < mHeight && mVertical.start[last] + mVertical.count[last] <= mLoaded) last++;
+
+            POOL.invoke(new RowsAction(mY, last, (from, to) ->
+                    verticalPass(mRing, mRingRows, mVertical, mTarget, mWidth, from, to)
+            ));
+            mY = last;
+        }
+
+        // whether the rest of the source is of no use
+        public boolean isDone() {
+            return mY == mHeight;
+        }
+
+        public int getLoaded() {
+            return mLoaded;
+        }
+
+        public BufferedImage finish() {
+            if (!isDone()) throw new IllegalStateException("Source ended at row " + mLoaded);
+            return mResized;
+        }
+    }
+
+    // Passes
+
+    // source row y goes to the row (base + y) % dstRows of dst
+    private static void horizontalPass(BufferedImage img, Weights weights, short[] dst, int dstWidth,
+                                       int fromRow, int toRow, int base, int dstRows) {
+        int srcWidth = img.getWidth();
+        RowReader reader = new RowReader(img);
+        float[] r = new float[srcWidth];
+        float[] g = new float[srcWidth];
+        float[] b = new float[srcWidth];
+
+        for (int y = fromRow; y < toRow; y++) {
+            reader.read(y, r, g, b);
+
+            int offset = 3 * ((base + y) % dstRows) * dstWidth;
+            for (int x = 0, i = offset; x < dstWidth; x++, i += 3) {
+                int start = weights.start[x];
+                int w = x * weights.taps;
+                float sr = 0, sg = 0, sb = 0;
+                for (int k = 0; k < weights.count[x]; k++) {
+                    float weight = weights.values[w + k];
+                    sr += weight * r[start + k];
+                    sg += weight * g[start + k];
+                    sb += weight * b[start + k];
+                }
+                dst[i] = toFixed(sr);
+                dst[i + 1] = toFixed(sg);
+                dst[i + 2] = toFixed(sb);
+            }
+        }
+    }
+
+    // source row y is taken from the row y % srcRows of src
+    private static void verticalPass(short[] src, int srcRows, Weights weights, int[] dst, int width,
+                                     int fromRow, int toRow) {
+        float[] r = new float[width];
+        float[] g = new float[width];
+        float[] b = new float[width];
+
+        for (int y = fromRow; y < toRow; y++) {
+            Arrays.fill(r, 0);
+            Arrays.fill(g, 0);
+            Arrays.fill(b, 0);
+
+            int w = y * weights.taps;
+            for (int k = 0; k < weights.count[y]; k++) {
+                float weight = weights.values[w + k] / INTERMEDIATE_SCALE;
+                int offset = 3 * ((weights.start[y] + k) % srcRows) * width;
+                for (int x = 0, i = offset; x < width; x++, i += 3) {
+                    r[x] += weight * src[i];
+                    g[x] += weight * src[i + 1];
+                    b[x] += weight * src[i + 2];
+                }
+            }
+
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                dst[offset + x] = pack(r[x], g[x], b[x]);
+            }
+        }
+    }
+
+    // Utils
+
+    private static int pack(float r, float g, float b) {
+        return (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static short toFixed(float v) {
+        int i = Math.round(v * INTERMEDIATE_SCALE);
+        return (short) (i < Short.MIN_VALUE ? Short.MIN_VALUE : (i > Short.MAX_VALUE ? Short.MAX_VALUE : i));
+    }
+
+    static int clamp(float v) {
+        int i = Math.round(v);
+        return i < 0 ? 0 : (i > 255 ? 255 : i);
+    }
+
+    /**
+     * Precomputed filter weights for every target column (or row):
+     * target index i is made of count[i] source samples starting from start[i],
+     * their weights are values[i * taps .. i * taps + count[i])
+     */
+    static final class Weights {
+        final int taps;
+        final int[] start;
+        final int[] count;
+        final float[] values;
+
+        Weights(int srcSize, int dstSize, Filter filter) {
+            double scale = (double) dstSize / srcSize;
+            // widen the filter when downscaling, so that it averages all the covered samples
+            double filterScale = Math.max(1.0, 1.0 / scale);
+            double support = filter.support * filterScale;
+
+            taps = (int) Math.ceil(support) * 2 + 1;
+            start = new int[dstSize];
+            count = new int[dstSize];
+            values = new float[dstSize * taps];
+
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) / scale;
+                int left = Math.max(0, (int) Math.floor(center - support));
+                int right = Math.min(srcSize, (int) Math.ceil(center + support));
+                int n = Math.min(right - left, taps);
+
+                double sum = 0;
+                for (int k = 0; k < n; k++) {
+                    double weight = filter.weight((left + k + 0.5 - center) / filterScale);
+                    values[i * taps + k] = (float) weight;
+                    sum += weight;
+                }
+                if (sum != 0) {
+                    for (int k = 0; k < n; k++) {
+                        values[i * taps + k] /= sum;
+                    }
+                }
+
+                start[i] = left;
+                count[i] = n;
+            }
+        }
+    }
+
+    /**
+     * Reads rows of the image into separate channel arrays,
+     * straight from raster data for the types ImageIO usually decodes into.
+     * Alpha is premultiplied, which is the same as drawing over black
+     */
+    static final class RowReader {
+        private final BufferedImage mImg;
+        private final WritableRaster mRaster;
+        private final int mWidth;
+        private int[] mInts;
+        private byte[] mBytes;
+
+        RowReader(BufferedImage img) {
+            mImg = img;
+            mRaster = img.getRaster();
+            mWidth = img.getWidth();
+        }
+
+        void read(int y, float[] r, float[] g, float[] b) {
+            switch (mImg.getType()) {
+                case BufferedImage.TYPE_INT_RGB:
+                    mInts = (int[]) mRaster.getDataElements(0, y, mWidth, 1, mInts);
+                    for (int x = 0; x < mWidth; x++) {
+                        int rgb = mInts[x];
+                        r[x] = (rgb >> 16) & 0xff;
+                        g[x] = (rgb >> 8) & 0xff;
+                        b[x] = rgb & 0xff;
+                    }
+                    break;
+                case BufferedImage.TYPE_3BYTE_BGR:
+                    // samples come in band order, that is r, g, b
+                    mBytes = (byte[]) mRaster.getDataElements(0, y, mWidth, 1, mBytes);
+                    for (int x = 0, i = 0; x < mWidth; x++, i += 3) {
+                        r[x] = mBytes[i] & 0xff;
+                        g[x] = mBytes[i + 1] & 0xff;
+                        b[x] = mBytes[i + 2] & 0xff;
+                    }
+                    break;
+                case BufferedImage.TYPE_4BYTE_ABGR:
+                    // r, g, b, a
+                    mBytes = (byte[]) mRaster.getDataElements(0, y, mWidth, 1, mBytes);
+                    for (int x = 0, i = 0; x < mWidth; x++, i += 4) {
+                        float alpha = (mBytes[i + 3] & 0xff) / 255f;
+                        r[x] = (mBytes[i] & 0xff) * alpha;
+                        g[x] = (mBytes[i + 1] & 0xff) * alpha;
+                        b[x] = (mBytes[i + 2] & 0xff) * alpha;
+                    }
+                    break;
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    mBytes = (byte[]) mRaster.getDataElements(0, y, mWidth, 1, mBytes);
+                    for (int x = 0; x < mWidth; x++) {
+                        r[x] = g[x] = b[x] = mBytes[x] & 0xff;
+                    }
+                    break;
+                default:
+                    // any other layout goes through color model conversion
+                    if (mInts == null) mInts = new int[mWidth];
+                    mImg.getRGB(0, y, mWidth, 1, mInts, 0, mWidth);
+                    for (int x = 0; x < mWidth; x++) {
+                        int argb = mInts[x];
+                        float alpha = (argb >>> 24) / 255f;
+                        r[x] = ((argb >> 16) & 0xff) * alpha;
+                        g[x] = ((argb >> 8) & 0xff) * alpha;
+                        b[x] = (argb & 0xff) * alpha;
+                    }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface RowsBody {
+        void apply(int from, int to);
+    }
+
+    // splits [from, to) rows in halves until they are small enough to be done in place
+    static final class RowsAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mFrom;
+        private final int mTo;
+        private final RowsBody mBody;
+
+        RowsAction(int from, int to, RowsBody body) {
+            mFrom = from;
+            mTo = to;
+            mBody = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= ROWS_PER_TASK) {
+                mBody.apply(mFrom, mTo);
+                return;
+            }
+
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new RowsAction(mFrom, middle, mBody), new RowsAction(middle, mTo, mBody));
+        }
+    }
+}
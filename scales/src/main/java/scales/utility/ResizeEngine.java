@@ -0,0 +1,23 @@
+package scales.utility;
+
+import java.awt.image.BufferedImage;
+
+
+/**
+ * Algorithm scaling decoded images, engines are picked by name from config.
+ * Besides the built-in ones, engines could be plugged in with
+ * META-INF/services/scales.utility.ResizeEngine on the classpath
+ */
+public interface ResizeEngine {
+
+    // name to refer to the engine from config
+    String name();
+
+    // whether engine could run on the current JVM and CPU at all
+    default boolean isAvailable() {
+        return true;
+    }
+
+    // result is always of TYPE_INT_RGB
+    BufferedImage resize(BufferedImage img, int width, int height);
+}
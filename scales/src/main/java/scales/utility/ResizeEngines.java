@@ -0,0 +1,140 @@
+package scales.utility;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Registry of resize engines: the built-in ones plus the ones plugged in through ServiceLoader.
+ * Also picks the fastest engine, which gives correct results on this very host
+ */
+public class ResizeEngines {
+
+    // Constants
+
+    // config value meaning "run self-test and pick the fastest"
+    public static final String AUTO = "auto";
+
+    public static final ResizeEngine DEFAULT = new SeparableResizeEngine();
+
+    // self-test scales synthetic image of this size down to SELF_TEST_WIDTH
+    private static final int SELF_TEST_SOURCE_WIDTH = 1600;
+    private static final int SELF_TEST_SOURCE_HEIGHT = 1200;
+    private static final int SELF_TEST_WIDTH = 480;
+    private static final int SELF_TEST_ROUNDS = 5;
+    // engines are run for that long before timing, so JIT has compiled them by then
+    private static final long SELF_TEST_WARM_UP = TimeUnit.MILLISECONDS.toNanos(500);
+
+    // mean difference per channel from the reference, that is still considered correct
+    private static final double SELF_TEST_TOLERANCE = 8.0;
+
+    private static ResizeEngine sFastest;
+
+    // Public
+
+    public static List<ResizeEngine> available() {
+        List<ResizeEngine> engines = new ArrayList<>();
+        engines.add(DEFAULT);
+        engines.add(new FixedPointResizeEngine());
+        engines.add(new AwtResizeEngine());
+        ServiceLoader.load(ResizeEngine.class).forEach(engines::add);
+
+        engines.removeIf(engine -> !isAvailable(engine));
+        return engines;
+    }
+
+    // engine of that name, or null if there is no such engine available
+    public static ResizeEngine byName(String name) {
+        for (ResizeEngine engine : available()) {
+            if (engine.name().equals(name)) return engine;
+        }
+        return null;
+    }
+
+    // runs self-test of every available engine once per JVM, it takes a while, so don't call it on event loop
+    public static synchronized ResizeEngine fastest() {
+        if (sFastest != null) return sFastest;
+
+        BufferedImage sample = selfTestImage();
+        int height = SELF_TEST_WIDTH * SELF_TEST_SOURCE_HEIGHT / SELF_TEST_SOURCE_WIDTH;
+        BufferedImage reference = DEFAULT.resize(sample, SELF_TEST_WIDTH, height);
+
+        ResizeEngine fastest = DEFAULT;
+        long fastestTime = Long.MAX_VALUE;
+        for (ResizeEngine engine : available()) {
+            try {
+                BufferedImage result = engine.resize(sample, SELF_TEST_WIDTH, height);
+                if (meanDifference(reference, result) > SELF_TEST_TOLERANCE) continue;
+
+                long warmUpEnd = System.nanoTime() + SELF_TEST_WARM_UP;
+                while (System.nanoTime() < warmUpEnd) {
+                    engine.resize(sample, SELF_TEST_WIDTH, height);
+                }
+
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < SELF_TEST_ROUNDS; i++) {
+                    long start = System.nanoTime();
+                    engine.resize(sample, SELF_TEST_WIDTH, height);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+
+                if (best < fastestTime) {
+                    fastest = engine;
+                    fastestTime = best;
+                }
+            } catch (RuntimeException | LinkageError ignored) {
+                // engine, that fails on this host, is simply not picked
+            }
+        }
+
+        sFastest = fastest;
+        return sFastest;
+    }
+
+    // Utils
+
+    private static boolean isAvailable(ResizeEngine engine) {
+        try {
+            return engine.isAvailable();
+        } catch (RuntimeException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // gradients with a checkerboard on top, so both smooth areas and sharp edges are there
+    private static BufferedImage selfTestImage() {
+        BufferedImage img = new BufferedImage(
+                SELF_TEST_SOURCE_WIDTH, SELF_TEST_SOURCE_HEIGHT, BufferedImage.TYPE_3BYTE_BGR
+        );
+        for (int y = 0; y < SELF_TEST_SOURCE_HEIGHT; y++) {
+            for (int x = 0; x < SELF_TEST_SOURCE_WIDTH; x++) {
+                int r = x * 255 / SELF_TEST_SOURCE_WIDTH;
+                int g = y * 255 / SELF_TEST_SOURCE_HEIGHT;
+                int b = ((x / 40 + y / 40) & 1) * 255;
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    private static double meanDifference(BufferedImage fst, BufferedImage snd) {
+        if (fst.getWidth() != snd.getWidth() || fst.getHeight() != snd.getHeight()) {
+            return Double.MAX_VALUE;
+        }
+
+        long diff = 0;
+        for (int y = 0; y < fst.getHeight(); y++) {
+            for (int x = 0; x < fst.getWidth(); x++) {
+                int p = fst.getRGB(x, y);
+                int q = snd.getRGB(x, y);
+                diff += Math.abs(((p >> 16) & 0xff) - ((q >> 16) & 0xff)) +
+                        Math.abs(((p >> 8) & 0xff) - ((q >> 8) & 0xff)) +
+                        Math.abs((p & 0xff) - (q & 0xff));
+            }
+        }
+        return (double) diff / (3L * fst.getWidth() * fst.getHeight());
+    }
+}
@@ -0,0 +1,253 @@
+package scales.utility;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Named worker pool for CPU-bound resizing. Jobs run unordered, so that every
+ * thread of the pool is busy, and no more than maxQueued of them wait for a thread,
+ * the rest are rejected right away. Keeps queue depth and wait time stats.
+ * Waiting jobs are queued by priority class, a free thread takes the next job by weighted round robin
+ * among the classes, that have any, so urgent work goes first and the rest still gets it's share
+ */
+public class ResizeWorkers implements Shareable {
+
+    // Constants
+
+    public static final String POOL_NAME = "scales-resize";
+
+    // priority classes
+
+    public static final String USERPIC = "userpic";
+    public static final String SMALL = "small";
+    public static final String BULK = "bulk";
+    public static final String BACKGROUND = "background";
+
+    // failure of jobs, that are rejected, as maxQueued of them are waiting already
+    public static final String QUEUE_FULL = "Resize queue is full";
+
+    // failure of jobs, that are submitted after the pool was closed
+    public static final String CLOSED = "Resize workers are closed";
+
+    public static final Map<String, Integer> DEFAULT_WEIGHTS = Map.of(
+            USERPIC, 8,
+            SMALL, 4,
+            BULK, 2,
+            BACKGROUND, 1
+    );
+
+    // Variables
+
+    private final Vertx mVertx;
+    private final WorkerExecutor mExecutor;
+    private final int mPoolSize;
+    private final int mMaxQueued;
+    private final Map<String, Integer> mWeights;
+
+    // guarded by this
+    private final LinkedHashMap<String, ArrayDeque<Runnable>> mQueues = new LinkedHashMap<>();
+    private final HashMap<String, Integer> mCredits = new HashMap<>();
+    private int mRunning;
+    private boolean mClosed;
+    private boolean mDrained;
+
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicInteger mActive = new AtomicInteger();
+    private final AtomicLong mRejected = new AtomicLong();
+
+    // since the last stats snapshot
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+    // Constructors
+
+    public ResizeWorkers(Vertx vertx, int poolSize, int maxQueued) {
+        this(vertx, poolSize, maxQueued, DEFAULT_WEIGHTS);
+    }
+
+    // weights of priority classes, the ones not listed get weight of 1
+    public ResizeWorkers(Vertx vertx, int poolSize, int maxQueued, Map<String, Integer> weights) {
+        mVertx = vertx;
+        mPoolSize = poolSize;
+        mMaxQueued = maxQueued;
+        mWeights = Map.copyOf(weights);
+        // pool of every size is a separate shared pool, so config change to size takes effect
+        mExecutor = vertx.createSharedWorkerExecutor(POOL_NAME + "-" + poolSize, poolSize);
+    }
+
+    // Public
+
+    public <T> Future<T> execute(Handler<Promise<T>> job) {
+        return execute(BULK, job);
+    }
+
+    // result comes back on the caller's context
+    public <T> Future<T> execute(String priority, Handler<Promise<T>> job) {
+        if (mQueued.incrementAndGet() > mMaxQueued) {
+            mQueued.decrementAndGet();
+            mRejected.incrementAndGet();
+            return Future.failedFuture(QUEUE_FULL);
+        }
+
+        Context context = mVertx.getOrCreateContext();
+        long enqueued = System.nanoTime();
+        Promise<T> result = Promise.promise();
+
+        Runnable task = () -> mExecutor.<Void>executeBlocking(blocking -> {
+            mQueued.decrementAndGet();
+            mActive.incrementAndGet();
+            recordWait(System.nanoTime() - enqueued);
+
+            Promise<T> promise = Promise.promise();
+            try {
+                job.handle(promise);
+            } catch (RuntimeException e) {
+                promise.tryFail(e);
+            } finally {
+                mActive.decrementAndGet();
+                finished();
+            }
+            promise.future().setHandler(ar -> context.runOnContext(v -> result.handle(ar)));
+            blocking.complete();
+        }, false, null);
+
+        synchronized (this) {
+            if (mClosed) {
+                mQueued.decrementAndGet();
+                return Future.failedFuture(CLOSED);
+            }
+            mQueues.computeIfAbsent(priority, p -> new ArrayDeque<>()).add(task);
+        }
+        dispatch();
+
+        return result.future();
+    }
+
+    // jobs, that are running or queued, still run till the end, the ones submitted later fail.
+    // Executor is closed once the queue is drained
+    public void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        closeIfDrained();
+    }
+
+    public int getPoolSize() {
+        return mPoolSize;
+    }
+
+    public int getMaxQueued() {
+        return mMaxQueued;
+    }
+
+    public Map<String, Integer> getWeights() {
+        return mWeights;
+    }
+
+    public int getQueued() {
+        return mQueued.get();
+    }
+
+    // current state along with wait times since the previous call
+    public JsonObject stats() {
+        long started = mStarted.getAndSet(0);
+        long waitNanos = mWaitNanos.getAndSet(0);
+        long maxWaitNanos = mMaxWaitNanos.getAndSet(0);
+
+        JsonObject queuedByPriority = new JsonObject();
+        synchronized (this) {
+            mQueues.forEach((priority, queue) -> queuedByPriority.put(priority, queue.size()));
+        }
+
+        return new JsonObject()
+                .put("poolSize", mPoolSize)
+                .put("queued", mQueued.get())
+                .put("queuedByPriority", queuedByPriority)
+                .put("active", mActive.get())
+                .put("rejected", mRejected.get())
+                .put("started", started)
+                .put("avgWaitMs", started == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos / started))
+                .put("maxWaitMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+    }
+
+    // Private
+
+    // hand queued jobs to the pool, no more than there are threads, so the pool never queues them itself
+    private void dispatch() {
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (mRunning >= mPoolSize) return;
+                next = next();
+                if (next == null) return;
+                mRunning++;
+            }
+            next.run();
+        }
+    }
+
+    private void finished() {
+        synchronized (this) {
+            mRunning--;
+        }
+        dispatch();
+        closeIfDrained();
+    }
+
+    // executor is closed on the event loop, not on one of it's own threads
+    private void closeIfDrained() {
+        synchronized (this) {
+            if (!mClosed || mDrained || mRunning > 0 || mQueues.values().stream().anyMatch(queue -> !queue.isEmpty()))
+                return;
+            mDrained = true;
+        }
+        mVertx.runOnContext(v -> mExecutor.close());
+    }
+
+    // smooth weighted round robin: every class, that has jobs, earns it's weight,
+    // the richest one goes and pays the total, so classes take turns in proportion to weights
+    private Runnable next() {
+        String richest = null;
+        int total = 0;
+
+        for (Map.Entry<String, ArrayDeque<Runnable>> queue : mQueues.entrySet()) {
+            // class, that ran out of jobs, starts over once it has some again
+            if (queue.getValue().isEmpty()) {
+                mCredits.remove(queue.getKey());
+                continue;
+            }
+
+            String priority = queue.getKey();
+            int weight = mWeights.getOrDefault(priority, 1);
+            int credit = mCredits.merge(priority, weight, Integer::sum);
+            total += weight;
+            if (richest == null || credit > mCredits.get(richest)) richest = priority;
+        }
+
+        if (richest == null) return null;
+        mCredits.merge(richest, -total, Integer::sum);
+        return mQueues.get(richest).poll();
+    }
+
+    private void recordWait(long nanos) {
+        mStarted.incrementAndGet();
+        mWaitNanos.addAndGet(nanos);
+        mMaxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+}
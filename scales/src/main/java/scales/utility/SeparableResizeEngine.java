@@ -0,0 +1,22 @@
+package scales.utility;
+
+import java.awt.image.BufferedImage;
+
+
+/**
+ * Parallel two-pass Lanczos3 of Resampler
+ */
+public class SeparableResizeEngine implements ResizeEngine {
+
+    public static final String NAME = "separable";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public BufferedImage resize(BufferedImage img, int width, int height) {
+        return Resampler.resample(img, width, height, Resampler.Filter.LANCZOS3);
+    }
+}
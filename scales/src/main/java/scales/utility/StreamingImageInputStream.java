@@ -0,0 +1,180 @@
+package scales.utility;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Image input stream over data, that is still being downloaded.
+ * Event loop appends chunks as they come, while an image reader on a worker thread
+ * reads what is already there and waits for the rest, so decoding overlaps the transfer.
+ * Everything appended is kept, so the stream is seekable and the whole
+ * original is available as a buffer once the download ends.
+ * Data may also come out of order, e.g. from several ranged downloads at once,
+ * then reader sees only the part, that is contiguous from the start
+ */
+public class StreamingImageInputStream extends ImageInputStreamImpl {
+
+    // Constants
+
+    // reader gives up, if no new data came for that long
+    private static final long READ_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+
+    // Variables
+
+    private final ByteBuf mBuf;
+    private final long mReadTimeout;
+    // filled intervals of the buffer, start -> end, adjacent ones are merged
+    private final TreeMap<Long, Long> mFilled = new TreeMap<>();
+    // how much is readable from the start
+    private long mAvailable;
+    private boolean mEnded;
+    private Throwable mFailure;
+
+    // Constructors
+
+    // expectedLength is a hint to size the buffer up front, e.g. Content-Length of the download
+    public StreamingImageInputStream(int expectedLength) {
+        this(expectedLength, READ_TIMEOUT_MS);
+    }
+
+    // same, reader gives up after readTimeoutMs without new data
+    public StreamingImageInputStream(int expectedLength, long readTimeoutMs) {
+        mBuf = Unpooled.buffer(expectedLength);
+        mReadTimeout = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+    }
+
+    // Writing side
+
+    public synchronized void append(Buffer chunk) {
+        write(mAvailable, chunk);
+    }
+
+    // chunk, that starts at position of the original
+    public synchronized void write(long position, Buffer chunk) {
+        long end = position + chunk.length();
+        if (end > mBuf.writerIndex()) {
+            mBuf.ensureWritable((int) (end - mBuf.writerIndex()));
+            mBuf.writerIndex((int) end);
+        }
+        mBuf.setBytes((int) position, chunk.getByteBuf());
+
+        fill(position, end);
+        notifyAll();
+    }
+
+    public synchronized void end() {
+        mEnded = true;
+        notifyAll();
+    }
+
+    public synchronized void fail(Throwable cause) {
+        mFailure = cause;
+        notifyAll();
+    }
+
+    // whether all the data is there
+    public synchronized boolean isEnded() {
+        return mEnded && mFailure == null;
+    }
+
+    // whole data, should only be called after end
+    public synchronized Buffer getBuffer() {
+        return Buffer.buffer(mBuf.slice(0, (int) mAvailable));
+    }
+
+    // Reading side
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (!await(streamPos + 1)) return -1;
+
+        bitOffset = 0;
+        return mBuf.getByte((int) streamPos++) & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!await(streamPos + 1)) return -1;
+
+        bitOffset = 0;
+        int n = (int) Math.min(len, mAvailable - streamPos);
+        mBuf.getBytes((int) streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    // unknown until the download ends
+    @Override
+    public synchronized long length() {
+        return mEnded ? mAvailable : -1;
+    }
+
+    @Override
+    public boolean isCached() {
+        return true;
+    }
+
+    @Override
+    public boolean isCachedMemory() {
+        return true;
+    }
+
+    // Private
+
+    private void fill(long start, long end) {
+        Map.Entry<Long, Long> before = mFilled.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+
+        Map.Entry<Long, Long> after = mFilled.ceilingEntry(start);
+        while (after != null && after.getKey() <= end) {
+            end = Math.max(end, after.getValue());
+            mFilled.remove(after.getKey());
+            after = mFilled.ceilingEntry(start);
+        }
+
+        mFilled.put(start, end);
+        if (start == 0) mAvailable = end;
+    }
+
+    // wait till there are at least `position` bytes, false if download ended before that
+    private boolean await(long position) throws IOException {
+        long deadline = System.nanoTime() + mReadTimeout;
+        long written = mAvailable;
+
+        while (mAvailable < position) {
+            if (mFailure != null) throw new IOException("Download failed", mFailure);
+            if (mEnded) return false;
+
+            long left = deadline - System.nanoTime();
+            if (mAvailable != written) {
+                // some progress, so wait for the next chunk from the beginning
+                written = mAvailable;
+                deadline = System.nanoTime() + mReadTimeout;
+                left = mReadTimeout;
+            }
+            if (left <= 0) throw new IOException("Download timed out");
+
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for download");
+            }
+        }
+
+        return true;
+    }
+}
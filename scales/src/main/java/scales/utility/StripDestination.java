@@ -0,0 +1,181 @@
+package scales.utility;
+
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+
+/**
+ * Image to decode the whole original into, which keeps only one strip of it in memory.
+ * Decoder writes rows from top to bottom, once it moves past the strip, the strip is handed over
+ * to the consumer and it's memory is reused for the next rows, so every row is decoded only once.
+ * Decoders, that go back to the rows written before, e.g. of interlaced images, fail with OutOfOrderException
+ */
+class StripDestination {
+
+    // Variables
+
+    private final BufferedImage mImage;
+    private final BufferedImage mStrip;
+    private final int mStripHeight;
+    private final StripConsumer mConsumer;
+    private final int mRowSize;
+
+    // rows [mFromRow, mFromRow + mRows) are in the strip,
+    // that is elements [mStart, mEnd) of the whole image
+    private int mFromRow;
+    private int mRows;
+    private int mStart;
+    private int mEnd;
+
+    // Constructors
+
+    StripDestination(ImageTypeSpecifier type, int width, int height, int stripHeight, StripConsumer consumer) {
+        mStrip = type.createBufferedImage(width, stripHeight);
+        mStripHeight = stripHeight;
+        mConsumer = consumer;
+
+        SampleModel sampleModel = mStrip.getSampleModel().createCompatibleSampleModel(width, height);
+        mRowSize = rowSize(sampleModel);
+        if (mRowSize != rowSize(mStrip.getSampleModel())) throw new OutOfOrderException("Unsupported layout");
+
+        mImage = new BufferedImage(
+                mStrip.getColorModel(),
+                new Rows(sampleModel, new RowsData(mStrip.getRaster().getDataBuffer())),
+                mStrip.isAlphaPremultiplied(),
+                null
+        );
+    }
+
+    // Public
+
+    // to be set as destination of the read
+    BufferedImage getImage() {
+        return mImage;
+    }
+
+    // hands over the rest of rows, once the decoder is done
+    void finish() {
+        if (mRows > 0) mConsumer.accept(mStrip, mRows);
+        moveTo(mFromRow + mRows);
+    }
+
+    // Private
+
+    // elements between the starts of two rows
+    private static int rowSize(SampleModel sampleModel) {
+        if (sampleModel instanceof ComponentSampleModel) {
+            return ((ComponentSampleModel) sampleModel).getScanlineStride();
+        } else if (sampleModel instanceof SinglePixelPackedSampleModel) {
+            return ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+        } else if (sampleModel instanceof MultiPixelPackedSampleModel) {
+            return ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride();
+        }
+        throw new OutOfOrderException("Unsupported layout");
+    }
+
+    // the strip starts from row
+    private void moveTo(int row) {
+        mFromRow = row;
+        mRows = 0;
+        mStart = row * mRowSize;
+        mEnd = mStart;
+    }
+
+    // element i of the whole image is about to be written, though it's not in the rows written so far
+    private void extendTo(int i) {
+        int row = i / mRowSize;
+        if (row >= mFromRow + mStripHeight && mRows == mStripHeight) {
+            mConsumer.accept(mStrip, mRows);
+            moveTo(mFromRow + mStripHeight);
+        }
+        if (row < mFromRow || row >= mFromRow + mStripHeight) {
+            throw new OutOfOrderException("Row " + row + " is written out of order");
+        }
+
+        mRows = Math.max(mRows, row - mFromRow + 1);
+        mEnd = (mFromRow + mRows) * mRowSize;
+    }
+
+    @FunctionalInterface
+    interface StripConsumer {
+        // rows [0, rows) of strip are the next rows of the image
+        void accept(BufferedImage strip, int rows);
+    }
+
+    static class OutOfOrderException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        OutOfOrderException(String message) {
+            super(message);
+        }
+    }
+
+    // whole image, that is actually the strip, decoders usually write it by rows
+    private class Rows extends WritableRaster {
+
+        Rows(SampleModel sampleModel, DataBuffer data) {
+            super(sampleModel, data, new Point(0, 0));
+        }
+
+        // a row goes to the strip as a whole, instead of element by element
+        @Override
+        public void setRect(int dx, int dy, Raster src) {
+            int row = dy + src.getMinY();
+            if (src.getHeight() != 1 || row < 0 || row >= getHeight()) {
+                super.setRect(dx, dy, src);
+                return;
+            }
+
+            mStrip.getRaster().setRect(dx, stripRow(row) - src.getMinY(), src);
+        }
+
+        // e.g. of png decoder, when the raster is not of it's liking
+        @Override
+        public void setPixel(int x, int y, int[] iArray) {
+            if (y < 0 || y >= getHeight()) {
+                super.setPixel(x, y, iArray);
+                return;
+            }
+
+            mStrip.getRaster().setPixel(x, stripRow(y), iArray);
+        }
+
+        private int stripRow(int row) {
+            if (row < mFromRow || row >= mFromRow + mRows) extendTo(row * mRowSize);
+            return row - mFromRow;
+        }
+    }
+
+    // data of the whole image, that is actually the data of the strip
+    private class RowsData extends DataBuffer {
+
+        private final DataBuffer mData;
+
+        RowsData(DataBuffer data) {
+            super(data.getDataType(), data.getSize(), data.getNumBanks(), data.getOffsets());
+            mData = data;
+        }
+
+        // decoders don't read the destination back, rows out of the strip are blank anyway
+        @Override
+        public int getElem(int bank, int i) {
+            if (i < mStart || i >= mEnd) return 0;
+            return mData.getElem(bank, i - mStart);
+        }
+
+        // every element but the first one of a row is a couple of comparisons away from the strip
+        @Override
+        public void setElem(int bank, int i, int val) {
+            if (i < mStart || i >= mEnd) extendTo(i);
+            mData.setElem(bank, i - mStart, val);
+        }
+    }
+}
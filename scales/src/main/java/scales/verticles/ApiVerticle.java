@@ -1,34 +1,84 @@
 package scales.verticles;
 
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.ReplyException;
 import io.vertx.kafka.client.common.TopicPartition;
 import io.vertx.kafka.client.consumer.KafkaConsumer;
+import io.vertx.kafka.client.consumer.KafkaConsumerRecord;
+import io.vertx.kafka.client.consumer.OffsetAndMetadata;
 import io.vertx.kafka.client.producer.KafkaProducer;
 import io.vertx.kafka.client.producer.KafkaProducerRecord;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.KafkaException;
 import scales.model.Config;
 import scales.model.ConfigMessageCodec;
 import scales.model.OriginID;
 import scales.model.OriginID.photoType;
 import scales.model.OriginIDCodec;
+import scales.utility.MemoryBudget;
+import scales.utility.OffsetTracker;
+import scales.utility.ResizeWorkers;
 
 import vertx.common.MicroserviceVerticle;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
 
 import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
 import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_UPDATE;
 import static scales.verticles.ScaleVerticle.EBA_DELETE_ORIGIN;
 import static scales.verticles.ScaleVerticle.EBA_SCALE_ORIGIN;
+import static scales.verticles.ScaleVerticle.EBA_SCALE_SIZE_DONE;
+import static scales.verticles.ScaleVerticle.SHARED_BUDGET;
+import static scales.verticles.ScaleVerticle.SHARED_WORKERS;
 
 // verticle for communicating with kafka and internal implementation
 public class ApiVerticle extends MicroserviceVerticle {
 
+    // Addresses
+
+    static final String EBA_KAFKA_STATS = "stats:kafka";
+
+    // how often consumer stats are published
+    private static final long STATS_PERIOD = 10_000;
+
+    // request, that resize queue had no room for, is sent again after this
+    static final long RETRY_DELAY = 500;
+
+    // how often requests of revoked partitions are checked, while they are waited for
+    private static final long REVOKE_CHECK_PERIOD = 50;
+
+    // tells consumer of this instance from the others in the group
+    private final String mInstanceID = UUID.randomUUID().toString();
+
     // Overrides
 
     private KafkaConsumer<String, String> mConsumer;
     private KafkaProducer<String, String> mSagasProducer;
+    // settings, that the current producer is made with
+    private Map<String, String> mSagasProducerConfig;
+    // statuses, that are waiting to be packed into one record
+    private final List<String> mStatuses = new ArrayList<>();
+    private int mStatusesBytes;
+    private long mStatusesTimer = -1;
+    // records of the current consumer, that are being processed
+    private OffsetTracker mOffsets;
+    private final Set<TopicPartition> mPaused = new HashSet<>();
+    private long mCommitTimer = -1;
+    // requests of all the consumers, that are not done yet
+    private int mInFlight;
+    // whether the whole consumer is paused
+    private boolean mBackpressured;
 
     private String mKafkaHost;
     private String mKafkaPort;
@@ -37,6 +87,26 @@ public class ApiVerticle extends MicroserviceVerticle {
     private String mUserpicsTopic;
     private String mPhotosTopic;
     private String mSagasTopic;
+    private boolean mReportSizes;
+    private int mMaxInFlightPerPartition;
+    private long mCommitInterval;
+    private long mRevokeTimeout;
+    private int mMaxPollRecords;
+    private int mPauseInFlight;
+    private int mResumeInFlight;
+    private double mPauseMemoryShare;
+    private double mResumeMemoryShare;
+    private double mPauseQueueShare;
+    private double mResumeQueueShare;
+    private String mGroupId;
+    private String mClientId;
+    private long mProducerLinger;
+    private int mProducerBatchSize;
+    private String mProducerCompression;
+    private boolean mProducerIdempotence;
+    private String mProducerAcks;
+    private int mProducerWriteQueueSize;
+    private long mAggregateWindow;
 
 
     // Overrides
@@ -46,6 +116,43 @@ public class ApiVerticle extends MicroserviceVerticle {
         registerCodecs();
         setupConfigListener();
         setupConfig(startPromise);
+        setupSizeListener();
+        setupStatsPublisher();
+    }
+
+    @Override
+    public void stop() {
+        flushStatuses();
+        // shared producer is closed for real once the last instance closes it, records written so far are sent
+        if (mSagasProducer != null) mSagasProducer.close(ar -> {
+            if (ar.failed()) verror("Sagas producer close: " + ar.cause().getMessage());
+        });
+    }
+
+    // Protected
+
+    // kafka clients and shared resources of scale verticles, tests put their own in place of them
+
+    // native consumer, that vert.x one wraps, listener goes before the one, vert.x subscribes with
+    protected Consumer<String, String> createConsumer(Map<String, String> config, ConsumerRebalanceListener listener) {
+        return new org.apache.kafka.clients.consumer.KafkaConsumer<String, String>(new HashMap<>(config)) {
+            @Override
+            public void subscribe(Collection<String> topics, ConsumerRebalanceListener next) {
+                super.subscribe(topics, new ChainedListener(listener, next));
+            }
+        };
+    }
+
+    protected KafkaProducer<String, String> createSagasProducer(String name, Map<String, String> config) {
+        return KafkaProducer.createShared(vertx, name, config);
+    }
+
+    protected ResizeWorkers resizeWorkers() {
+        return SharedResources.get(vertx, SHARED_WORKERS);
+    }
+
+    protected MemoryBudget memoryBudget() {
+        return SharedResources.get(vertx, SHARED_BUDGET);
     }
 
     // Private
@@ -59,21 +166,64 @@ public class ApiVerticle extends MicroserviceVerticle {
         mDeleteRequest = config.getDeleteRequest();
         mScaleRequest = config.getScaleRequest();
         mSagasTopic = config.getSagasTopic();
-
-        if (mConsumer != null) mConsumer.unsubscribe();
+        mReportSizes = config.isReportSizes();
+        mMaxInFlightPerPartition = config.getMaxInFlightPerPartition();
+        mCommitInterval = config.getCommitInterval();
+        mRevokeTimeout = config.getRevokeTimeout();
+        mMaxPollRecords = config.getMaxPollRecords();
+        mPauseInFlight = config.getPauseInFlight();
+        mResumeInFlight = config.getResumeInFlight();
+        mPauseMemoryShare = config.getPauseMemoryShare();
+        mResumeMemoryShare = config.getResumeMemoryShare();
+        mPauseQueueShare = config.getPauseQueueShare();
+        mResumeQueueShare = config.getResumeQueueShare();
+        mGroupId = config.getGroupId();
+        mClientId = String.join("-", config.getClientId(), mInstanceID);
+        mProducerLinger = config.getProducerLinger();
+        mProducerBatchSize = config.getProducerBatchSize();
+        mProducerCompression = config.getProducerCompression();
+        mProducerIdempotence = config.isProducerIdempotence();
+        mProducerAcks = config.getProducerAcks();
+        mProducerWriteQueueSize = config.getProducerWriteQueueSize();
+        mAggregateWindow = config.getAggregateWindow();
+
+        closeKafkaConsumer();
         setupSagasProducer();
         setupKafkaConsumers();
     }
 
 
+    // one producer for all the instances, it's kept across config updates, unless it's own settings change
     private void setupSagasProducer() {
         Map<String, String> kafkaConfig = new HashMap<>();
         kafkaConfig.put("bootstrap.servers", String.join(":", mKafkaHost, mKafkaPort));
         kafkaConfig.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
         kafkaConfig.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
-        kafkaConfig.put("group.id", "my_group");
+        kafkaConfig.put("linger.ms", String.valueOf(mProducerLinger));
+        kafkaConfig.put("batch.size", String.valueOf(mProducerBatchSize));
+        kafkaConfig.put("compression.type", mProducerCompression);
+        kafkaConfig.put("enable.idempotence", String.valueOf(mProducerIdempotence));
+        kafkaConfig.put("acks", mProducerAcks);
+
+        if (!kafkaConfig.equals(mSagasProducerConfig)) {
+            KafkaProducer<String, String> previous = mSagasProducer;
+            // statuses collected so far go with the producer, they were collected for
+            flushStatuses();
+
+            // producers of different settings are shared under different names
+            String name = "sagas-" + Integer.toHexString(kafkaConfig.hashCode());
+            mSagasProducer = createSagasProducer(name, kafkaConfig);
+            mSagasProducerConfig = kafkaConfig;
+            mSagasProducer.drainHandler(v -> {
+                if (mConsumer != null) checkBackpressure(mConsumer, mOffsets);
+            });
+            if (previous != null) previous.close(ar -> {
+                if (ar.failed()) verror("Sagas producer close: " + ar.cause().getMessage());
+            });
+        }
 
-        mSagasProducer = KafkaProducer.create(vertx, kafkaConfig);
+        mSagasProducer.setWriteQueueMaxSize(mProducerWriteQueueSize);
+        if (mAggregateWindow <= 0) flushStatuses();
     }
 
 
@@ -82,20 +232,52 @@ public class ApiVerticle extends MicroserviceVerticle {
         config.put("bootstrap.servers", String.join(":", mKafkaHost, mKafkaPort));
         config.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
         config.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-        config.put("group.id", "my_group");
+        // partitions of both topics are spread among consumers of the group, on this node and the others
+        config.put("group.id", mGroupId);
+        config.put("client.id", mClientId);
         config.put("auto.offset.reset", "latest");
-        config.put("enable.auto.commit", "true");
-
-        mConsumer = KafkaConsumer.create(getVertx(), config);
-        mConsumer.handler(record -> {
-            vinfo("Handling record: " + record.topic() + "  " + ":" + record.value());
-
-            photoType type = record.topic().equals(mUserpicsTopic) ? photoType.USERPIC : photoType.PHOTO;
-
-            if (record.value().startsWith(mScaleRequest))
-                photoScale(record.value().substring(mScaleRequest.length()), type);
-            else if (record.value().startsWith(mDeleteRequest))
-                photoDelete(record.value().substring(mDeleteRequest.length()), type);
+        // offsets are committed only once records are processed, see commitOffsets
+        config.put("enable.auto.commit", "false");
+        config.put("max.poll.records", String.valueOf(mMaxPollRecords));
+
+        OffsetTracker offsets = new OffsetTracker(mMaxInFlightPerPartition);
+        RevokeListener revokeListener = new RevokeListener(offsets, mRevokeTimeout);
+        KafkaConsumer<String, String> consumer = KafkaConsumer.create(vertx, createConsumer(config, revokeListener));
+        revokeListener.mKafka = consumer.unwrap();
+        mConsumer = consumer;
+        mOffsets = offsets;
+        mPaused.clear();
+        mBackpressured = false;
+
+        // the whole poll is handled at once, records are processed concurrently and complete in any order,
+        // record handler is still needed, as it's what keeps consumer polling.
+        // Once consumer is to be paused, or a partition has it's window in flight, the rest of the poll
+        // (of that partition) is not dispatched, it's sought back to the first record, that is left,
+        // to be read again after resume, so the window is never exceeded
+        consumer.batchHandler(records -> {
+            Map<TopicPartition, Long> rewind = new HashMap<>();
+            for (int i = 0; i < records.size(); i++) {
+                KafkaConsumerRecord<String, String> record = records.recordAt(i);
+                TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                if (rewind.containsKey(partition)) continue;
+
+                if (mBackpressured || offsets.isFull(partition)) {
+                    rewind.put(partition, record.offset());
+                    continue;
+                }
+                handleRecord(consumer, offsets, partition, record);
+                checkBackpressure(consumer, offsets);
+            }
+            rewind.forEach(consumer::seek);
+        });
+        consumer.handler(record -> {
+        });
+        consumer.partitionsRevokedHandler(partitions -> partitionsRevoked(consumer, offsets, partitions));
+        consumer.partitionsAssignedHandler(partitions -> partitionsAssigned(consumer, offsets, partitions));
+        // memory may be freed by the other instances too, so it's checked periodically as well
+        mCommitTimer = vertx.setPeriodic(mCommitInterval, id -> {
+            commitOffsets(consumer, offsets);
+            checkBackpressure(consumer, offsets);
         });
 
         Set<String> topics = new HashSet<>();
@@ -111,23 +293,240 @@ public class ApiVerticle extends MicroserviceVerticle {
                 );
             }
         });
+    }
+
+
+    // this handler runs once rebalance is over, so the partition may be owned by another consumer already,
+    // and it's offsets are never committed by this one again, RevokeListener has committed the done ones by then.
+    // Requests of it, that are still in flight, are done anyway,
+    // but the new owner consumes them once again from the group's committed offset
+    private void partitionsRevoked(KafkaConsumer<String, String> consumer, OffsetTracker offsets,
+                                   Set<TopicPartition> partitions) {
+        if (consumer != mConsumer) return;
+
+        int inFlight = partitions.stream().mapToInt(offsets::inFlight).sum();
+        vinfo("Kafka | Revoked " + partitions + ", requests in flight given up: " + inFlight);
+        partitions.forEach(offsets::remove);
+        mPaused.removeAll(partitions);
+    }
+
+    // partitions are read from the group's committed offset, they are paused if the whole consumer is
+    private void partitionsAssigned(KafkaConsumer<String, String> consumer, OffsetTracker offsets,
+                                    Set<TopicPartition> partitions) {
+        if (consumer != mConsumer) return;
+
+        vinfo("Kafka | Assigned " + partitions);
+
+        // assigned partitions come unpaused
+        mPaused.removeAll(partitions);
+        Set<TopicPartition> full = partitions
+                .stream()
+                .filter(offsets::isFull)
+                .collect(Collectors.toSet());
+        mPaused.addAll(full);
+
+        Set<TopicPartition> paused = mBackpressured ? partitions : full;
+        if (!paused.isEmpty()) consumer.pause(paused);
+    }
+
+    // in flight requests and state of every partition of this instance's consumer
+    private void setupStatsPublisher() {
+        vertx.setPeriodic(STATS_PERIOD, id -> {
+            if (mOffsets == null) return;
+
+            vertx.eventBus().publish(EBA_KAFKA_STATS, new JsonObject()
+                    .put("clientId", mClientId)
+                    .put("inFlight", mInFlight)
+                    .put("paused", mBackpressured)
+                    .put("partitions", mOffsets.stats()));
+        });
+    }
+
+
+    private void handleRecord(KafkaConsumer<String, String> consumer, OffsetTracker offsets,
+                              TopicPartition partition, KafkaConsumerRecord<String, String> record) {
+        vinfo("Handling record: " + record.topic() + "  " + ":" + record.value());
+
+        offsets.track(partition, record.offset());
+        if (offsets.isFull(partition) && mPaused.add(partition)) consumer.pause(partition);
+
+        mInFlight++;
+        Promise<Void> done = Promise.promise();
+        done.future().setHandler(ar -> recordDone(consumer, offsets, partition, record.offset()));
+
+        photoType type = record.topic().equals(mUserpicsTopic) ? photoType.USERPIC : photoType.PHOTO;
+
+        if (record.value().startsWith(mScaleRequest))
+            photoScale(record.value().substring(mScaleRequest.length()), type, done);
+        else if (record.value().startsWith(mDeleteRequest))
+            photoDelete(record.value().substring(mDeleteRequest.length()), type, done);
+        else
+            done.complete();
+    }
+
+    // record is over, whether it succeeded or not, failures are reported to sagas anyway
+    private void recordDone(KafkaConsumer<String, String> consumer, OffsetTracker offsets,
+                            TopicPartition partition, long offset) {
+        mInFlight--;
+        offsets.complete(partition, offset);
+
+        // consumer may be replaced by now
+        if (consumer != mConsumer) return;
+        if (!mBackpressured && !offsets.isFull(partition) && mPaused.remove(partition)) consumer.resume(partition);
+        checkBackpressure(consumer, offsets);
+    }
+
+    // all the partitions are paused, once too many requests are in flight, memory budget is nearly taken
+    // or resize queue is filling up, and resumed, once all are down to low watermarks,
+    // so that a burst is taken at the rate it's processed.
+    // Consumer keeps polling while partitions are paused, so it stays in the group, however long the pause is
+    private void checkBackpressure(KafkaConsumer<String, String> consumer, OffsetTracker offsets) {
+        if (consumer != mConsumer) return;
+
+        double memory = memoryPressure();
+        double queue = queuePressure();
+        boolean sagasFull = mSagasProducer != null && mSagasProducer.writeQueueFull();
+        if (!mBackpressured && (mInFlight >= mPauseInFlight || memory >= mPauseMemoryShare ||
+                queue >= mPauseQueueShare || sagasFull)) {
+            mBackpressured = true;
+            vinfo("Kafka | Pausing, in flight: " + mInFlight + ", memory: " + memory + ", queue: " + queue);
+            consumer.assignment(ar -> {
+                if (ar.failed() || !mBackpressured || consumer != mConsumer) return;
+                consumer.pause(ar.result());
+            });
+        } else if (mBackpressured && mInFlight <= mResumeInFlight && memory <= mResumeMemoryShare &&
+                queue <= mResumeQueueShare && !sagasFull) {
+            mBackpressured = false;
+            vinfo("Kafka | Resuming, in flight: " + mInFlight + ", memory: " + memory + ", queue: " + queue);
+            consumer.assignment(ar -> {
+                if (ar.failed() || mBackpressured || consumer != mConsumer) return;
+
+                // the ones, that are over their own window, stay paused
+                Set<TopicPartition> resumed = ar.result()
+                        .stream()
+                        .filter(partition -> !offsets.isFull(partition))
+                        .collect(Collectors.toSet());
+                mPaused.addAll(ar.result());
+                mPaused.removeAll(resumed);
+                consumer.resume(resumed);
+            });
+        }
+    }
+
+    // share of memory budget of scale verticles, that is taken
+    private double memoryPressure() {
+        MemoryBudget budget = memoryBudget();
+        return budget == null ? 0 : budget.pressure();
+    }
+
+    // share of resize queue of scale verticles, that is taken
+    private double queuePressure() {
+        ResizeWorkers workers = resizeWorkers();
+        return workers == null || workers.getMaxQueued() <= 0 ? 0 :
+                (double) workers.getQueued() / workers.getMaxQueued();
+    }
+
+    // commit offsets up to the first record of every partition, that is not done yet.
+    // Broker doesn't check, who owns the partition, and revocation is handled only after rebalance,
+    // so the offsets are committed only for partitions, that are still assigned by the time of commit
+    private Future<Void> commitOffsets(KafkaConsumer<String, String> consumer, OffsetTracker offsets) {
+        Map<TopicPartition, Long> committable = offsets.committable();
+        if (committable.isEmpty()) return Future.succeededFuture();
+
+        Promise<Void> promise = Promise.promise();
+        consumer.assignment(assignmentAr -> {
+            if (assignmentAr.failed()) {
+                promise.fail(assignmentAr.cause());
+                return;
+            }
+
+            committable.keySet().retainAll(assignmentAr.result());
+            if (committable.isEmpty()) {
+                promise.complete();
+                return;
+            }
+
+            Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<>();
+            committable.forEach((partition, offset) -> commit.put(partition, new OffsetAndMetadata(offset, "")));
+
+            consumer.commit(commit, ar -> {
+                if (ar.failed()) {
+                    verror("Committing offsets " + committable + " | " + ar.cause().getMessage());
+                    promise.fail(ar.cause());
+                    return;
+                }
+
+                offsets.committed(committable);
+                promise.complete();
+            });
+        });
+
+        return promise.future();
+    }
 
-        new TopicPartition(mUserpicsTopic, 0);
-        Set<TopicPartition> topicPs = new HashSet<>();
-        topicPs.add(new TopicPartition(mUserpicsTopic, 0));
-        topicPs.add(new TopicPartition(mPhotosTopic, 0));
+    // the records, that are done by now, are committed, the rest are consumed again by the next consumer
+    private void closeKafkaConsumer() {
+        if (mConsumer == null) return;
+
+        KafkaConsumer<String, String> consumer = mConsumer;
+        vertx.cancelTimer(mCommitTimer);
+        commitOffsets(consumer, mOffsets).setHandler(ar -> consumer.close());
+        mConsumer = null;
     }
 
 
+    // status goes right away or is packed with the others of the same window,
+    // the window is cut short, once it's statuses fill the whole producer batch
     private void sagas(String msg) {
-        mSagasProducer.write(
-                KafkaProducerRecord.create(mSagasTopic, msg)
-        );
+        if (mAggregateWindow <= 0) {
+            writeSagas(msg);
+            return;
+        }
+
+        mStatuses.add(msg);
+        // batch size is in bytes of the record
+        mStatusesBytes += msg.getBytes(StandardCharsets.UTF_8).length + 1;
+        if (mStatusesBytes >= mProducerBatchSize) {
+            flushStatuses();
+        } else if (mStatusesTimer < 0) {
+            mStatusesTimer = vertx.setTimer(mAggregateWindow, id -> {
+                mStatusesTimer = -1;
+                flushStatuses();
+            });
+        }
+    }
+
+    // one record of all the statuses collected, one per line
+    private void flushStatuses() {
+        if (mStatusesTimer >= 0) {
+            vertx.cancelTimer(mStatusesTimer);
+            mStatusesTimer = -1;
+        }
+        if (mStatuses.isEmpty()) return;
+
+        writeSagas(String.join("\n", mStatuses));
+        mStatuses.clear();
+        mStatusesBytes = 0;
     }
 
+    private void writeSagas(String value) {
+        mSagasProducer.write(KafkaProducerRecord.create(mSagasTopic, value), ar -> {
+            if (ar.failed()) verror("Sagas | " + ar.cause().getMessage());
+        });
+    }
 
-    private void photoScale(@Nonnull String ID, photoType type) {
+
+    // request, that resize queue had no room for, stays in flight and is sent again, so it's never committed undone
+    private void photoScale(@Nonnull String ID, photoType type, Promise<Void> done) {
         vertx.eventBus().<OriginID>request(EBA_SCALE_ORIGIN, new OriginID(ID, type), ar -> {
+            if (ar.failed() && isResizeQueueFull(ar.cause())) {
+                vinfo("Scaling, " + type.toString() + " : " + ID + " | resize queue is full, retrying");
+                if (mConsumer != null) checkBackpressure(mConsumer, mOffsets);
+                vertx.setTimer(RETRY_DELAY, id -> photoScale(ID, type, done));
+                return;
+            }
+
+            done.complete();
             if (ar.failed()) {
                 // send "ERR" to sagas
                 verror("Scaling, " + type.toString() + " : " + ID + " | " + ar.cause());
@@ -142,8 +541,26 @@ public class ApiVerticle extends MicroserviceVerticle {
     }
 
 
-    private void photoDelete(@Nonnull String ID, photoType type) {
+    private static boolean isResizeQueueFull(Throwable err) {
+        return err instanceof ReplyException &&
+                ((ReplyException) err).failureCode() == ScaleVerticle.RESIZE_QUEUE_FULL;
+    }
+
+
+    // every scale, as soon as it's uploaded, the whole request is reported by photoScale later anyway
+    private void setupSizeListener() {
+        vertx.eventBus().<OriginID>consumer(EBA_SCALE_SIZE_DONE, handler -> {
+            if (!mReportSizes) return;
+
+            OriginID url = handler.body();
+            sagas("photo-scale:" + mScaleRequest + "ok:" + String.join(".", url.getID(), url.getSizes().get(0)));
+        });
+    }
+
+
+    private void photoDelete(@Nonnull String ID, photoType type, Promise<Void> done) {
         vertx.eventBus().<OriginID>request(EBA_DELETE_ORIGIN, new OriginID(ID, type), ar -> {
+            done.complete();
             if (ar.failed()) {
                 // send "ERR" to sagas
                 verror("Deleting, " + type.toString() + " : " + ID + " | " + ar.cause());
@@ -214,4 +631,115 @@ public class ApiVerticle extends MicroserviceVerticle {
             vsuccess("Setup");
         });
     }
+
+
+    // vert.x hands revocation to partitionsRevoked only once rebalance is over, this listener runs before that,
+    // on the polling thread, so requests of the revoked partitions are waited for a while
+    // and the done ones are committed, before the partitions go to the next owner
+    private class RevokeListener implements ConsumerRebalanceListener {
+
+        private final OffsetTracker mOffsets;
+        private final long mTimeout;
+        private final Context mContext = vertx.getOrCreateContext();
+        // native consumer, that calls this listener
+        private volatile Consumer<String, String> mKafka;
+
+        RevokeListener(OffsetTracker offsets, long timeout) {
+            mOffsets = offsets;
+            mTimeout = timeout;
+        }
+
+        @Override
+        public void onPartitionsRevoked(Collection<org.apache.kafka.common.TopicPartition> partitions) {
+            if (partitions.isEmpty() || mKafka == null) return;
+
+            Set<TopicPartition> revoked = partitions
+                    .stream()
+                    .map(partition -> new TopicPartition(partition.topic(), partition.partition()))
+                    .collect(Collectors.toSet());
+            CompletableFuture<Map<TopicPartition, Long>> drained = new CompletableFuture<>();
+            mContext.runOnContext(v -> awaitRevoked(revoked, System.currentTimeMillis() + mTimeout, drained));
+
+            Map<TopicPartition, Long> committable;
+            try {
+                // event loop is never stuck for long, but the poll must not be either
+                committable = drained.get(2 * mTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException | TimeoutException e) {
+                verror("Kafka | Waiting for revoked " + revoked + " | " + e);
+                return;
+            }
+            if (committable.isEmpty()) return;
+
+            Map<org.apache.kafka.common.TopicPartition, org.apache.kafka.clients.consumer.OffsetAndMetadata> commit =
+                    new HashMap<>();
+            committable.forEach((partition, offset) -> commit.put(
+                    new org.apache.kafka.common.TopicPartition(partition.getTopic(), partition.getPartition()),
+                    new org.apache.kafka.clients.consumer.OffsetAndMetadata(offset, "")));
+            try {
+                mKafka.commitSync(commit);
+            } catch (KafkaException e) {
+                verror("Committing revoked " + committable + " | " + e.getMessage());
+                return;
+            }
+
+            vinfo("Kafka | Committed revoked " + committable);
+            mContext.runOnContext(v -> mOffsets.committed(committable));
+        }
+
+        // partitions are someone else's already, so nothing is committed
+        @Override
+        public void onPartitionsLost(Collection<org.apache.kafka.common.TopicPartition> partitions) {
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<org.apache.kafka.common.TopicPartition> partitions) {
+        }
+
+        // until nothing of the revoked partitions is in flight or the time is up
+        private void awaitRevoked(Set<TopicPartition> revoked, long deadline,
+                                  CompletableFuture<Map<TopicPartition, Long>> drained) {
+            int inFlight = revoked.stream().mapToInt(mOffsets::inFlight).sum();
+            if (inFlight > 0 && System.currentTimeMillis() < deadline) {
+                vertx.setTimer(REVOKE_CHECK_PERIOD, id -> awaitRevoked(revoked, deadline, drained));
+                return;
+            }
+
+            Map<TopicPartition, Long> committable = mOffsets.committable();
+            committable.keySet().retainAll(revoked);
+            drained.complete(committable);
+        }
+    }
+
+    // rebalance listener of this verticle and then the one of vert.x
+    private static class ChainedListener implements ConsumerRebalanceListener {
+
+        private final ConsumerRebalanceListener mFirst;
+        private final ConsumerRebalanceListener mNext;
+
+        ChainedListener(ConsumerRebalanceListener first, ConsumerRebalanceListener next) {
+            mFirst = first;
+            mNext = next;
+        }
+
+        @Override
+        public void onPartitionsRevoked(Collection<org.apache.kafka.common.TopicPartition> partitions) {
+            mFirst.onPartitionsRevoked(partitions);
+            mNext.onPartitionsRevoked(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<org.apache.kafka.common.TopicPartition> partitions) {
+            mFirst.onPartitionsAssigned(partitions);
+            mNext.onPartitionsAssigned(partitions);
+        }
+
+        @Override
+        public void onPartitionsLost(Collection<org.apache.kafka.common.TopicPartition> partitions) {
+            mFirst.onPartitionsLost(partitions);
+            mNext.onPartitionsLost(partitions);
+        }
+    }
 }
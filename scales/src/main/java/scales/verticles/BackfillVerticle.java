@@ -0,0 +1,399 @@
+package scales.verticles;
+
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.file.CopyOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import scales.model.Config;
+import scales.model.ConfigMessageCodec;
+import scales.model.OriginID;
+import scales.model.OriginIDCodec;
+import scales.storage.ObjectListing;
+import scales.storage.ObjectStore;
+import scales.storage.ObjectStores;
+import scales.utility.ResizeWorkers;
+import vertx.common.MicroserviceVerticle;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_UPDATE;
+import static scales.verticles.ScaleVerticle.EBA_RESIZE_STATS;
+import static scales.verticles.ScaleVerticle.EBA_SCALE_ORIGIN;
+import static scales.verticles.ScaleVerticle.PRIORITY_HEADER;
+
+/**
+ * Verticle that scales existing originals into sizes, that were added to config after they were uploaded.
+ * Buckets are listed page by page, originals missing some scales are sent to ScaleVerticle with just those sizes,
+ * rate limited and yielding to live traffic. Position is checkpointed after every page, so that restart resumes it
+ */
+public class BackfillVerticle extends MicroserviceVerticle {
+
+    // Constants
+
+    // how often rate limiter is refilled and queue is pumped
+    private static final long TICK_PERIOD = 100;
+    private static final String CHECKPOINT_TEMP_SUFFIX = ".part";
+
+    // scaling of live traffic goes first
+    private static final DeliveryOptions BACKGROUND_PRIORITY =
+            new DeliveryOptions().addHeader(PRIORITY_HEADER, ResizeWorkers.BACKGROUND);
+
+    // checkpoint keys
+
+    private static final String SIZES = "sizes";
+    private static final String PREVIOUS_SIZES = "previousSizes";
+    private static final String BUCKET = "bucket";
+    private static final String START_AFTER = "startAfter";
+    private static final String DONE = "done";
+    private static final String DEFERRED = "deferred";
+
+    // Variables
+
+    // data to be retrieved from config
+
+    private boolean mEnabled;
+    private String mPhotosBucket;
+    private String mUserpicsBucket;
+    // sizes to backfill, lazy ones are scaled on request anyway
+    private Set<String> mSizeNames;
+    private Set<String> mAllSizeNames;
+    private String mCheckpoint;
+    private double mRate;
+    private int mMaxInFlight;
+    private int mPageSize;
+    private int mYieldQueueDepth;
+    private ObjectStore mStore;
+    // config the store is created from
+    private Config mStoreConfig;
+
+    // state of the current run, null when there is nothing to backfill
+
+    private Run mRun;
+    private double mTokens;
+    private int mInFlight;
+    private int mLiveQueued;
+
+    // Overrides
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        registerCodecs();
+        setupConfigListener();
+        setupStatsListener();
+        fetchConfig(startPromise);
+        vertx.setPeriodic(TICK_PERIOD, id -> tick());
+    }
+
+    // Private
+
+    private void setupFromConfig(@Nonnull Config config) {
+        Set<String> previousSizes = mSizeNames;
+
+        mEnabled = config.isBackfillEnabled();
+        mPhotosBucket = config.getPhotosBucket();
+        mUserpicsBucket = config.getUserpicsBucket();
+        mSizeNames = new TreeSet<>(config.getEagerSizes().keySet());
+        mAllSizeNames = new TreeSet<>(config.getSizes().keySet());
+        mCheckpoint = config.getBackfillCheckpoint();
+        mRate = config.getBackfillRate();
+        mMaxInFlight = config.getBackfillMaxInFlight();
+        mPageSize = config.getBackfillPageSize();
+        mYieldQueueDepth = config.getBackfillYieldQueueDepth();
+        mStore = ObjectStores.update(vertx, mStore, mStoreConfig, config);
+        mStoreConfig = config;
+
+        if (!mEnabled || mCheckpoint == null) {
+            mRun = null;
+            return;
+        }
+
+        if (previousSizes == null) {
+            resumeFromCheckpoint();
+        } else if (!previousSizes.equals(mSizeNames)) {
+            startRun(new Run(mSizeNames, previousSizes));
+        }
+    }
+
+    // resume unfinished run, start over if sizes changed while service was down
+    private void resumeFromCheckpoint() {
+        vertx.fileSystem().readFile(mCheckpoint, readAr -> {
+            if (readAr.failed()) {
+                // first start, existing originals have all the scales they need
+                writeCheckpoint(new Run(mSizeNames, mSizeNames).finished());
+                vinfo("Backfill | No checkpoint, nothing to backfill");
+                return;
+            }
+
+            JsonObject checkpoint = readAr.result().toJsonObject();
+            Set<String> sizes = sizeNames(checkpoint.getJsonArray(SIZES));
+
+            if (!sizes.equals(mSizeNames)) {
+                startRun(new Run(mSizeNames, sizes));
+            } else if (!checkpoint.getBoolean(DONE, false)) {
+                startRun(new Run(checkpoint));
+            }
+        });
+    }
+
+    private void startRun(Run run) {
+        mRun = run;
+        vinfo("Backfill | Sizes " + run.mSizes + " from " + run.mBucket + " after " + run.mStartAfter);
+        nextPage(run);
+    }
+
+    // list next page and send it's originals to scaling
+    private void nextPage(Run run) {
+        if (run != mRun) return;
+
+        mStore.list(bucketName(run.mBucket), run.mStartAfter, mPageSize).setHandler(listAr -> {
+            if (run != mRun) return;
+            if (listAr.failed()) {
+                verror("Backfill | Listing: " + listAr.cause().getMessage());
+                vertx.setTimer(TICK_PERIOD * 10, id -> nextPage(run));
+                return;
+            }
+
+            ObjectListing page = listAr.result();
+            run.mQueue.addAll(missingScales(run, page));
+            run.mPageDone = Promise.promise();
+            run.mPageDone.future().setHandler(doneAr -> finishPage(run, page));
+            pump();
+        });
+    }
+
+    // originals of this page along with the deferred ones, that are now known to miss some scales
+    private List<OriginID> missingScales(Run run, ObjectListing page) {
+        List<String> keys = page.getKeys();
+        Set<String> present = new HashSet<>(keys);
+        String lastKey = keys.isEmpty() ? null : keys.get(keys.size() - 1);
+
+        for (String key : keys) {
+            if (!isScale(run, key)) run.mDeferred.put(key, new ArrayList<>(run.mSizes));
+        }
+
+        List<OriginID> missing = new ArrayList<>();
+        Iterator<Map.Entry<String, List<String>>> it = run.mDeferred.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, List<String>> original = it.next();
+            List<String> unseen = original.getValue();
+            unseen.removeIf(sizeName -> present.contains(scaleName(original.getKey(), sizeName)));
+
+            // scales come right after the original, but may be cut off by the end of the page
+            boolean resolved = !page.isTruncated() || unseen.stream()
+                    .allMatch(sizeName -> scaleName(original.getKey(), sizeName).compareTo(lastKey) <= 0);
+            if (!resolved) continue;
+
+            it.remove();
+            if (!unseen.isEmpty()) missing.add(new OriginID(original.getKey(), run.mBucket, unseen));
+        }
+
+        if (lastKey != null) run.mStartAfter = lastKey;
+        return missing;
+    }
+
+    private void finishPage(Run run, ObjectListing page) {
+        if (run != mRun) return;
+
+        if (!page.isTruncated()) {
+            if (run.mBucket == OriginID.photoType.PHOTO) {
+                run.mBucket = OriginID.photoType.USERPIC;
+                run.mStartAfter = null;
+            } else {
+                writeCheckpoint(run.finished());
+                mRun = null;
+                vsuccess("Backfill | Sizes " + run.mSizes);
+                return;
+            }
+        }
+
+        writeCheckpoint(run.toJson());
+        nextPage(run);
+    }
+
+    // scales of previous sizes are skipped as well, as those might still be there
+    private boolean isScale(Run run, String key) {
+        int dot = key.lastIndexOf('.');
+        if (dot < 0) return false;
+
+        String suffix = key.substring(dot + 1);
+        return mAllSizeNames.contains(suffix) || run.mSizes.contains(suffix) || run.mPreviousSizes.contains(suffix);
+    }
+
+    private void tick() {
+        mTokens = Math.min(Math.max(mRate, 1), mTokens + mRate * TICK_PERIOD / 1000);
+        pump();
+    }
+
+    // send queued originals to scaling, as long as rate, in flight limit and live traffic allow
+    private void pump() {
+        Run run = mRun;
+        if (run == null || run.mPageDone == null) return;
+
+        while (!run.mQueue.isEmpty() && mTokens >= 1 && mInFlight < mMaxInFlight && !shouldYield()) {
+            OriginID origin = run.mQueue.poll();
+            mTokens--;
+            mInFlight++;
+
+            vertx.eventBus().request(EBA_SCALE_ORIGIN, origin, BACKGROUND_PRIORITY, scaleAr -> {
+                mInFlight--;
+                if (scaleAr.failed()) {
+                    verror("Backfill | " + origin.getID() + ": " + scaleAr.cause().getMessage());
+                } else {
+                    vinfo("Backfill | " + origin.getID() + " " + origin.getSizes());
+                }
+                run.mInFlight--;
+                pump();
+            });
+            run.mInFlight++;
+        }
+
+        if (run.mQueue.isEmpty() && run.mInFlight == 0) run.mPageDone.tryComplete();
+    }
+
+    // resizes queued by live traffic, not counting the ones sent by backfill
+    private boolean shouldYield() {
+        return mLiveQueued - mInFlight > mYieldQueueDepth;
+    }
+
+    private void writeCheckpoint(JsonObject checkpoint) {
+        String temp = mCheckpoint + CHECKPOINT_TEMP_SUFFIX;
+        String dir = Paths.get(mCheckpoint).toAbsolutePath().getParent().toString();
+
+        Promise<Void> mkdirs = Promise.promise();
+        vertx.fileSystem().mkdirs(dir, mkdirs);
+        mkdirs.future().compose(v -> {
+            Promise<Void> written = Promise.promise();
+            vertx.fileSystem().writeFile(temp, Buffer.buffer(checkpoint.encode()), written);
+            return written.future();
+        }).compose(v -> {
+            Promise<Void> moved = Promise.promise();
+            vertx.fileSystem().move(temp, mCheckpoint,
+                    new CopyOptions().setReplaceExisting(true).setAtomicMove(true), moved);
+            return moved.future();
+        }).setHandler(ar -> {
+            if (ar.failed()) verror("Backfill | Checkpoint: " + ar.cause().getMessage());
+        });
+    }
+
+    private String bucketName(OriginID.photoType type) {
+        return type == OriginID.photoType.USERPIC ? mUserpicsBucket : mPhotosBucket;
+    }
+
+    private static Set<String> sizeNames(JsonArray sizes) {
+        return sizes.stream().map(Object::toString).collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    private static String scaleName(String photoID, String sizeName) {
+        return String.join(".", photoID, sizeName);
+    }
+
+    private void registerCodecs() {
+        try {
+            vertx.eventBus().registerDefaultCodec(Config.class, new ConfigMessageCodec());
+        } catch (IllegalStateException ignored) {
+        }
+        try {
+            vertx.eventBus().registerDefaultCodec(OriginID.class, new OriginIDCodec());
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    private void setupStatsListener() {
+        vertx.eventBus().<JsonObject>consumer(EBA_RESIZE_STATS,
+                stats -> mLiveQueued = stats.body().getInteger("queued", 0));
+    }
+
+    /**
+     * Listen on configuration changes and start backfill once sizes change
+     */
+    private void setupConfigListener() {
+        vertx.eventBus().<Config>consumer(EBA_CONFIG_UPDATE, configAr -> setupFromConfig(configAr.body()));
+    }
+
+    private void fetchConfig(Promise<Void> startPromise) {
+        vertx.eventBus().<Config>request(EBA_CONFIG_FETCH, new JsonObject(), configAr -> {
+            if (configAr.failed()) {
+                startPromise.fail(configAr.cause());
+                verror("Setup");
+                return;
+            }
+
+            try {
+                setupFromConfig(configAr.result().body());
+            } catch (NullPointerException | IllegalArgumentException e) {
+                startPromise.fail(e);
+                verror("Setup: " + e.getMessage());
+                return;
+            }
+            startPromise.complete();
+            vsuccess("Setup");
+        });
+    }
+
+    /**
+     * Position of backfill: bucket being listed, last key listed, originals waiting for the next page
+     */
+    private static class Run {
+
+        // Variables
+
+        private final Set<String> mSizes;
+        private final Set<String> mPreviousSizes;
+        private OriginID.photoType mBucket = OriginID.photoType.PHOTO;
+        private String mStartAfter;
+        // original -> sizes, that were not seen yet
+        private final LinkedHashMap<String, List<String>> mDeferred = new LinkedHashMap<>();
+
+        private final ArrayDeque<OriginID> mQueue = new ArrayDeque<>();
+        private int mInFlight;
+        private Promise<Void> mPageDone;
+
+        // Constructors
+
+        Run(Set<String> sizes, Set<String> previousSizes) {
+            mSizes = sizes;
+            mPreviousSizes = previousSizes;
+        }
+
+        Run(JsonObject checkpoint) {
+            mSizes = sizeNames(checkpoint.getJsonArray(SIZES));
+            mPreviousSizes = sizeNames(checkpoint.getJsonArray(PREVIOUS_SIZES, new JsonArray()));
+            mBucket = OriginID.photoType.valueOf(checkpoint.getString(BUCKET));
+            mStartAfter = checkpoint.getString(START_AFTER);
+
+            JsonObject deferred = checkpoint.getJsonObject(DEFERRED, new JsonObject());
+            deferred.forEach(entry -> mDeferred.put(entry.getKey(), ((JsonArray) entry.getValue())
+                    .stream()
+                    .map(Object::toString)
+                    .collect(Collectors.toList())
+            ));
+        }
+
+        // Utils
+
+        JsonObject toJson() {
+            JsonObject deferred = new JsonObject();
+            mDeferred.forEach((photoID, sizes) -> deferred.put(photoID, new JsonArray(new ArrayList<>(sizes))));
+
+            return new JsonObject()
+                    .put(SIZES, new JsonArray(new ArrayList<>(mSizes)))
+                    .put(PREVIOUS_SIZES, new JsonArray(new ArrayList<>(mPreviousSizes)))
+                    .put(BUCKET, mBucket.name())
+                    .put(START_AFTER, mStartAfter)
+                    .put(DONE, false)
+                    .put(DEFERRED, deferred);
+        }
+
+        JsonObject finished() {
+            return new JsonObject()
+                    .put(SIZES, new JsonArray(new ArrayList<>(mSizes)))
+                    .put(DONE, true);
+        }
+    }
+}
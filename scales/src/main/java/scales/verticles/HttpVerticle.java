@@ -0,0 +1,250 @@
+package scales.verticles;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import scales.model.Config;
+import scales.model.ConfigMessageCodec;
+import scales.model.EncodingProfile;
+import scales.model.OriginID;
+import scales.model.OriginIDCodec;
+import scales.storage.ObjectNotFoundException;
+import scales.storage.ObjectStore;
+import scales.storage.ObjectStores;
+import vertx.common.MicroserviceVerticle;
+
+import javax.annotation.Nonnull;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_UPDATE;
+import static scales.verticles.ScaleVerticle.EBA_SCALE_ORIGIN;
+
+/**
+ * Verticle that serves scales over http at GET /{bucket}/{id}/{size}.
+ * Scale, that is not in storage yet (e.g. of lazy size), is scaled by ScaleVerticle, stored and then served,
+ * concurrent requests for the same scale wait for the single scaling
+ */
+public class HttpVerticle extends MicroserviceVerticle {
+
+    // Constants
+
+    private static final int READ_CHUNK = 64 * 1024;
+
+    // Variables
+
+    // data to be retrieved from config
+
+    private String mPhotosBucket;
+    private String mUserpicsBucket;
+    private HashMap<String, Integer> mSizes;
+    private HashMap<String, EncodingProfile> mProfiles;
+    private ObjectStore mStore;
+    // config the store is created from
+    private Config mStoreConfig;
+
+    private HttpServer mServer;
+    private int mPort;
+
+    // bucket/scale name -> requests waiting for it to be scaled
+    private final HashMap<String, List<Promise<Void>>> mScaling = new HashMap<>();
+
+    // Overrides
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        registerCodecs();
+        setupConfigListener();
+        fetchConfig(startPromise);
+    }
+
+    // Private
+
+    // completes once the server listens, if it's enabled
+    private Future<Void> setupFromConfig(@Nonnull Config config) {
+        mPhotosBucket = config.getPhotosBucket();
+        mUserpicsBucket = config.getUserpicsBucket();
+        mSizes = config.getSizes();
+        mProfiles = config.getProfiles();
+        mStore = ObjectStores.update(vertx, mStore, mStoreConfig, config);
+        mStoreConfig = config;
+        return setupServer(config.isHttpEnabled(), config.getHttpPort());
+    }
+
+    private Future<Void> setupServer(boolean enabled, int port) {
+        if (mServer != null) {
+            if (enabled && mPort == port) return Future.succeededFuture();
+            mServer.close();
+            mServer = null;
+        }
+        if (!enabled) return Future.succeededFuture();
+
+        Router router = Router.router(vertx);
+        router.get("/:bucket/:id/:size").handler(this::scaleHandler);
+
+        mPort = port;
+        Promise<Void> promise = Promise.promise();
+        mServer = vertx.createHttpServer()
+                .requestHandler(router)
+                .listen(port, ar -> {
+                    if (ar.failed()) {
+                        verror("Http server on " + port + ": " + ar.cause().getMessage());
+                        promise.fail(ar.cause());
+                    } else {
+                        vsuccess("Http server on " + port);
+                        promise.complete();
+                    }
+                });
+
+        return promise.future();
+    }
+
+    // stored scale, or the one scaled right now if there is none
+    private void scaleHandler(RoutingContext context) {
+        String bucketName = context.pathParam("bucket");
+        String photoID = context.pathParam("id");
+        String sizeName = context.pathParam("size");
+
+        OriginID.photoType type = bucketName.equals(mUserpicsBucket) ? OriginID.photoType.USERPIC :
+                bucketName.equals(mPhotosBucket) ? OriginID.photoType.PHOTO : null;
+        if (type == null || !mSizes.containsKey(sizeName)) {
+            context.response().setStatusCode(404).end();
+            return;
+        }
+
+        String scaleName = String.join(".", photoID, sizeName);
+        String contentType = contentType(mProfiles.get(sizeName));
+
+        // only the scale, that is not there, is scaled, the rest of storage failures are just failures
+        read(bucketName, scaleName).recover(err -> {
+            if (!(err instanceof ObjectNotFoundException)) return Future.failedFuture(err);
+
+            return scale(bucketName, new OriginID(photoID, type, List.of(sizeName)))
+                    .compose(v -> read(bucketName, scaleName));
+        }).setHandler(ar -> {
+            if (ar.failed()) {
+                verror("Http | " + scaleName + ": " + ar.cause().getMessage());
+                context.response().setStatusCode(isOriginalNotFound(ar.cause()) ? 404 : 500).end();
+                return;
+            }
+
+            context.response()
+                    .putHeader("Content-Type", contentType)
+                    .end(ar.result());
+        });
+    }
+
+    // requests, that come while the scale is being made, join the one in progress
+    private Future<Void> scale(String bucketName, OriginID origin) {
+        String key = String.join("/", bucketName, origin.getID(), origin.getSizes().get(0));
+        Promise<Void> promise = Promise.promise();
+
+        List<Promise<Void>> waiting = mScaling.get(key);
+        if (waiting != null) {
+            waiting.add(promise);
+            return promise.future();
+        }
+
+        waiting = new ArrayList<>();
+        waiting.add(promise);
+        mScaling.put(key, waiting);
+
+        vertx.eventBus().request(EBA_SCALE_ORIGIN, origin, scaleAr -> {
+            List<Promise<Void>> done = mScaling.remove(key);
+            if (scaleAr.failed()) {
+                done.forEach(p -> p.fail(scaleAr.cause()));
+            } else {
+                vinfo("Http | Scaled " + key + " for " + done.size() + " requests");
+                done.forEach(Promise::complete);
+            }
+        });
+
+        return promise.future();
+    }
+
+    // the whole object, read on worker as the stream may still be downloading
+    private Future<Buffer> read(String bucketName, String key) {
+        return mStore.get(bucketName, key).compose(stream -> {
+            Promise<Buffer> promise = Promise.promise();
+            vertx.<Buffer>executeBlocking(read -> {
+                try (ImageInputStream iis = stream) {
+                    Buffer data = Buffer.buffer();
+                    byte[] chunk = new byte[READ_CHUNK];
+                    int length;
+                    while ((length = iis.read(chunk)) != -1) {
+                        data.appendBytes(chunk, 0, length);
+                    }
+                    read.complete(data);
+                } catch (IOException e) {
+                    read.fail(e);
+                }
+            }, false, promise);
+
+            return promise.future();
+        });
+    }
+
+    private static boolean isOriginalNotFound(Throwable err) {
+        return err instanceof ReplyException &&
+                ((ReplyException) err).failureCode() == ScaleVerticle.ORIGINAL_NOT_FOUND;
+    }
+
+    private static String contentType(EncodingProfile profile) {
+        String format = profile.getFormat().toLowerCase();
+        return "image/" + (format.equals("jpg") ? "jpeg" : format);
+    }
+
+    private void registerCodecs() {
+        try {
+            vertx.eventBus().registerDefaultCodec(Config.class, new ConfigMessageCodec());
+        } catch (IllegalStateException ignored) {
+        }
+        try {
+            vertx.eventBus().registerDefaultCodec(OriginID.class, new OriginIDCodec());
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    /**
+     * Listen on configuration changes and update sizes and server accordingly
+     */
+    private void setupConfigListener() {
+        vertx.eventBus().<Config>consumer(EBA_CONFIG_UPDATE, configAr -> setupFromConfig(configAr.body()));
+    }
+
+    private void fetchConfig(Promise<Void> startPromise) {
+        vertx.eventBus().<Config>request(EBA_CONFIG_FETCH, new JsonObject(), configAr -> {
+            if (configAr.failed()) {
+                startPromise.fail(configAr.cause());
+                verror("Setup");
+                return;
+            }
+
+            Future<Void> setup;
+            try {
+                setup = setupFromConfig(configAr.result().body());
+            } catch (NullPointerException | IllegalArgumentException e) {
+                startPromise.fail(e);
+                verror("Setup: " + e.getMessage());
+                return;
+            }
+            // server, that can't listen, fails the deployment
+            setup.setHandler(ar -> {
+                if (ar.failed()) {
+                    startPromise.fail(ar.cause());
+                    verror("Setup: " + ar.cause().getMessage());
+                    return;
+                }
+                startPromise.complete();
+                vsuccess("Setup");
+            });
+        });
+    }
+}
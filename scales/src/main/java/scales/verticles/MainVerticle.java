@@ -1,16 +1,16 @@
 package scales.verticles;
 
+import scales.model.Config;
+import scales.model.ConfigMessageCodec;
 import vertx.common.MicroserviceVerticle;
-import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
 import io.vertx.core.json.JsonObject;
 
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
 
 /**
  * Verticle that deploys all other verticles
@@ -21,51 +21,69 @@ public class MainVerticle extends MicroserviceVerticle {
 
     @Override
     public void start(Promise<Void> startPromise) {
-        List<Promise> verticlePromises = Stream.of(
-                ConfigurationVerticle.class)
-                .map(el -> redeployVerticle(el.getName(), new JsonObject()))
-                .collect(Collectors.toList());
+        registerCodecs();
 
-        List<Future> futures = verticlePromises.stream()
-                .map((Function<Promise, Future>) Promise::future)
-                .collect(Collectors.toList());
+        redeployVerticle(ConfigurationVerticle.class.getName(), new DeploymentOptions())
+                .future()
+                .compose(v -> fetchConfig())
+                .compose(this::deployAll)
+                .setHandler(ar -> {
+                    if (ar.failed()) {
+                        startPromise.fail(ar.cause());
+                        verror("Setup");
+                    } else {
+                        startPromise.complete();
+                        vsuccess("Setup");
+                    }
+                });
+    }
 
-        CompositeFuture.all(futures).setHandler(ar -> {
-            if (ar.failed()) {
-                startPromise.fail(ar.cause());
-                verror("Setup");
+    // Private
+
+    // one after another, as the later ones rely on the earlier ones to be listening
+    private Future<Void> deployAll(Config config) {
+        return redeployVerticle(ScaleVerticle.class.getName(),
+                config.getDeploymentOptions(ScaleVerticle.class.getSimpleName())
+        ).future().compose(v ->
+                // scales for sizes added to config while the service was down,
+                // one instance only, as it walks the buckets from the single checkpoint
+                redeployVerticle(BackfillVerticle.class.getName(), new DeploymentOptions()).future()
+        ).compose(v ->
+                // serves scales over http, not deployed at all, unless it's enabled in config
+                config.isHttpEnabled() ?
+                        redeployVerticle(HttpVerticle.class.getName(),
+                                config.getDeploymentOptions(HttpVerticle.class.getSimpleName())).future() :
+                        Future.<Void>succeededFuture()
+        ).compose(v ->
+                redeployVerticle(ApiVerticle.class.getName(),
+                        config.getDeploymentOptions(ApiVerticle.class.getSimpleName())).future()
+        );
+    }
+
+    private Future<Config> fetchConfig() {
+        Promise<Config> promise = Promise.promise();
+        vertx.eventBus().<Config>request(EBA_CONFIG_FETCH, new JsonObject(), configAr -> {
+            if (configAr.failed()) {
+                promise.fail(configAr.cause());
+            } else {
+                promise.complete(configAr.result().body());
             }
-        }).compose(v -> {
-            // When the file is created (fut1), execute this:
-            return redeployVerticle(ScaleVerticle.class.getName(), new JsonObject())
-                    .future().setHandler(
-                            ar -> {
-                                if (ar.failed()) {
-                                    startPromise.fail(ar.cause());
-                                    verror("Setup");
-                                }
-                            });
-        }).compose(v -> {
-            // When the file is created (fut1), execute this:
-            return redeployVerticle(ApiVerticle.class.getName(), new JsonObject())
-                    .future().setHandler(
-                            ar -> {
-                                if (ar.failed()) {
-                                    startPromise.fail(ar.cause());
-                                    verror("Setup");
-                                } else {
-                                    startPromise.complete();
-                                    vsuccess("Setup");
-                                }
-                            });
         });
+
+        return promise.future();
     }
 
-    // Private
-    private Promise<Void> redeployVerticle(String className, JsonObject config) {
+    private void registerCodecs() {
+        try {
+            vertx.eventBus().registerDefaultCodec(Config.class, new ConfigMessageCodec());
+        } catch (IllegalStateException ignored) {
+        }
+    }
+
+    // all the instances of verticle go under one deployment, event bus spreads requests among them
+    private Promise<Void> redeployVerticle(String className, DeploymentOptions options) {
         Promise<Void> completion = Promise.promise();
         removeExistingVerticles(className);
-        DeploymentOptions options = new DeploymentOptions().setConfig(config);
         vertx.deployVerticle(className, options, ar -> {
             if (ar.failed()) {
                 completion.fail(ar.cause());
@@ -73,7 +91,8 @@ public class MainVerticle extends MicroserviceVerticle {
             } else {
                 registerVerticle(className, ar.result());
                 completion.complete();
-                vsuccess("Deploy: " + className);
+                vsuccess("Deploy: " + className + " x" + options.getInstances() +
+                        (options.isWorker() ? ", worker" : ""));
             }
         });
         return completion;
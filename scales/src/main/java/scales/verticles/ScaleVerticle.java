@@ -1,26 +1,40 @@
 package scales.verticles;
 
-import com.hubrick.vertx.s3.client.S3Client;
-import com.hubrick.vertx.s3.client.S3ClientOptions;
-import com.hubrick.vertx.s3.model.request.DeleteObjectRequest;
-import com.hubrick.vertx.s3.model.request.GetObjectRequest;
-import com.hubrick.vertx.s3.model.request.PutObjectRequest;
+import io.netty.buffer.ByteBuf;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
-import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.Message;
 import scales.model.Config;
 import scales.model.ConfigMessageCodec;
+import scales.model.EncodingProfile;
 import scales.model.OriginID;
 import scales.model.OriginIDCodec;
+import scales.storage.DeleteBatcher;
+import scales.storage.ObjectHead;
+import scales.storage.ObjectNotFoundException;
+import scales.storage.ObjectStore;
+import scales.storage.ObjectStores;
+import scales.storage.OriginCache;
+import scales.storage.ScaleCache;
+import scales.utility.ByteBufImageInputStream;
 import scales.utility.ImageResize;
+import scales.utility.InFlight;
+import scales.utility.MemoryBudget;
+import scales.utility.ResizeEngine;
+import scales.utility.ResizeEngines;
+import scales.utility.ResizeWorkers;
+import scales.utility.StreamingImageInputStream;
 import vertx.common.MicroserviceVerticle;
 import io.vertx.core.Promise;
+import io.vertx.core.WorkerExecutor;
 import io.vertx.core.json.JsonObject;
 
 import javax.annotation.Nonnull;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
@@ -35,29 +49,83 @@ public class ScaleVerticle extends MicroserviceVerticle {
 
     static final String EBA_DELETE_ORIGIN = "delete:origin";
     static final String EBA_SCALE_ORIGIN = "put:origin";
+    static final String EBA_RESIZE_STATS = "stats:resize";
+    static final String EBA_CACHE_STATS = "stats:cache";
+    static final String EBA_ORIGIN_CACHE_STATS = "stats:origins";
+    static final String EBA_MEMORY_STATS = "stats:memory";
+    static final String EBA_IN_FLIGHT_STATS = "stats:inflight";
+    // one scale of the original is uploaded, body has that single size
+    static final String EBA_SCALE_SIZE_DONE = "put:origin:size";
 
-    // very sensible data
+    // header of scale requests, that names priority class of ResizeWorkers
+    static final String PRIORITY_HEADER = "priority";
 
-    private static final String ACCESS_KEY = System.getenv("AWS_S3_ACCESS_KEY");
-    private static final String SECRET_KEY = System.getenv("AWS_S3_SECRET_KEY");
+    // how often resize workers and cache stats are published
+
+    private static final long STATS_PERIOD = 10_000;
+
+    // failure of the scaling, that was cancelled by deletion
+    private static final String CANCELLED = "Scaling cancelled";
+    private static final String ORIGINAL_DOWNLOAD_ERROR = "Original download error";
+
+    // failure codes of scale replies, the rest of failures are -1
+    static final int ORIGINAL_NOT_FOUND = 404;
+    // nothing is wrong with the request, it's worth sending again a bit later
+    static final int RESIZE_QUEUE_FULL = 503;
+
+    // names of the objects, shared by all the instances
+
+    static final String SHARED_WORKERS = "resize-workers";
+    private static final String SHARED_CACHE = "scale-cache";
+    private static final String SHARED_ORIGINS = "origin-cache";
+    static final String SHARED_BUDGET = "memory-budget";
+    private static final String SHARED_IN_FLIGHT = "in-flight";
+    private static final String SHARED_STATS_PUBLISHER = "stats-publisher";
+
+    // tells this instance from the others of the same deployment
+    private final String mInstanceID = UUID.randomUUID().toString();
+
+    // scaling requests, that are running on any of the instances
+    private InFlight mInFlight;
 
     // data to be retrieved from config
 
     private String mPhotosBucket;
     private String mUserpicsBucket;
-    private String mRegion = "us-east-2";
     private String mExtension = "jpg";
+    private long mTiledThreshold;
+    private int mStripPixels;
+    private ResizeEngine mEngine = ResizeEngines.DEFAULT;
+    private ResizeWorkers mWorkers;
+    private MemoryBudget mBudget;
     private HashMap<String, Integer> mSizes;
-    private S3Client mS3Client;
+    private HashMap<String, Integer> mEagerSizes;
+    private HashMap<String, EncodingProfile> mProfiles;
+    private ObjectStore mStore;
+    // config the store is created from
+    private Config mStoreConfig;
+    private ScaleCache mCache;
+    private OriginCache mOrigins;
+    private DeleteBatcher mDeletes;
+    // header of the original is read on it, as it may wait for the download
+    private WorkerExecutor mIo;
 
     // Overrides
 
     @Override
     public void start(Promise<Void> startPromise) {
         registerCodecs();
+        setupInFlight();
         setupConfigListener();
         setupConfig(startPromise);
         setupScaleListeners();
+        setupStatsPublisher();
+    }
+
+    @Override
+    public void stop() {
+        SharedResources.release(vertx, SHARED_STATS_PUBLISHER, mInstanceID);
+        if (mIo != null) mIo.close();
     }
 
     // Private
@@ -65,25 +133,140 @@ public class ScaleVerticle extends MicroserviceVerticle {
     private void setupFromConfig(@Nonnull Config config) {
         mPhotosBucket = config.getPhotosBucket();
         mUserpicsBucket = config.getUserpicsBucket();
-        mRegion = config.getRegion();
         mExtension = config.getExtension();
+        mTiledThreshold = config.getTiledThreshold();
+        mStripPixels = config.getStripPixels();
+        setupResizeEngine(config.getResizeEngine());
+        setupResizeWorkers(config.getWorkerPoolSize(), config.getMaxQueued(), config.getPriorityWeights());
+        setupMemoryBudget(config.getMemoryShare());
         mSizes = config.getSizes();
-        mS3Client = setupS3Client();
+        mEagerSizes = config.getEagerSizes();
+        mProfiles = config.getProfiles();
+        if (mIo == null) mIo = ObjectStores.ioExecutor(vertx, config);
+        setupStore(config);
+        setupDeletes(config.getDeleteBatchWindow(), config.getDeleteBatchMaxKeys());
+        setupCache(config);
+        setupOriginCache(config.getOriginCacheMaxBytes());
     }
 
-    private S3Client setupS3Client() throws NullPointerException {
-        if (ACCESS_KEY == null || SECRET_KEY == null || mRegion == null) {
-            verror("Internal error: secret data not settled up");
-            throw new NullPointerException("Environment variables not settled up to it's values!");
+    // the same store while storage config stays the same
+    private void setupStore(@Nonnull Config config) throws NullPointerException {
+        try {
+            mStore = ObjectStores.update(vertx, mStore, mStoreConfig, config);
+            mStoreConfig = config;
+        } catch (NullPointerException | IllegalArgumentException e) {
+            verror("Internal error: storage not settled up, " + e.getMessage());
+            throw e;
         }
+    }
 
-        S3ClientOptions clientOptions = new S3ClientOptions()
-                .setAwsRegion(mRegion)
-                .setAwsServiceName("s3")
-                .setAwsAccessKey(ACCESS_KEY)
-                .setAwsSecretKey(SECRET_KEY);
+    // the same batcher while neither store nor batching changed, keys of the replaced one are sent right away
+    private void setupDeletes(long window, int maxKeys) {
+        if (mDeletes != null && mDeletes.matches(mStore, window, maxKeys)) return;
 
-        return new S3Client(vertx, clientOptions);
+        if (mDeletes != null) mDeletes.flushAll();
+        mDeletes = new DeleteBatcher(vertx, mStore, window, maxKeys);
+    }
+
+    private void setupCache(@Nonnull Config config) {
+        if (!config.isCacheEnabled()) {
+            mCache = null;
+            return;
+        }
+
+        // the same directory can't be indexed by several caches, so instances share one
+        mCache = SharedResources.getOrCreate(vertx, SHARED_CACHE,
+                cache -> cache.matches(config.getCacheDir(), config.getCacheMaxBytes()),
+                () -> {
+                    ScaleCache cache = new ScaleCache(vertx, config.getCacheDir(), config.getCacheMaxBytes());
+                    cache.open().setHandler(ar -> {
+                        if (ar.failed()) {
+                            verror("Scale cache: " + ar.cause().getMessage());
+                        } else {
+                            vinfo("Scale cache: " + cache.stats());
+                        }
+                    });
+                    return cache;
+                },
+                cache -> {
+                });
+    }
+
+    private void setupOriginCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            mOrigins = null;
+            return;
+        }
+
+        mOrigins = SharedResources.getOrCreate(vertx, SHARED_ORIGINS,
+                origins -> origins.getMaxBytes() == maxBytes,
+                () -> new OriginCache(vertx, maxBytes),
+                OriginCache::close);
+    }
+
+    // picking engine may run a self-test, that takes a while,
+    // so it's done on worker and the current engine stays in use until it's done
+    private void setupResizeEngine(String name) {
+        vertx.<ResizeEngine>executeBlocking(promise -> {
+            ResizeEngine engine = ResizeEngines.AUTO.equals(name) ?
+                    ResizeEngines.fastest() : ResizeEngines.byName(name);
+
+            if (engine == null) {
+                promise.fail("Unknown resize engine: " + name);
+            } else {
+                promise.complete(engine);
+            }
+        }, false, ar -> {
+            if (ar.failed()) {
+                verror("Resize engine: " + ar.cause().getMessage());
+                return;
+            }
+
+            mEngine = ar.result();
+            vinfo("Resize engine: " + mEngine.name());
+        });
+    }
+
+    // one pool and one queue limit for all the instances
+    private void setupResizeWorkers(int poolSize, int maxQueued, Map<String, Integer> weights) {
+        mWorkers = SharedResources.getOrCreate(vertx, SHARED_WORKERS,
+                workers -> workers.getPoolSize() == poolSize && workers.getMaxQueued() == maxQueued &&
+                        workers.getWeights().equals(weights),
+                () -> new ResizeWorkers(vertx, poolSize, maxQueued, weights),
+                ResizeWorkers::close);
+    }
+
+    // duplicates of a request may come to any of the instances
+    private void setupInFlight() {
+        mInFlight = SharedResources.getOrCreate(vertx, SHARED_IN_FLIGHT,
+                inFlight -> true,
+                () -> new InFlight(vertx),
+                inFlight -> {
+                });
+    }
+
+    // one heap, so one budget for all the instances
+    private void setupMemoryBudget(double share) {
+        long total = MemoryBudget.ofHeap(share);
+        mBudget = SharedResources.getOrCreate(vertx, SHARED_BUDGET,
+                budget -> budget.getTotal() == total,
+                () -> new MemoryBudget(vertx, total),
+                budget -> {
+                });
+    }
+
+    // publish queue depth and wait times of resize workers, hit ratio of cache,
+    // only one of the instances does, as they share all of these
+    private void setupStatsPublisher() {
+        vertx.setPeriodic(STATS_PERIOD, id -> {
+            if (!SharedResources.tryOwn(vertx, SHARED_STATS_PUBLISHER, mInstanceID)) return;
+
+            if (mWorkers != null) vertx.eventBus().publish(EBA_RESIZE_STATS, mWorkers.stats());
+            if (mCache != null) vertx.eventBus().publish(EBA_CACHE_STATS, mCache.stats());
+            if (mOrigins != null) vertx.eventBus().publish(EBA_ORIGIN_CACHE_STATS, mOrigins.stats());
+            if (mBudget != null) vertx.eventBus().publish(EBA_MEMORY_STATS, mBudget.stats());
+            vertx.eventBus().publish(EBA_IN_FLIGHT_STATS, mInFlight.stats());
+        });
     }
 
     private void registerCodecs() {
@@ -97,25 +280,20 @@ public class ScaleVerticle extends MicroserviceVerticle {
         }
     }
 
-    // finish.reply() after all proms have been successfully completed
-    private void finishAfterAll(ArrayList<Promise<Void>> proms, Message<OriginID> finish) {
-        CompositeFuture.all(proms
+    // completes after all proms have been successfully completed
+    private Future<Void> afterAll(ArrayList<Promise<Void>> proms) {
+        return CompositeFuture.all(proms
                 .stream()
                 .map(Promise::future)
                 .collect(Collectors.toList())
-        ).setHandler(ar -> {
-            if (ar.succeeded()) {
-                finish.reply("");
-            } else {
-                finish.fail(-1, ar.cause().getMessage());
-            }
-        });
+        ).mapEmpty();
     }
 
-    // call some S3 request on data from iteration of Sizes
+    // call some storage request on data from iteration of sizes
     // and promise to complete after all the job on this iteration is done
-    private ArrayList<Promise<Void>> forEachInSizes(ThreeArgumentFunction<String, Integer, Promise<Void>> S3request) {
-        Iterator it = mSizes.entrySet().iterator();
+    private ArrayList<Promise<Void>> forEachInSizes(HashMap<String, Integer> sizes,
+                                                    ThreeArgumentFunction<String, Integer, Promise<Void>> request) {
+        Iterator it = sizes.entrySet().iterator();
         ArrayList<Promise<Void>> proms = new ArrayList<>();
 
         while (it.hasNext()) {
@@ -123,7 +301,7 @@ public class ScaleVerticle extends MicroserviceVerticle {
             // create new promise for this task
             Promise<Void> current = Promise.promise();
 
-            S3request.apply((String) pair.getKey(), (Integer) pair.getValue(), current);
+            request.apply((String) pair.getKey(), (Integer) pair.getValue(), current);
 
             proms.add(current);
         }
@@ -136,99 +314,333 @@ public class ScaleVerticle extends MicroserviceVerticle {
         void apply(One one, Two two, Three three);
     }
 
-    // delete scales from S3
+    // delete scales from storage, together with scales of other requests, that come about the same time,
+    // scaling of the photo, that is still running, is cancelled and deletion waits for it to stop
     private void deletionHandler(String photoID, String bucketName, Message<OriginID> finish) {
-        ArrayList<Promise<Void>> proms = forEachInSizes(
-                (sizeName, width, current) -> {
-                    String scaleName = String.join(".", photoID, sizeName);
-                    mS3Client.deleteObject(
-                            bucketName,
-                            scaleName,
-                            new DeleteObjectRequest(),
-                            response -> {
-                                vinfo("AWS | Deleting " + scaleName);
-                                // complete one of the promises
-                                current.complete();
-                            },
-                            err -> finish.fail(-1, "Deletion error")
-                    );
-                });
+        if (mOrigins != null) mOrigins.invalidate(bucketName, photoID);
+
+        mInFlight.cancel(origin(bucketName, photoID)).setHandler(cancelAr -> deleteScales(photoID, bucketName, finish));
+    }
+
+    private void deleteScales(String photoID, String bucketName, Message<OriginID> finish) {
+        List<String> scaleNames = mSizes.keySet()
+                .stream()
+                .map(sizeName -> String.join(".", photoID, sizeName))
+                .collect(Collectors.toList());
+
+        mDeletes.delete(bucketName, scaleNames).setHandler(ar -> {
+            if (ar.failed()) {
+                finish.fail(-1, "Deletion error");
+                return;
+            }
 
-        finishAfterAll(proms, finish);
+            vinfo("Storage | Deleting " + scaleNames);
+            finish.reply("");
+        });
     }
 
-    private Future<Buffer> executeResize(Buffer originImg, int width) {
-        Promise<Buffer> result = Promise.promise();
+    // decode origin once and resize it to all of the sizes, then encode every size as a job of it's own,
+    // the smallest first, so that small scales come out before the big ones are even started.
+    // Completes once resizing is done, maps size name to it's encoded scale,
+    // which is pooled buffer to be released after upload.
+    // Decoding starts only once memory budget has room for the original and it's scales,
+    // as told by image header, and the room is given back after the last scale is encoded.
+    // Jobs, that are not started by the time scaling is cancelled, fail right away
+    private Future<HashMap<String, Future<ByteBuf>>> executeResize(ImageInputStream originImg,
+                                                                   HashMap<String, Integer> sizes,
+                                                                   HashMap<String, EncodingProfile> profiles,
+                                                                   String priority, BooleanSupplier cancelled) {
+        String[] names = sizes.keySet().toArray(new String[0]);
+        int[] widths = Arrays.stream(names).mapToInt(sizes::get).toArray();
+        ResizeEngine engine = mEngine;
+        long tiledThreshold = mTiledThreshold;
+        int stripPixels = mStripPixels;
+        ResizeWorkers workers = mWorkers;
+        MemoryBudget budget = mBudget;
+
+        // header of the original may still be on it's way, so it's read on storage io pool
+        Promise<Long> footprint = Promise.promise();
+        mIo.<Long>executeBlocking(promise -> {
+            try {
+                promise.complete(ImageResize.estimateFootprint(originImg, widths, tiledThreshold, stripPixels));
+            } catch (IOException e) {
+                promise.fail("Scaling error");
+            }
+        }, false, footprint);
+
+        Future<Long> taken = footprint.future().compose(budget::acquire);
+
+        Future<BufferedImage[]> resized = taken.compose(bytes -> workers.<BufferedImage[]>execute(priority, promise -> {
+            if (cancelled.getAsBoolean()) {
+                promise.fail(CANCELLED);
+                return;
+            }
 
-        getVertx().executeBlocking(blockingPromise -> {
             try {
-                Buffer scaledImg = ImageResize.bufferResizeToWidth(originImg, width, mExtension);
-                result.complete(scaledImg);
+                promise.complete(ImageResize.resizeImages(originImg, widths, engine, tiledThreshold, stripPixels));
             } catch (IOException e) {
-                result.fail("Scaling error");
+                promise.fail("Scaling error");
             }
-            blockingPromise.complete();
-        }, res -> {
+        }).recover(err -> {
+            budget.release(bytes);
+            return Future.failedFuture(err);
+        }));
+
+        return resized.map(images -> {
+            Integer[] order = new Integer[names.length];
+            Arrays.setAll(order, i -> i);
+            Arrays.sort(order, Comparator.comparingInt(i -> widths[i]));
+
+            // scales are no longer in memory once encoded, whether encoding succeeded or not
+            int[] encoding = {order.length};
+            if (order.length == 0) budget.release(taken.result());
+            HashMap<String, Future<ByteBuf>> scales = new HashMap<>();
+            for (int k = 0; k < order.length; k++) {
+                BufferedImage image = images[order[k]];
+                EncodingProfile profile = profiles.get(names[order[k]]);
+                // the smallest scale of bulk work gets ahead of the rest of it
+                String encodingPriority = k == 0 && ResizeWorkers.BULK.equals(priority) ?
+                        ResizeWorkers.SMALL : priority;
+
+                Promise<ByteBuf> scale = Promise.promise();
+                workers.<ByteBuf>execute(encodingPriority, promise -> {
+                    if (cancelled.getAsBoolean()) {
+                        promise.fail(CANCELLED);
+                        return;
+                    }
+
+                    try {
+                        promise.complete(ImageResize.imageToByteBuf(image, profile));
+                    } catch (IOException e) {
+                        promise.fail("Scaling error");
+                    }
+                }).setHandler(ar -> {
+                    if (--encoding[0] == 0) budget.release(taken.result());
+                    scale.handle(ar);
+                });
+                scales.put(names[order[k]], scale.future());
+            }
+            return scales;
         });
+    }
 
-        return result.future();
+    // download original image from storage and start scaling it right away,
+    // decoding goes on worker while the rest of original is still being downloaded;
+    // recently downloaded original of the same ETag is taken from memory instead, head is null if not taken
+    private Future<HashMap<String, Future<ByteBuf>>> scalesFromOrigin(String bucketName, String photoID, ObjectHead head,
+                                                                      HashMap<String, Integer> sizes,
+                                                                      HashMap<String, EncodingProfile> profiles,
+                                                                      String priority, BooleanSupplier cancelled) {
+        String eTag = head == null ? null : head.getETag();
+        OriginCache origins = eTag == null ? null : mOrigins;
+        ByteBuf cached = origins == null ? null : origins.get(bucketName, photoID, eTag);
+        if (cached != null) {
+            vinfo("Cache | Original " + photoID);
+            Promise<HashMap<String, Future<ByteBuf>>> promise = Promise.promise();
+            ImageInputStream cachedImg = new ByteBufImageInputStream(cached);
+            executeResize(cachedImg, sizes, profiles, priority, cancelled).setHandler(ar -> {
+                closeQuietly(cachedImg);
+                cached.release();
+                promise.handle(ar);
+            });
+
+            return promise.future();
+        }
+
+        Promise<HashMap<String, Future<ByteBuf>>> promise = Promise.promise();
+        mStore.get(bucketName, photoID, head).setHandler(downloadAr -> {
+            if (downloadAr.failed()) {
+                promise.handle(originalError(downloadAr.cause()));
+                return;
+            }
+
+            ImageInputStream originImg = downloadAr.result();
+            executeResize(originImg, sizes, profiles, priority, cancelled).setHandler(ar -> {
+                // only the streamed originals, that are read to the end by now: S3 downloads and small local files;
+                // big local files are mmapped, they are in page cache already and a copy would only take memory
+                if (ar.succeeded() && origins != null && originImg instanceof StreamingImageInputStream &&
+                        ((StreamingImageInputStream) originImg).isEnded()) {
+                    origins.put(bucketName, photoID, eTag, ((StreamingImageInputStream) originImg).getBuffer());
+                }
+                // cache took it's own copy, e.g. file of the local store is let go here
+                closeQuietly(originImg);
+                promise.handle(ar);
+            });
+            vinfo("Storage | Downloading " + photoID);
+        });
+
+        return promise.future();
     }
 
-    // scale buffer and upload it's scales to S3
-    private void uploadScaleFromBuffer(Buffer originImg, String bucketName, String photoID, Message<OriginID> finish) {
-        ArrayList<Promise<Void>> proms = forEachInSizes(
+    // take the scales, that are there, from cache, scale the rest from original and cache them
+    private Future<HashMap<String, Future<ByteBuf>>> cachedScales(String bucketName, String photoID,
+                                                                  HashMap<String, Integer> sizes,
+                                                                  HashMap<String, EncodingProfile> profiles,
+                                                                  String priority, BooleanSupplier cancelled) {
+        ScaleCache cache = mCache;
+        if (cache == null && mOrigins == null) {
+            return scalesFromOrigin(bucketName, photoID, null, sizes, profiles, priority, cancelled);
+        }
+
+        // the same head serves ETag here and length of the download
+        Future<ObjectHead> head = mStore.head(bucketName, photoID)
+                .recover(ScaleVerticle::originalError);
+
+        return head.compose(found -> {
+            String tag = found.getETag();
+            if (tag == null || cache == null) {
+                return scalesFromOrigin(bucketName, photoID, found, sizes, profiles, priority, cancelled);
+            }
+
+            HashMap<String, String> keys = new HashMap<>();
+            sizes.forEach((sizeName, width) -> keys.put(sizeName, ScaleCache.key(tag, width, profiles.get(sizeName))));
+
+            return cache.getAll(keys).compose(hits -> {
+                HashMap<String, Future<ByteBuf>> scales = new HashMap<>();
+                hits.forEach((sizeName, scale) -> scales.put(sizeName, Future.succeededFuture(scale)));
+
+                HashMap<String, Integer> misses = new HashMap<>(sizes);
+                misses.keySet().removeAll(hits.keySet());
+                if (misses.isEmpty()) {
+                    vinfo("Cache | All scales of " + photoID);
+                    return Future.succeededFuture(scales);
+                }
+
+                Promise<HashMap<String, Future<ByteBuf>>> promise = Promise.promise();
+                scalesFromOrigin(bucketName, photoID, found, misses, profiles, priority, cancelled).setHandler(scalingAr -> {
+                    if (scalingAr.failed()) {
+                        hits.values().forEach(ByteBuf::release);
+                        promise.fail(scalingAr.cause());
+                        return;
+                    }
+
+                    scalingAr.result().forEach((sizeName, scale) -> scales.put(sizeName, scale.map(encoded -> {
+                        cache.put(keys.get(sizeName), encoded.retainedDuplicate());
+                        return encoded;
+                    })));
+                    promise.complete(scales);
+                });
+
+                return promise.future();
+            });
+        });
+    }
+
+    // upload every scale to storage as soon as it's encoded, each of them is released after upload,
+    // and tell about every one of them on their own; scales, that come after cancellation, are not uploaded
+    private Future<Void> uploadScales(HashMap<String, Integer> sizes, HashMap<String, Future<ByteBuf>> scales,
+                                      String bucketName, OriginID origin, BooleanSupplier cancelled) {
+        ArrayList<Promise<Void>> proms = forEachInSizes(sizes,
                 (sizeName, width, current) -> {
-                    String scaleName = String.join(".", photoID, sizeName);
-
-                    executeResize(originImg, width).setHandler(scalingAr ->
-                            mS3Client.putObject(
-                                    bucketName, scaleName,
-                                    new PutObjectRequest(scalingAr.result()),
-                                    putResponse -> {
-                                        current.complete();
-                                        vinfo("AWS | Scaling " + scaleName);
-                                    },
-                                    err -> finish.fail(-1, "Scaling error")
-                            ));
+                    String scaleName = String.join(".", origin.getID(), sizeName);
+
+                    // big scales go as multipart upload
+                    scales.get(sizeName)
+                            .compose(scale -> {
+                                if (cancelled.getAsBoolean()) {
+                                    scale.release();
+                                    return Future.failedFuture(CANCELLED);
+                                }
+                                return mStore.put(bucketName, scaleName, scale);
+                            })
+                            .setHandler(putAr -> {
+                                if (putAr.failed()) {
+                                    current.fail(cancelled.getAsBoolean() ? CANCELLED :
+                                            isResizeRejected(putAr.cause()) ? putAr.cause().getMessage() :
+                                                    "Scaling error");
+                                    return;
+                                }
+
+                                current.complete();
+                                vinfo("Storage | Scaling " + scaleName);
+                                vertx.eventBus().send(EBA_SCALE_SIZE_DONE,
+                                        new OriginID(origin.getID(), origin.getType(), List.of(sizeName)));
+                            });
                 });
 
-        finishAfterAll(proms, finish);
-    }
-
-    // download original image from S3
-    // and call `uploadScaleFromBuffer` on it's buffer
-    private void scalingHandler(String photoID, String bucketName, Message<OriginID> finish) {
-        Buffer img = Buffer.buffer();
-        mS3Client.getObject(
-                bucketName,
-                photoID,
-                new GetObjectRequest(),
-                // get original photo, scale and put it's scales to s3
-                getResponse -> {
-                    getResponse.getData().handler(img::appendBuffer);
-                    getResponse.getData().endHandler(
-                            ar -> uploadScaleFromBuffer(img, bucketName, photoID, finish)
-                    );
-                    vinfo("AWS | Downloading " + photoID);
-                },
-                err -> finish.fail(-1, "Original download error")
-        );
+        return afterAll(proms);
+    }
+
+    // get scales of original photo, from cache or by scaling it, and put them to storage
+    private void scalingHandler(OriginID origin, String bucketName, String priority, Message<OriginID> finish) {
+        // sizes may be swapped by config update in the middle of the job,
+        // lazy ones are scaled only when asked for explicitly
+        List<String> onlySizes = origin.getSizes();
+        HashMap<String, Integer> sizes = new HashMap<>(onlySizes == null ? mEagerSizes : mSizes);
+        if (onlySizes != null) sizes.keySet().retainAll(onlySizes);
+        HashMap<String, EncodingProfile> profiles = mProfiles;
+
+        // duplicate of the request, that is still running, gets it's result instead of scaling once again
+        String photo = origin(bucketName, origin.getID());
+        String key = String.join("/", photo, String.join(",", new TreeSet<>(sizes.keySet())));
+
+        mInFlight.run(photo, key, operation ->
+                cachedScales(bucketName, origin.getID(), sizes, profiles, priority, operation::isCancelled)
+                        .compose(scales -> uploadScales(sizes, scales, bucketName, origin, operation::isCancelled))
+        ).setHandler(scalingAr -> {
+            if (scalingAr.failed()) {
+                verror("Scaling " + origin.getID() + " | " + scalingAr.cause().getMessage());
+                finish.fail(failureCode(scalingAr.cause()), scalingAr.cause().getMessage());
+                return;
+            }
+
+            finish.reply("");
+        });
+    }
+
+    // missing original is told apart from the rest of storage failures
+    private static <T> Future<T> originalError(Throwable err) {
+        return err instanceof ObjectNotFoundException ? Future.failedFuture(err) :
+                Future.failedFuture(ORIGINAL_DOWNLOAD_ERROR);
+    }
+
+    // missing original and full resize queue are told apart from the rest of failures
+    private static int failureCode(Throwable err) {
+        if (err instanceof ObjectNotFoundException) return ORIGINAL_NOT_FOUND;
+        if (isResizeRejected(err)) return RESIZE_QUEUE_FULL;
+        return -1;
+    }
+
+    // pool, that is replaced by config update, takes nothing new, the request is for the new one then
+    private static boolean isResizeRejected(Throwable err) {
+        return ResizeWorkers.QUEUE_FULL.equals(err.getMessage()) || ResizeWorkers.CLOSED.equals(err.getMessage());
+    }
+
+    // scaling is over with the original, nothing to do if closing fails
+    private static void closeQuietly(ImageInputStream img) {
+        try {
+            img.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    // all the scaling requests of one photo
+    private static String origin(String bucketName, String photoID) {
+        return String.join("/", bucketName, photoID);
+    }
+
+    // priority class asked for by the sender, otherwise userpics go ahead of photos
+    private static String priority(Message<OriginID> message) {
+        String priority = message.headers().get(PRIORITY_HEADER);
+        if (priority != null) return priority;
 
+        return message.body().getType() == OriginID.photoType.USERPIC ? ResizeWorkers.USERPIC : ResizeWorkers.BULK;
     }
 
     // setup all listeners
     private void setupScaleListeners() {
-        // get from s3, resize and put scales to s3
+        // get from storage, resize and put scales to storage
         vertx.eventBus().<OriginID>consumer(EBA_SCALE_ORIGIN, handler -> {
             OriginID url = handler.body();
             final String currentBucket = url.getType() == OriginID.photoType.USERPIC ?
                     mUserpicsBucket : mPhotosBucket;
 
-            scalingHandler(url.getID(), currentBucket, handler);
+            scalingHandler(url, currentBucket, priority(handler), handler);
         });
 
 
-        // remove scales from s3
+        // remove scales from storage
         vertx.eventBus().<OriginID>consumer(EBA_DELETE_ORIGIN, handler -> {
             OriginID url = handler.body();
             final String currentBucket = url.getType() == OriginID.photoType.USERPIC ?
@@ -0,0 +1,70 @@
+package scales.verticles;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Objects shared by all the instances of a verticle within this vertx, e.g. resize pool or caches,
+ * so that running several instances doesn't multiply them
+ */
+final class SharedResources {
+
+    // Constants
+
+    private static final String MAP = "scales.shared";
+
+    // replaced resources are closed after this, so that instances, that didn't get config update yet, finish with them
+    private static final long CLOSE_DELAY = 10_000;
+
+    // Constructors
+
+    private SharedResources() {
+    }
+
+    // Public
+
+    // the resource under name, if it fits, otherwise the newly created one, that replaces it
+    static <T extends Shareable> T getOrCreate(Vertx vertx, String name, Predicate<T> fits,
+                                               Supplier<T> create, Consumer<T> close) {
+        LocalMap<String, T> shared = vertx.sharedData().getLocalMap(MAP);
+        Object[] replaced = new Object[1];
+
+        T resource = shared.compute(name, (key, current) -> {
+            if (current != null && fits.test(current)) return current;
+
+            replaced[0] = current;
+            return create.get();
+        });
+
+        if (replaced[0] != null) {
+            @SuppressWarnings("unchecked")
+            T old = (T) replaced[0];
+            vertx.setTimer(CLOSE_DELAY, id -> close.accept(old));
+        }
+
+        return resource;
+    }
+
+    // the resource under name, null if there's none yet
+    static <T extends Shareable> T get(Vertx vertx, String name) {
+        LocalMap<String, T> shared = vertx.sharedData().getLocalMap(MAP);
+        return shared.get(name);
+    }
+
+    // true for exactly one of the callers, until the owner releases it, e.g. to publish stats only once
+    static boolean tryOwn(Vertx vertx, String name, String owner) {
+        LocalMap<String, String> shared = vertx.sharedData().getLocalMap(MAP);
+        String current = shared.putIfAbsent(name, owner);
+        return current == null || current.equals(owner);
+    }
+
+    static void release(Vertx vertx, String name, String owner) {
+        LocalMap<String, String> shared = vertx.sharedData().getLocalMap(MAP);
+        shared.removeIfPresent(name, owner);
+    }
+}
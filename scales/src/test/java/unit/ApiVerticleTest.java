@@ -0,0 +1,468 @@
+package unit;
+
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.kafka.client.producer.KafkaProducer;
+import io.vertx.junit5.VertxExtension;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import scales.model.Config;
+import scales.model.OriginID;
+import scales.utility.MemoryBudget;
+import scales.utility.ResizeWorkers;
+import scales.verticles.ApiVerticle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
+
+@ExtendWith(VertxExtension.class)
+class ApiVerticleTest {
+
+    // addresses of ScaleVerticle, the verticle under test talks to
+    private static final String EBA_SCALE_ORIGIN = "put:origin";
+
+    private static final String mTopic = "photosTopic";
+    private static final TopicPartition mPartition = new TopicPartition(mTopic, 0);
+    private static final long mTimeout = 10;
+
+    // once the resize queue is half full, the rest of the poll is left for later and read again after resume
+    @Test
+    void resizeQueueDepthPausesConsumer(Vertx vertx) throws Exception {
+        LogConsumer consumer = new LogConsumer();
+        SagasProducer sagas = new SagasProducer();
+        AtomicInteger queued = new AtomicInteger(2);
+        List<String> requests = new CopyOnWriteArrayList<>();
+
+        vertx.eventBus().<Object>consumer(EBA_SCALE_ORIGIN, message -> {
+            requests.add(message.body().toString());
+            message.reply(new JsonObject());
+        });
+        deploy(vertx, consumer, sagas, queued, new JsonObject());
+
+        consumer.assign(mPartition);
+        Future<Set<TopicPartition>> paused = consumer.nextPause();
+        consumer.append(mPartition, "put:a", "put:b", "put:c");
+
+        assertTrue(paused.get(mTimeout, TimeUnit.SECONDS).contains(mPartition));
+        // nothing but the record, that tipped the queue over, is dispatched
+        assertTrue(requests.size() <= 1);
+
+        queued.set(0);
+        consumer.committed(mPartition, 3).get(mTimeout, TimeUnit.SECONDS);
+        assertEquals(3, requests.size());
+        assertEquals(List.of("ok:a", "ok:b", "ok:c"), sagas.take(3));
+    }
+
+    // partition, that has it's window in flight, gets nothing more of the poll,
+    // the rest is read again once the partition is resumed by a completed record
+    @Test
+    void partitionWindowStopsDispatch(Vertx vertx) throws Exception {
+        LogConsumer consumer = new LogConsumer();
+        SagasProducer sagas = new SagasProducer();
+        BlockingQueue<Message<Object>> held = new LinkedBlockingQueue<>();
+
+        vertx.eventBus().<Object>consumer(EBA_SCALE_ORIGIN, held::add);
+        deploy(vertx, consumer, sagas, new AtomicInteger(), new JsonObject()
+                .put("maxInFlightPerPartition", 2));
+
+        consumer.assign(mPartition);
+        Future<Set<TopicPartition>> paused = consumer.nextPause();
+        consumer.append(mPartition, "put:a", "put:b", "put:c", "put:d", "put:e");
+
+        assertTrue(paused.get(mTimeout, TimeUnit.SECONDS).contains(mPartition));
+        ArrayDeque<Message<Object>> inFlight = new ArrayDeque<>();
+        inFlight.add(held.poll(mTimeout, TimeUnit.SECONDS));
+        inFlight.add(held.poll(mTimeout, TimeUnit.SECONDS));
+        assertEquals(List.of("a", "b"), photoIDs(inFlight));
+        assertNull(held.poll(300, TimeUnit.MILLISECONDS));
+
+        // every record done lets exactly the next one in
+        for (String next : List.of("c", "d", "e")) {
+            Message<Object> done = inFlight.poll();
+            vertx.runOnContext(v -> done.reply(new JsonObject()));
+            inFlight.add(held.poll(mTimeout, TimeUnit.SECONDS));
+            assertEquals(next, photoIDs(inFlight).get(1));
+            assertNull(held.poll(100, TimeUnit.MILLISECONDS));
+        }
+
+        vertx.runOnContext(v -> inFlight.forEach(message -> message.reply(new JsonObject())));
+        consumer.committed(mPartition, 5).get(mTimeout, TimeUnit.SECONDS);
+        assertEquals(List.of("ok:a", "ok:b", "ok:c", "ok:d", "ok:e"), sagas.take(5));
+    }
+
+    // request, that the resize queue had no room for, is sent again instead of being reported as failed
+    @Test
+    void fullResizeQueueIsRetried(Vertx vertx) throws Exception {
+        LogConsumer consumer = new LogConsumer();
+        SagasProducer sagas = new SagasProducer();
+        AtomicInteger attempts = new AtomicInteger();
+
+        vertx.eventBus().<Object>consumer(EBA_SCALE_ORIGIN, message -> {
+            if (attempts.incrementAndGet() == 1) {
+                message.fail(503, ResizeWorkers.QUEUE_FULL);
+            } else {
+                message.reply(new JsonObject());
+            }
+        });
+        deploy(vertx, consumer, sagas, new AtomicInteger(), new JsonObject());
+
+        consumer.assign(mPartition);
+        consumer.append(mPartition, "put:a");
+
+        consumer.committed(mPartition, 1).get(mTimeout, TimeUnit.SECONDS);
+        assertEquals(2, attempts.get());
+        // the failed attempt is not reported
+        assertEquals(List.of("ok:a"), sagas.take(1));
+    }
+
+    // status batch is cut, once it's UTF-8 bytes fill the producer batch, the window isn't waited for
+    @Test
+    void statusBatchIsLimitedInBytes(Vertx vertx) throws Exception {
+        LogConsumer consumer = new LogConsumer();
+        SagasProducer sagas = new SagasProducer();
+        vertx.eventBus().<Object>consumer(EBA_SCALE_ORIGIN, message -> message.reply(new JsonObject()));
+
+        // status of a cyrillic ID takes 2 bytes for every letter, two of them with line ends fill the batch,
+        // though there are fewer chars than that
+        String photo = "\u0444\u043e\u0442\u043e";
+        String status = "photo-scale:put:ok:" + photo + "-1";
+        int batchSize = 2 * (status.getBytes(StandardCharsets.UTF_8).length + 1);
+        assertTrue(2 * (status.length() + 1) < batchSize);
+        deploy(vertx, consumer, sagas, new AtomicInteger(), new JsonObject().put("producer", new JsonObject()
+                .put("aggregateWindowMs", 60_000)
+                .put("batchSize", batchSize)));
+
+        consumer.assign(mPartition);
+        consumer.append(mPartition, "put:" + photo + "-1", "put:" + photo + "-2");
+
+        assertEquals(List.of("ok:" + photo + "-1", "ok:" + photo + "-2"), sagas.take(2));
+        assertEquals(1, sagas.history().size());
+    }
+
+    // statuses, that wait for their window, are sent once the verticle stops
+    @Test
+    void stopFlushesStatuses(Vertx vertx) throws Exception {
+        LogConsumer consumer = new LogConsumer();
+        SagasProducer sagas = new SagasProducer();
+        vertx.eventBus().<Object>consumer(EBA_SCALE_ORIGIN, message -> message.reply(new JsonObject()));
+        String deployment = deploy(vertx, consumer, sagas, new AtomicInteger(), new JsonObject()
+                .put("producer", new JsonObject().put("aggregateWindowMs", 60_000)));
+
+        consumer.assign(mPartition);
+        consumer.append(mPartition, "put:a");
+        consumer.committed(mPartition, 1).get(mTimeout, TimeUnit.SECONDS);
+        assertTrue(sagas.history().isEmpty());
+
+        Promise<Void> undeployed = Promise.promise();
+        vertx.undeploy(deployment, undeployed);
+        Fixtures.await(undeployed.future());
+        assertEquals(List.of("ok:a"), sagas.take(1));
+        // closed after the flushed status is sent
+        sagas.mClosed.get(mTimeout, TimeUnit.SECONDS);
+    }
+
+    // revoked partition's requests in flight are waited for, and the done ones are committed before it goes
+    @Test
+    void revokeCommitsDoneRecords(Vertx vertx) throws Exception {
+        LogConsumer consumer = new LogConsumer();
+        BlockingQueue<Message<Object>> held = new LinkedBlockingQueue<>();
+
+        vertx.eventBus().<Object>consumer(EBA_SCALE_ORIGIN, held::add);
+        // nothing is committed but on revocation
+        deploy(vertx, consumer, new SagasProducer(), new AtomicInteger(), new JsonObject()
+                .put("commitIntervalMs", 60_000));
+
+        consumer.assign(mPartition);
+        consumer.append(mPartition, "put:a", "put:b");
+        Message<Object> a = held.poll(mTimeout, TimeUnit.SECONDS);
+        Message<Object> b = held.poll(mTimeout, TimeUnit.SECONDS);
+        vertx.runOnContext(v -> b.reply(new JsonObject()));
+
+        consumer.revoke(mPartition).get(mTimeout, TimeUnit.SECONDS);
+        vertx.runOnContext(v -> a.reply(new JsonObject()));
+        consumer.committed(mPartition, 2).get(mTimeout, TimeUnit.SECONDS);
+    }
+
+    // request, that is still in flight once time is up, is left for the next owner along with the ones after it
+    @Test
+    void revokeWaitsNoLongerThanTimeout(Vertx vertx) throws Exception {
+        LogConsumer consumer = new LogConsumer();
+        BlockingQueue<Message<Object>> held = new LinkedBlockingQueue<>();
+
+        vertx.eventBus().<Object>consumer(EBA_SCALE_ORIGIN, held::add);
+        deploy(vertx, consumer, new SagasProducer(), new AtomicInteger(), new JsonObject()
+                .put("commitIntervalMs", 60_000)
+                .put("revokeTimeoutMs", 200));
+
+        consumer.assign(mPartition);
+        consumer.append(mPartition, "put:a", "put:b", "put:c");
+        Message<Object> a = held.poll(mTimeout, TimeUnit.SECONDS);
+        held.poll(mTimeout, TimeUnit.SECONDS);
+        Message<Object> c = held.poll(mTimeout, TimeUnit.SECONDS);
+        // the second one is never done
+        vertx.runOnContext(v -> {
+            a.reply(new JsonObject());
+            c.reply(new JsonObject());
+        });
+
+        consumer.revoke(mPartition).get(mTimeout, TimeUnit.SECONDS);
+        consumer.committed(mPartition, 1).get(mTimeout, TimeUnit.SECONDS);
+        assertEquals(1, consumer.lastCommitted(mPartition));
+    }
+
+    private static List<String> photoIDs(Collection<Message<Object>> messages) {
+        List<String> photoIDs = new ArrayList<>();
+        messages.forEach(message -> photoIDs.add(((OriginID) message.body()).getID()));
+        return photoIDs;
+    }
+
+    // statuses go right away, unless kafka overrides say otherwise
+    private static String deploy(Vertx vertx, LogConsumer consumer, SagasProducer sagas, AtomicInteger queued,
+                                 JsonObject kafka) throws Exception {
+        JsonObject json = readConfig();
+        json.getJsonObject("kafka").put("commitIntervalMs", 50);
+        json.getJsonObject("kafka").getJsonObject("producer").put("aggregateWindowMs", 0);
+        json.getJsonObject("kafka").mergeIn(kafka, true);
+        Config config = new Config(json);
+        vertx.eventBus().consumer(EBA_CONFIG_FETCH, message -> message.reply(config));
+
+        // queue depth is set by the test, nothing is ever run on the pool
+        ResizeWorkers workers = new ResizeWorkers(vertx, 1, 4) {
+            @Override
+            public int getQueued() {
+                return queued.get();
+            }
+        };
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new TestApiVerticle(consumer, sagas, workers, new MemoryBudget(vertx, 100)), ar -> {
+            if (ar.succeeded()) {
+                deployed.complete(ar.result());
+            } else {
+                deployed.completeExceptionally(ar.cause());
+            }
+        });
+        return deployed.get(mTimeout, TimeUnit.SECONDS);
+    }
+
+    private static JsonObject readConfig() throws IOException {
+        try (InputStream in = ApiVerticleTest.class.getResourceAsStream("/conf/config.json")) {
+            return new JsonObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    // kafka clients and resources of scale verticles are the test's ones
+    private static class TestApiVerticle extends ApiVerticle {
+
+        private final LogConsumer mConsumer;
+        private final SagasProducer mSagas;
+        private final ResizeWorkers mWorkers;
+        private final MemoryBudget mBudget;
+
+        TestApiVerticle(LogConsumer consumer, SagasProducer sagas, ResizeWorkers workers, MemoryBudget budget) {
+            mConsumer = consumer;
+            mSagas = sagas;
+            mWorkers = workers;
+            mBudget = budget;
+        }
+
+        @Override
+        protected Consumer<String, String> createConsumer(Map<String, String> config,
+                                                          ConsumerRebalanceListener listener) {
+            mConsumer.mVerticleListener = listener;
+            return mConsumer;
+        }
+
+        @Override
+        protected KafkaProducer<String, String> createSagasProducer(String name, Map<String, String> config) {
+            return KafkaProducer.create(vertx, mSagas);
+        }
+
+        @Override
+        protected ResizeWorkers resizeWorkers() {
+            return mWorkers;
+        }
+
+        @Override
+        protected MemoryBudget memoryBudget() {
+            return mBudget;
+        }
+    }
+
+    // mock consumer drops records after every poll, this one keeps them all, like a real log,
+    // so that records are read again after seek, and tells rebalance listeners about assignments,
+    // the one of the verticle goes first, like it does with the real consumer
+    static class LogConsumer extends MockConsumer<String, String> {
+
+        private final List<ConsumerRecord<String, String>> mLog = new ArrayList<>();
+        private final Map<TopicPartition, Long> mEnds = new HashMap<>();
+        // mock one forgets commits of partitions, that are not assigned
+        private final Map<TopicPartition, Long> mCommitted = new HashMap<>();
+        private final Map<CompletableFuture<Void>, Map.Entry<TopicPartition, Long>> mCommitWaiters = new HashMap<>();
+        private CompletableFuture<Set<TopicPartition>> mPauseWaiter;
+        private ConsumerRebalanceListener mVerticleListener;
+        private ConsumerRebalanceListener mListener;
+
+        LogConsumer() {
+            super(OffsetResetStrategy.EARLIEST);
+        }
+
+        // partition is assigned on the next poll, the way group coordinator does it
+        synchronized void assign(TopicPartition partition) {
+            updateBeginningOffsets(Map.of(partition, 0L));
+            schedulePollTask(() -> {
+                rebalance(List.of(partition));
+                mVerticleListener.onPartitionsAssigned(List.of(partition));
+                mListener.onPartitionsAssigned(List.of(partition));
+            });
+        }
+
+        // partition is taken away on the next poll, the returned future is done, as soon as revocation starts
+        synchronized Future<Void> revoke(TopicPartition partition) {
+            CompletableFuture<Void> revoking = new CompletableFuture<>();
+            schedulePollTask(() -> {
+                revoking.complete(null);
+                mVerticleListener.onPartitionsRevoked(List.of(partition));
+                mListener.onPartitionsRevoked(List.of(partition));
+                rebalance(List.of());
+            });
+            return revoking;
+        }
+
+        synchronized void append(TopicPartition partition, String... values) {
+            for (String value : values) {
+                long offset = mEnds.merge(partition, 1L, Long::sum) - 1;
+                mLog.add(new ConsumerRecord<>(partition.topic(), partition.partition(), offset, null, value));
+            }
+        }
+
+        // the next pause of any partition
+        synchronized Future<Set<TopicPartition>> nextPause() {
+            mPauseWaiter = new CompletableFuture<>();
+            return mPauseWaiter;
+        }
+
+        // once the offset of the partition is committed
+        synchronized Future<Void> committed(TopicPartition partition, long offset) {
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            mCommitWaiters.put(waiter, Map.entry(partition, offset));
+            checkCommitWaiters();
+            return waiter;
+        }
+
+        synchronized long lastCommitted(TopicPartition partition) {
+            return mCommitted.getOrDefault(partition, -1L);
+        }
+
+        @Override
+        public synchronized void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+            super.subscribe(topics, listener);
+            mListener = listener;
+        }
+
+        @Override
+        public synchronized ConsumerRecords<String, String> poll(Duration timeout) {
+            for (ConsumerRecord<String, String> record : mLog) {
+                TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+                if (assignment().contains(partition) && !paused().contains(partition)) addRecord(record);
+            }
+            return super.poll(timeout);
+        }
+
+        @Override
+        public synchronized void pause(Collection<TopicPartition> partitions) {
+            super.pause(partitions);
+            if (mPauseWaiter != null && !partitions.isEmpty()) {
+                mPauseWaiter.complete(Set.copyOf(partitions));
+                mPauseWaiter = null;
+            }
+        }
+
+        @Override
+        public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+            super.commitSync(offsets);
+            offsets.forEach((partition, offset) -> mCommitted.put(partition, offset.offset()));
+            checkCommitWaiters();
+        }
+
+        private void checkCommitWaiters() {
+            mCommitWaiters.entrySet().removeIf(waiter -> {
+                if (lastCommitted(waiter.getValue().getKey()) < waiter.getValue().getValue()) return false;
+
+                waiter.getKey().complete(null);
+                return true;
+            });
+        }
+    }
+
+    // statuses sent to sagas, with the request prefix cut off
+    static class SagasProducer extends MockProducer<String, String> {
+
+        private final BlockingQueue<String> mSent = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Void> mClosed = new CompletableFuture<>();
+
+        SagasProducer() {
+            super(true, new StringSerializer(), new StringSerializer());
+        }
+
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+            for (String status : record.value().split("\n")) {
+                mSent.add(status.substring(status.lastIndexOf(':', status.lastIndexOf(':') - 1) + 1));
+            }
+            return super.send(record, callback);
+        }
+
+        @Override
+        public synchronized void close(Duration timeout) {
+            super.close(timeout);
+            mClosed.complete(null);
+        }
+
+        List<String> take(int count) throws InterruptedException {
+            List<String> statuses = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String status = mSent.poll(mTimeout, TimeUnit.SECONDS);
+                assertTrue(status != null, "Status is not sent in time");
+                statuses.add(status);
+            }
+            return statuses;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package unit;
+
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import scales.model.Config;
+import scales.model.OriginID;
+import scales.storage.FileSystemObjectStore;
+import scales.verticles.BackfillVerticle;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_UPDATE;
+import static unit.Fixtures.await;
+
+@ExtendWith(VertxExtension.class)
+class BackfillVerticleTest {
+
+    // addresses of ScaleVerticle, package-private there
+    private static final String EBA_SCALE_ORIGIN = "put:origin";
+    private static final String EBA_RESIZE_STATS = "stats:resize";
+
+    // nothing else is sent for that long, once the expected requests came
+    private static final long QUIET_MS = 300;
+
+    // run goes on right after the checkpoint: earlier originals are skipped, deferred ones are resolved
+    @Test
+    void resumesFromCheckpoint(Vertx vertx, @TempDir Path dir) throws Exception {
+        JsonObject config = config(dir, 1000);
+        bucket(dir, config, "a", "a.md", "a.sm", "b", "b.md", "b.sm", "c", "c.md", "c.sm");
+        // page ended right after b, so none of it's scales were seen
+        checkpoint(dir, new JsonObject()
+                .put("sizes", new JsonArray(List.of("lg", "md", "sm")))
+                .put("previousSizes", new JsonArray(List.of("md", "sm")))
+                .put("bucket", "PHOTO")
+                .put("startAfter", "b")
+                .put("done", false)
+                .put("deferred", new JsonObject().put("b", new JsonArray(List.of("lg", "md", "sm")))));
+
+        BlockingQueue<String> requests = scaleRequests(vertx);
+        deploy(vertx, config);
+
+        assertEquals("b [lg]", requests.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("c [lg]", requests.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(requests.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    // scales of an original, that are cut off by the end of the page, are looked for on the next one
+    @Test
+    void resolvesScalesAcrossPages(Vertx vertx, @TempDir Path dir) throws Exception {
+        JsonObject config = config(dir, 2);
+        // pages are [a, a.lg], [a.md, a.sm], [b, b.md]
+        bucket(dir, config, "a", "a.lg", "a.md", "a.sm", "b", "b.md");
+        finishedCheckpoint(dir, "md", "sm");
+
+        BlockingQueue<String> requests = scaleRequests(vertx);
+        deploy(vertx, config);
+
+        assertEquals("b [lg, sm]", requests.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(requests.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    // tokens come at ratePerSecond, a second's worth of them may pile up at most
+    @Test
+    void limitsRate(Vertx vertx, @TempDir Path dir) throws Exception {
+        JsonObject config = config(dir, 1000);
+        config.getJsonObject("backfill").put("ratePerSecond", 5).put("maxInFlight", 100);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            keys.add("p" + i);
+        }
+        bucket(dir, config, keys.toArray(new String[0]));
+        finishedCheckpoint(dir, "md", "sm");
+
+        BlockingQueue<String> requests = scaleRequests(vertx);
+        deploy(vertx, config);
+
+        assertNotNull(requests.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        long first = System.nanoTime();
+        for (int i = 1; i < keys.size(); i++) {
+            assertNotNull(requests.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+        // 5 at most right away, the other 5 take a second
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - first);
+        assertTrue(elapsed >= 800, "10 originals sent in " + elapsed + "ms");
+    }
+
+    // nothing is sent, while live traffic has more queued than yieldQueueDepth
+    @Test
+    void yieldsToQueuedResizes(Vertx vertx, @TempDir Path dir) throws Exception {
+        JsonObject config = config(dir, 1000);
+        bucket(dir, config, "a", "a.lg", "a.md", "a.sm");
+        finishedCheckpoint(dir, "lg", "md", "sm");
+
+        BlockingQueue<String> requests = scaleRequests(vertx);
+        deploy(vertx, config);
+
+        vertx.eventBus().publish(EBA_RESIZE_STATS, new JsonObject().put("queued", 3));
+        // xl is added, so a run starts
+        config.getJsonArray("sizes").add(new JsonObject().put("name", "xl").put("width", 2048));
+        vertx.eventBus().publish(EBA_CONFIG_UPDATE, new Config(config));
+        assertNull(requests.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+
+        vertx.eventBus().publish(EBA_RESIZE_STATS, new JsonObject().put("queued", 0));
+        assertEquals("a [xl]", requests.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static JsonObject config(Path dir, int pageSize) throws Exception {
+        JsonObject config = Fixtures.readConfig();
+        config.put("storage", new JsonObject()
+                .put("type", FileSystemObjectStore.TYPE)
+                .put("root", dir.resolve("store").toString()));
+        config.put("backfill", new JsonObject()
+                .put("enabled", true)
+                .put("checkpoint", dir.resolve("backfill.json").toString())
+                .put("ratePerSecond", 1000)
+                .put("maxInFlight", 4)
+                .put("pageSize", pageSize)
+                .put("yieldQueueDepth", 0));
+        return config;
+    }
+
+    // keys in the photos bucket, userpics one is empty
+    private static void bucket(Path dir, JsonObject config, String... keys) throws Exception {
+        Path bucket = dir.resolve("store").resolve(config.getJsonObject("aws").getString("photosBucket"));
+        Files.createDirectories(bucket);
+        for (String key : keys) {
+            Files.write(bucket.resolve(key), new byte[1]);
+        }
+    }
+
+    private static void checkpoint(Path dir, JsonObject checkpoint) throws Exception {
+        Files.writeString(dir.resolve("backfill.json"), checkpoint.encode());
+    }
+
+    // previous run of these sizes is over
+    private static void finishedCheckpoint(Path dir, String... sizes) throws Exception {
+        checkpoint(dir, new JsonObject().put("sizes", new JsonArray(List.of(sizes))).put("done", true));
+    }
+
+    // originals sent to scaling, as "photoID [sizes]"
+    private static BlockingQueue<String> scaleRequests(Vertx vertx) {
+        BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+        vertx.eventBus().<OriginID>consumer(EBA_SCALE_ORIGIN, message -> {
+            requests.add(message.body().getID() + " " + message.body().getSizes());
+            message.reply(new JsonObject());
+        });
+        return requests;
+    }
+
+    private static void deploy(Vertx vertx, JsonObject json) throws Exception {
+        Config config = new Config(json);
+        vertx.eventBus().consumer(EBA_CONFIG_FETCH, message -> message.reply(config));
+
+        Promise<String> deployed = Promise.promise();
+        vertx.deployVerticle(new BackfillVerticle(), deployed);
+        await(deployed.future());
+    }
+}
@@ -0,0 +1,120 @@
+package unit;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import scales.storage.DeleteBatcher;
+import scales.storage.ObjectHead;
+import scales.storage.ObjectListing;
+import scales.storage.ObjectStore;
+
+import javax.imageio.stream.ImageInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(VertxExtension.class)
+class DeleteBatcherTest {
+
+    // batch of maxKeys is sent right away, the rest waits for the window
+    @Test
+    void flushesAtMaxKeys(Vertx vertx, VertxTestContext test) {
+        DeleteStore store = new DeleteStore();
+        DeleteBatcher batcher = new DeleteBatcher(vertx, store, 60_000, 2);
+
+        vertx.runOnContext(v -> {
+            Future<Void> first = batcher.delete("photos", List.of("1/small", "1/large"));
+            Future<Void> second = batcher.delete("photos", List.of("2/small"));
+
+            test.verify(() -> {
+                assertEquals(List.of(List.of("1/small", "1/large")), store.mCalls);
+                assertFalse(second.isComplete());
+            });
+
+            store.mResults.get(0).complete(Map.of());
+            batcher.flushAll();
+            test.verify(() -> {
+                assertTrue(first.succeeded());
+                assertEquals(List.of("2/small"), store.mCalls.get(1));
+            });
+
+            store.mResults.get(1).complete(Map.of());
+            test.verify(() -> assertTrue(second.succeeded()));
+            test.completeNow();
+        });
+    }
+
+    // key, that is not deleted, fails only requests, that asked for it
+    @Test
+    void mapsErrorsToKeys(Vertx vertx, VertxTestContext test) {
+        DeleteStore store = new DeleteStore();
+        DeleteBatcher batcher = new DeleteBatcher(vertx, store, 60_000, 10);
+
+        vertx.runOnContext(v -> {
+            Future<Void> first = batcher.delete("photos", List.of("1/small", "1/large"));
+            Future<Void> second = batcher.delete("photos", List.of("2/small", "1/large"));
+            Future<Void> third = batcher.delete("photos", List.of("3/small"));
+            batcher.flushAll();
+
+            store.mResults.get(0).complete(Map.of("1/large", "AccessDenied: Access Denied"));
+            test.verify(() -> {
+                // key asked by two requests is deleted once
+                assertEquals(List.of(List.of("1/small", "1/large", "2/small", "3/small")), store.mCalls);
+                assertTrue(first.failed());
+                assertEquals("1/large | AccessDenied: Access Denied", first.cause().getMessage());
+                assertTrue(second.failed());
+                assertTrue(third.succeeded());
+            });
+            test.completeNow();
+        });
+    }
+
+    // store, that only records deleteAll calls and lets the test complete them
+    private static class DeleteStore implements ObjectStore {
+
+        private final List<List<String>> mCalls = new ArrayList<>();
+        private final List<Promise<Map<String, String>>> mResults = new ArrayList<>();
+
+        @Override
+        public Future<Map<String, String>> deleteAll(String bucket, List<String> keys) {
+            Promise<Map<String, String>> result = Promise.promise();
+            mCalls.add(keys);
+            mResults.add(result);
+            return result.future();
+        }
+
+        @Override
+        public Future<ImageInputStream> get(String bucket, String key, ObjectHead head) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> put(String bucket, String key, ByteBuf data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<ObjectHead> head(String bucket, String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> delete(String bucket, String key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<ObjectListing> list(String bucket, String startAfter, int maxKeys) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
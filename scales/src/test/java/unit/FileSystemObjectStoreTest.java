@@ -0,0 +1,154 @@
+package unit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import scales.model.Config;
+import scales.storage.FileSystemObjectStore;
+import scales.storage.ObjectListing;
+import scales.utility.ByteBufImageInputStream;
+import scales.utility.StreamingImageInputStream;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static unit.Fixtures.await;
+import static unit.Fixtures.awaitFailure;
+
+@ExtendWith(VertxExtension.class)
+class FileSystemObjectStoreTest {
+
+    private static final String mBucket = "photos";
+    private static final int mMmapThreshold = 100;
+
+    // keys and buckets may not point outside of the bucket or the root
+    @Test
+    void rejectsPathTraversal(Vertx vertx, @TempDir Path root) throws Exception {
+        Files.createDirectories(root.resolve("secrets"));
+        Files.write(root.resolve("secrets").resolve("key"), new byte[1]);
+        FileSystemObjectStore store = store(vertx, root);
+
+        assertEquals("Invalid key: ../secrets/key", awaitFailure(store.get(mBucket, "../secrets/key")).getMessage());
+        assertEquals("Invalid key: ..", awaitFailure(store.head(mBucket, "..")).getMessage());
+        assertEquals("Invalid key: ../secrets/key", awaitFailure(store.delete(mBucket, "../secrets/key")).getMessage());
+        assertEquals("Invalid bucket: ../x", awaitFailure(store.list("../x", null, 10)).getMessage());
+
+        // data is released, though nothing is written
+        ByteBuf data = Unpooled.wrappedBuffer(new byte[1]);
+        assertEquals("Invalid key: ../secrets/key", awaitFailure(store.put(mBucket, "../secrets/key", data)).getMessage());
+        assertEquals(0, data.refCnt());
+        assertTrue(Files.exists(root.resolve("secrets").resolve("key")));
+        store.close();
+    }
+
+    // originals of mmapThreshold and more are mapped, smaller ones are streamed
+    @Test
+    void mapsOnlyBigOriginals(Vertx vertx, @TempDir Path root) throws Exception {
+        byte[] big = bytes(mMmapThreshold);
+        byte[] small = bytes(mMmapThreshold - 1);
+        Files.createDirectories(root.resolve(mBucket));
+        Files.write(root.resolve(mBucket).resolve("big"), big);
+        Files.write(root.resolve(mBucket).resolve("small"), small);
+        FileSystemObjectStore store = store(vertx, root);
+
+        ImageInputStream mapped = await(store.get(mBucket, "big"));
+        assertTrue(mapped instanceof ByteBufImageInputStream);
+        assertArrayEquals(big, readAll(mapped));
+
+        ImageInputStream streamed = await(store.get(mBucket, "small"));
+        assertTrue(streamed instanceof StreamingImageInputStream);
+        assertArrayEquals(small, readAll(streamed));
+        assertTrue(((StreamingImageInputStream) streamed).isEnded());
+        store.close();
+    }
+
+    // scale is written aside and moved in place, so the old one is readable till then and no temp file is left
+    @Test
+    void replacesScaleAtomically(Vertx vertx, @TempDir Path root) throws Exception {
+        FileSystemObjectStore store = store(vertx, root);
+        Path scale = root.resolve(mBucket).resolve("1_small");
+
+        await(store.put(mBucket, "1_small", Unpooled.wrappedBuffer(bytes(10))));
+        // half-written file of some other writer is never listed
+        Files.write(root.resolve(mBucket).resolve("1_large12345.part"), new byte[1]);
+        await(store.put(mBucket, "1_small", Unpooled.wrappedBuffer(new byte[20])));
+
+        assertArrayEquals(new byte[20], Files.readAllBytes(scale));
+        assertEquals(List.of("1_large12345.part", "1_small"), files(root.resolve(mBucket)));
+        assertEquals(List.of("1_small"), await(store.list(mBucket, null, 10)).getKeys());
+        store.close();
+    }
+
+    // pages follow each other in lexicographic order, also after a key, that is gone by now
+    @Test
+    void listsSortedPages(Vertx vertx, @TempDir Path root) throws Exception {
+        Files.createDirectories(root.resolve(mBucket));
+        for (String key : List.of("d", "b", "e", "a", "c")) {
+            Files.write(root.resolve(mBucket).resolve(key), new byte[1]);
+        }
+        FileSystemObjectStore store = store(vertx, root);
+
+        ObjectListing first = await(store.list(mBucket, null, 2));
+        assertEquals(List.of("a", "b"), first.getKeys());
+        assertTrue(first.isTruncated());
+
+        ObjectListing second = await(store.list(mBucket, "bb", 2));
+        assertEquals(List.of("c", "d"), second.getKeys());
+        assertTrue(second.isTruncated());
+
+        ObjectListing last = await(store.list(mBucket, "d", 2));
+        assertEquals(List.of("e"), last.getKeys());
+        assertFalse(last.isTruncated());
+
+        assertEquals(List.of(), await(store.list("absent", null, 2)).getKeys());
+        store.close();
+    }
+
+    private static FileSystemObjectStore store(Vertx vertx, Path root) throws Exception {
+        JsonObject config = Fixtures.readConfig().put("storage", new JsonObject()
+                .put("type", FileSystemObjectStore.TYPE)
+                .put("root", root.toString())
+                .put("mmapThreshold", mMmapThreshold));
+        return new FileSystemObjectStore(vertx, new Config(config));
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) length);
+        return bytes;
+    }
+
+    // streamed length is unknown till the read ends, so it's read to the end
+    private static byte[] readAll(ImageInputStream in) throws Exception {
+        try (in) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] chunk = new byte[16];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                data.write(chunk, 0, read);
+            }
+            return data.toByteArray();
+        }
+    }
+
+    private static List<String> files(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
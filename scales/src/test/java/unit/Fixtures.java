@@ -0,0 +1,60 @@
+package unit;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ * Helpers shared by tests, that drive vert.x code from the test thread
+ */
+final class Fixtures {
+
+    // Constants
+
+    static final long TIMEOUT_SECONDS = 5;
+
+    // Constructors
+
+    private Fixtures() {
+    }
+
+    // Public
+
+    // result of the future, its failure is thrown as ExecutionException
+    static <T> T await(Future<T> future) throws InterruptedException, ExecutionException, TimeoutException {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.setHandler(ar -> {
+            if (ar.succeeded()) {
+                result.complete(ar.result());
+            } else {
+                result.completeExceptionally(ar.cause());
+            }
+        });
+        return result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // cause the future failed with
+    static Throwable awaitFailure(Future<?> future) throws InterruptedException, TimeoutException {
+        try {
+            await(future);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("Future succeeded");
+    }
+
+    // config of the app, which is the test's base one
+    static JsonObject readConfig() throws IOException {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/conf/config.json")) {
+            return new JsonObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+}
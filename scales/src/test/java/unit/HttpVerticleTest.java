@@ -0,0 +1,154 @@
+package unit;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import scales.model.Config;
+import scales.model.OriginID;
+import scales.storage.FileSystemObjectStore;
+import scales.verticles.HttpVerticle;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static scales.verticles.ConfigurationVerticle.EBA_CONFIG_FETCH;
+import static unit.Fixtures.await;
+
+@ExtendWith(VertxExtension.class)
+class HttpVerticleTest {
+
+    // address and failure code of ScaleVerticle, package-private there
+    private static final String EBA_SCALE_ORIGIN = "put:origin";
+    private static final int ORIGINAL_NOT_FOUND = 404;
+
+    private static final byte[] mScale = {1, 2, 3};
+
+    // unknown bucket or size and missing original are 404, the rest of failures are 500
+    @Test
+    void mapsNotFound(Vertx vertx, @TempDir Path dir) throws Exception {
+        BlockingQueue<Message<OriginID>> scaling = scaleRequests(vertx);
+        Server server = deploy(vertx, dir);
+        Files.write(server.mBucket.resolve("1.sm"), mScale);
+
+        HttpResponse<Buffer> stored = await(server.get("1", "sm"));
+        assertEquals(200, stored.statusCode());
+        assertEquals("image/jpeg", stored.getHeader("Content-Type"));
+        assertEquals(Buffer.buffer(mScale), stored.body());
+
+        assertEquals(404, await(server.get("absent.bucket", "1", "sm")).statusCode());
+        assertEquals(404, await(server.get("1", "xxl")).statusCode());
+
+        Future<HttpResponse<Buffer>> noOriginal = server.get("2", "sm");
+        scaling.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS).fail(ORIGINAL_NOT_FOUND, "No such object");
+        assertEquals(404, await(noOriginal).statusCode());
+
+        Future<HttpResponse<Buffer>> failed = server.get("3", "sm");
+        scaling.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS).fail(500, "Decoding failed");
+        assertEquals(500, await(failed).statusCode());
+    }
+
+    // requests for the scale, that is being made, wait for the same scaling
+    @Test
+    void coalescesScaling(Vertx vertx, @TempDir Path dir) throws Exception {
+        BlockingQueue<Message<OriginID>> scaling = scaleRequests(vertx);
+        Server server = deploy(vertx, dir);
+
+        List<Future<HttpResponse<Buffer>>> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(server.get("1", "md"));
+        }
+
+        Message<OriginID> scale = scaling.poll(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(scale);
+        assertEquals(List.of("md"), scale.body().getSizes());
+        // the other two came while the first one is scaled
+        assertNull(scaling.poll(300, TimeUnit.MILLISECONDS));
+
+        Files.write(server.mBucket.resolve("1.md"), mScale);
+        scale.reply(new JsonObject());
+
+        for (Future<HttpResponse<Buffer>> response : responses) {
+            assertEquals(Buffer.buffer(mScale), await(response).body());
+        }
+        // scale is there now, so the next one is just read
+        assertEquals(200, await(server.get("1", "md")).statusCode());
+        assertNull(scaling.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    // messages to ScaleVerticle, the test replies to them
+    private static BlockingQueue<Message<OriginID>> scaleRequests(Vertx vertx) {
+        BlockingQueue<Message<OriginID>> requests = new LinkedBlockingQueue<>();
+        vertx.eventBus().<OriginID>consumer(EBA_SCALE_ORIGIN, requests::add);
+        return requests;
+    }
+
+    private static Server deploy(Vertx vertx, Path dir) throws Exception {
+        JsonObject json = Fixtures.readConfig();
+        json.put("storage", new JsonObject()
+                .put("type", FileSystemObjectStore.TYPE)
+                .put("root", dir.toString()));
+        json.put("http", new JsonObject()
+                .put("enabled", true)
+                .put("port", freePort()));
+        Config config = new Config(json);
+        vertx.eventBus().consumer(EBA_CONFIG_FETCH, message -> message.reply(config));
+
+        Promise<String> deployed = Promise.promise();
+        vertx.deployVerticle(new HttpVerticle(), deployed);
+        await(deployed.future());
+
+        Path bucket = dir.resolve(config.getPhotosBucket());
+        Files.createDirectories(bucket);
+        return new Server(WebClient.create(vertx), config, bucket);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // client of the deployed verticle, photos bucket is the default one
+    private static class Server {
+
+        private final WebClient mClient;
+        private final Config mConfig;
+        private final Path mBucket;
+
+        Server(WebClient client, Config config, Path bucket) {
+            mClient = client;
+            mConfig = config;
+            mBucket = bucket;
+        }
+
+        Future<HttpResponse<Buffer>> get(String photoID, String sizeName) {
+            return get(mConfig.getPhotosBucket(), photoID, sizeName);
+        }
+
+        Future<HttpResponse<Buffer>> get(String bucketName, String photoID, String sizeName) {
+            Promise<HttpResponse<Buffer>> promise = Promise.promise();
+            mClient.get(mConfig.getHttpPort(), "localhost", "/" + bucketName + "/" + photoID + "/" + sizeName)
+                    .send(promise);
+            return promise.future();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package unit;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import scales.utility.InFlight;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(VertxExtension.class)
+class InFlightTest {
+
+    @Test
+    void sameKeySharesOneRun(Vertx vertx, VertxTestContext test) {
+        InFlight inFlight = new InFlight(vertx);
+        int[] started = {0};
+        Promise<Void> work = Promise.promise();
+
+        vertx.runOnContext(v -> {
+            List<Future> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                results.add(inFlight.run("photos/1", "photos/1/small", operation -> {
+                    started[0]++;
+                    return work.future();
+                }));
+            }
+            work.complete();
+
+            CompositeFuture.all(results).setHandler(ar -> test.verify(() -> {
+                assertTrue(ar.succeeded());
+                assertEquals(1, started[0]);
+
+                JsonObject stats = inFlight.stats();
+                assertEquals(0, stats.getInteger("running"));
+                assertEquals(2L, stats.getLong("coalesced"));
+                test.completeNow();
+            }));
+        });
+    }
+
+    // cancel marks running operations of the origin, waits for them to stop,
+    // and the next request starts over instead of joining the cancelled one
+    @Test
+    void cancelStopsOperationsOfOrigin(Vertx vertx, VertxTestContext test) {
+        InFlight inFlight = new InFlight(vertx);
+        Promise<Void> work = Promise.promise();
+        InFlight.Operation[] running = new InFlight.Operation[2];
+
+        vertx.runOnContext(v -> {
+            inFlight.run("photos/1", "photos/1/small", operation -> {
+                running[0] = operation;
+                return work.future();
+            });
+            inFlight.run("photos/2", "photos/2/small", operation -> {
+                running[1] = operation;
+                return Promise.<Void>promise().future();
+            });
+
+            Future<Void> cancelled = inFlight.cancel("photos/1");
+            test.verify(() -> {
+                assertTrue(running[0].isCancelled());
+                assertFalse(running[1].isCancelled());
+                assertFalse(cancelled.isComplete());
+            });
+
+            int[] started = {0};
+            Future<Void> again = inFlight.run("photos/1", "photos/1/small", operation -> {
+                started[0]++;
+                return Future.succeededFuture();
+            });
+
+            // the cancelled work checks the flag and stops with a failure
+            work.fail("Scaling cancelled");
+            CompositeFuture.all(cancelled, again).setHandler(ar -> test.verify(() -> {
+                assertTrue(ar.succeeded());
+                assertEquals(1, started[0]);
+
+                JsonObject stats = inFlight.stats();
+                assertEquals(1, stats.getInteger("running"));
+                assertEquals(1L, stats.getLong("cancelled"));
+                assertEquals(0L, stats.getLong("coalesced"));
+                test.completeNow();
+            }));
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package unit;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import scales.utility.MemoryBudget;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(VertxExtension.class)
+class MemoryBudgetTest {
+
+    @Test
+    void waitersAreServedInArrivalOrder(Vertx vertx, VertxTestContext test) {
+        MemoryBudget budget = new MemoryBudget(vertx, 100);
+
+        vertx.runOnContext(v -> {
+            Future<Long> first = budget.acquire(80);
+            // big one waits for the first, the small one waits behind it, though it would fit
+            Future<Long> big = budget.acquire(60);
+            Future<Long> small = budget.acquire(10);
+
+            List<String> order = new ArrayList<>();
+            big.setHandler(ar -> order.add("big"));
+
+            test.verify(() -> {
+                assertEquals(80L, first.result());
+                assertFalse(big.isComplete());
+                assertFalse(small.isComplete());
+                assertEquals(1.0, budget.pressure());
+                assertEquals(2, budget.stats().getInteger("waiting"));
+            });
+
+            budget.release(first.result());
+            small.setHandler(ar -> test.verify(() -> {
+                order.add("small");
+                assertEquals(List.of("big", "small"), order);
+                assertEquals(30L, budget.stats().getLong("availableBytes"));
+
+                budget.release(big.result());
+                budget.release(small.result());
+                assertEquals(100L, budget.stats().getLong("availableBytes"));
+                assertEquals(0.0, budget.pressure());
+                test.completeNow();
+            }));
+        });
+    }
+
+    // image bigger than the whole budget waits for all of it instead of forever
+    @Test
+    void acquireIsCappedAtTotal(Vertx vertx, VertxTestContext test) {
+        MemoryBudget budget = new MemoryBudget(vertx, 100);
+
+        vertx.runOnContext(v -> {
+            Future<Long> small = budget.acquire(1);
+            Future<Long> huge = budget.acquire(1_000);
+
+            test.verify(() -> {
+                assertEquals(1L, small.result());
+                assertFalse(huge.isComplete());
+            });
+
+            budget.release(small.result());
+            huge.setHandler(ar -> test.verify(() -> {
+                assertTrue(ar.succeeded());
+                assertEquals(100L, ar.result());
+                assertEquals(0L, budget.stats().getLong("availableBytes"));
+
+                budget.release(ar.result());
+                assertEquals(100L, budget.stats().getLong("availableBytes"));
+                test.completeNow();
+            }));
+        });
+    }
+}
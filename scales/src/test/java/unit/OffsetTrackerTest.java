@@ -0,0 +1,117 @@
+package unit;
+
+import io.vertx.kafka.client.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import scales.utility.OffsetTracker;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffsetTrackerTest {
+
+    private static TopicPartition mPhotos = new TopicPartition("photosTopic", 0);
+    private static TopicPartition mUserpics = new TopicPartition("userpicsTopic", 0);
+
+    @Test
+    void commitsOnlyContiguousPrefix() {
+        OffsetTracker offsets = new OffsetTracker(10);
+        track(offsets, mPhotos, 0, 1, 2, 3);
+
+        // out of order completion doesn't move the watermark past the first uncompleted record
+        assertFalse(offsets.complete(mPhotos, 2));
+        assertFalse(offsets.complete(mPhotos, 1));
+        assertTrue(offsets.committable().isEmpty());
+
+        assertTrue(offsets.complete(mPhotos, 0));
+        assertEquals(Map.of(mPhotos, 3L), offsets.committable());
+
+        assertTrue(offsets.complete(mPhotos, 3));
+        assertEquals(Map.of(mPhotos, 4L), offsets.committable());
+    }
+
+    @Test
+    void skipsGapsInOffsets() {
+        OffsetTracker offsets = new OffsetTracker(10);
+        track(offsets, mPhotos, 5, 8, 13);
+
+        offsets.complete(mPhotos, 8);
+        offsets.complete(mPhotos, 5);
+        assertEquals(Map.of(mPhotos, 9L), offsets.committable());
+    }
+
+    @Test
+    void partitionsAreIndependent() {
+        OffsetTracker offsets = new OffsetTracker(10);
+        track(offsets, mPhotos, 0, 1);
+        track(offsets, mUserpics, 0, 1);
+
+        offsets.complete(mUserpics, 0);
+        offsets.complete(mPhotos, 1);
+        assertEquals(Map.of(mUserpics, 1L), offsets.committable());
+    }
+
+    @Test
+    void committedOffsetsAreNotCommittedAgain() {
+        OffsetTracker offsets = new OffsetTracker(10);
+        track(offsets, mPhotos, 0, 1);
+
+        offsets.complete(mPhotos, 0);
+        Map<TopicPartition, Long> committable = offsets.committable();
+        offsets.committed(committable);
+        assertTrue(offsets.committable().isEmpty());
+
+        offsets.complete(mPhotos, 1);
+        assertEquals(Map.of(mPhotos, 2L), offsets.committable());
+    }
+
+    @Test
+    void windowCountsCompletedRecordsBehindWatermark() {
+        OffsetTracker offsets = new OffsetTracker(3);
+        track(offsets, mPhotos, 0, 1);
+        assertFalse(offsets.isFull(mPhotos));
+
+        track(offsets, mPhotos, 2);
+        assertTrue(offsets.isFull(mPhotos));
+
+        // still waits for the first one
+        offsets.complete(mPhotos, 2);
+        assertTrue(offsets.isFull(mPhotos));
+
+        offsets.complete(mPhotos, 0);
+        assertFalse(offsets.isFull(mPhotos));
+        assertEquals(2, offsets.inFlight(mPhotos));
+    }
+
+    @Test
+    void positionFollowsConsumedRecords() {
+        OffsetTracker offsets = new OffsetTracker(10);
+        assertEquals(-1, offsets.position(mPhotos));
+
+        track(offsets, mPhotos, 3, 4);
+        offsets.complete(mPhotos, 4);
+        assertEquals(5, offsets.position(mPhotos));
+
+        offsets.complete(mPhotos, 3);
+        assertEquals(5, offsets.position(mPhotos));
+    }
+
+    @Test
+    void removedPartitionIsIgnored() {
+        OffsetTracker offsets = new OffsetTracker(10);
+        track(offsets, mPhotos, 0);
+        offsets.remove(mPhotos);
+
+        assertFalse(offsets.complete(mPhotos, 0));
+        assertTrue(offsets.committable().isEmpty());
+        assertEquals(0, offsets.inFlight(mPhotos));
+    }
+
+    private static void track(OffsetTracker offsets, TopicPartition partition, long... records) {
+        for (long offset : records) {
+            offsets.track(partition, offset);
+        }
+    }
+}
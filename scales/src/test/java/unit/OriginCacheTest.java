@@ -0,0 +1,104 @@
+package unit;
+
+import io.netty.buffer.ByteBuf;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import scales.storage.OriginCache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static unit.Fixtures.await;
+
+@ExtendWith(VertxExtension.class)
+class OriginCacheTest {
+
+    private static final String mBucket = "photos";
+    private static final int mOriginalBytes = 100;
+
+    // original hit again is protected from a burst of one-off ones, that washes out probation
+    @Test
+    void hitOriginalIsPromoted(Vertx vertx) throws Exception {
+        OriginCache cache = new OriginCache(vertx, 10 * mOriginalBytes);
+
+        put(cache, "a", "1");
+        release(cache.get(mBucket, "a", "1"));
+        assertEquals((long) mOriginalBytes, cache.stats().getLong("protectedBytes"));
+
+        for (int i = 0; i < 10; i++) {
+            put(cache, "burst" + i, "1");
+        }
+        JsonObject stats = cache.stats();
+        assertEquals(10, stats.getInteger("entries"));
+        assertEquals(1L, stats.getLong("evictions"));
+
+        ByteBuf a = cache.get(mBucket, "a", "1");
+        assertNotNull(a);
+        a.release();
+        assertNull(cache.get(mBucket, "burst0", "1"));
+        cache.close();
+    }
+
+    // entry is only good for the ETag it was downloaded with, the stale one is dropped on the first miss
+    @Test
+    void changedETagInvalidates(Vertx vertx) throws Exception {
+        OriginCache cache = new OriginCache(vertx, 10 * mOriginalBytes);
+
+        put(cache, "a", "1");
+        assertNull(cache.get(mBucket, "a", "2"));
+        assertNull(cache.get(mBucket, "a", "1"));
+        assertEquals(0, cache.stats().getInteger("entries"));
+
+        put(cache, "b", "1");
+        release(cache.get(mBucket, "b", "1"));
+        assertNull(cache.get(mBucket, "b", "2"));
+        assertEquals(0L, cache.stats().getLong("bytes"));
+        cache.close();
+    }
+
+    // originals handed out stay valid till their holder releases them
+    @Test
+    void closeReleasesBuffers(Vertx vertx) throws Exception {
+        OriginCache cache = new OriginCache(vertx, 10 * mOriginalBytes);
+        put(cache, "a", "1");
+
+        ByteBuf held = cache.get(mBucket, "a", "1");
+        // the cached one is retained by the cache and the holder
+        ByteBuf data = held.unwrap();
+        assertEquals(2, data.refCnt());
+
+        cache.close();
+        assertEquals(1, data.refCnt());
+        assertEquals(mOriginalBytes, held.readableBytes());
+        assertEquals(0, cache.stats().getInteger("entries"));
+
+        held.release();
+        assertEquals(0, data.refCnt());
+    }
+
+    // original bigger than the whole cache would only wash it out
+    @Test
+    void oversizedOriginalIsNotAdmitted(Vertx vertx) throws Exception {
+        OriginCache cache = new OriginCache(vertx, mOriginalBytes - 1);
+
+        Future<Void> put = cache.put(mBucket, "a", "1", Buffer.buffer(new byte[mOriginalBytes]));
+        assertTrue(put.succeeded());
+        assertNull(cache.get(mBucket, "a", "1"));
+        assertEquals(0, cache.stats().getInteger("entries"));
+    }
+
+    private static void put(OriginCache cache, String key, String eTag) throws Exception {
+        await(cache.put(mBucket, key, eTag, Buffer.buffer(new byte[mOriginalBytes])));
+    }
+
+    private static void release(ByteBuf original) {
+        assertNotNull(original);
+        original.release();
+    }
+}
@@ -0,0 +1,120 @@
+package unit;
+
+import org.junit.jupiter.api.Test;
+import scales.utility.Resampler;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResamplerTest {
+
+    private static final int[][] mSizes = {{40, 30}, {200, 150}, {640, 480}, {1, 1}, {333, 17}};
+
+    @Test
+    void resizesToRequestedDimensions() {
+        BufferedImage img = filled(320, 240, Color.GRAY);
+
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            for (int[] size : mSizes) {
+                BufferedImage resized = Resampler.resample(img, size[0], size[1], filter);
+                assertEquals(size[0], resized.getWidth());
+                assertEquals(size[1], resized.getHeight());
+            }
+        }
+    }
+
+    @Test
+    void constantColorStaysConstant() {
+        Color color = new Color(200, 100, 30);
+        BufferedImage img = filled(320, 240, color);
+
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            for (int[] size : mSizes) {
+                BufferedImage resized = Resampler.resample(img, size[0], size[1], filter);
+                for (int y = 0; y < resized.getHeight(); y++) {
+                    for (int x = 0; x < resized.getWidth(); x++) {
+                        assertEquals(color.getRGB(), resized.getRGB(x, y), filter + " at " + x + ", " + y);
+                    }
+                }
+            }
+        }
+    }
+
+    // every target pixel covers a couple of black and white ones, which average to gray
+    @Test
+    void downscaleAveragesCheckerboard() {
+        BufferedImage img = new BufferedImage(400, 400, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                img.setRGB(x, y, (x + y) % 2 == 0 ? 0xffffff : 0);
+            }
+        }
+
+        for (Resampler.Filter filter : Resampler.Filter.values()) {
+            BufferedImage resized = Resampler.resample(img, 100, 100, filter);
+            // borders see only a part of the window
+            for (int y = 2; y < resized.getHeight() - 2; y++) {
+                for (int x = 2; x < resized.getWidth() - 2; x++) {
+                    int rgb = resized.getRGB(x, y);
+                    for (int shift = 0; shift < 24; shift += 8) {
+                        int channel = (rgb >> shift) & 0xff;
+                        assertTrue(Math.abs(channel - 127.5) <= 2, filter + " gives " + channel);
+                    }
+                }
+            }
+        }
+    }
+
+    // halves of the first pass are not rounded up before the second one:
+    // blocks of levels {0, 1} over {0, 0} average to 0.25, that is 0, not 0.5
+    @Test
+    void downscaleRoundsOnlyOnce() {
+        BufferedImage img = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y += 2) {
+            for (int x = 0; x < img.getWidth(); x += 2) {
+                img.setRGB(x + 1, y, 0x010101);
+            }
+        }
+
+        BufferedImage resized = Resampler.resample(img, 100, 100, Resampler.Filter.BOX);
+        for (int y = 0; y < resized.getHeight(); y++) {
+            for (int x = 0; x < resized.getWidth(); x++) {
+                assertEquals(0, resized.getRGB(x, y) & 0xffffff, "At " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void stripsMatchWholeImage() throws IOException {
+        BufferedImage img = filled(300, 500, Color.BLACK);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillOval(50, 100, 200, 300);
+        g.dispose();
+
+        BufferedImage whole = Resampler.resample(img, 120, 200, Resampler.Filter.LANCZOS3);
+        BufferedImage strips = Resampler.resampleStrips(img.getWidth(), img.getHeight(),
+                (fromRow, rows) -> img.getSubimage(0, fromRow, img.getWidth(), rows),
+                7, 120, 200, Resampler.Filter.LANCZOS3);
+
+        for (int y = 0; y < whole.getHeight(); y++) {
+            for (int x = 0; x < whole.getWidth(); x++) {
+                assertEquals(whole.getRGB(x, y), strips.getRGB(x, y), "At " + x + ", " + y);
+            }
+        }
+    }
+
+    private static BufferedImage filled(int width, int height, Color color) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return img;
+    }
+}
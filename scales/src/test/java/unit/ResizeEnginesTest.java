@@ -0,0 +1,29 @@
+package unit;
+
+import org.junit.jupiter.api.Test;
+import scales.utility.ResizeEngine;
+import scales.utility.ResizeEngines;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResizeEnginesTest {
+
+    @Test
+    void byNameFindsEveryAvailableEngine() {
+        for (ResizeEngine engine : ResizeEngines.available()) {
+            assertEquals(engine.name(), ResizeEngines.byName(engine.name()).name());
+        }
+        assertNull(ResizeEngines.byName("no-such-engine"));
+    }
+
+    @Test
+    void fastestIsAvailableAndPickedOnce() {
+        ResizeEngine fastest = ResizeEngines.fastest();
+
+        assertTrue(ResizeEngines.available().stream().anyMatch(engine -> engine.name().equals(fastest.name())));
+        assertSame(fastest, ResizeEngines.fastest());
+    }
+}
@@ -1,5 +1,8 @@
 package unit;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.vertx.core.buffer.Buffer;
 import org.junit.jupiter.api.Test;
 import scales.utility.ImageResize;
 
@@ -68,6 +71,31 @@ class ResizeTest {
     }
 
 
+    @Test
+    void resizeToWidthsAllAtOnce() throws IOException {
+        int[] widths = {mMedium[0], mSmall[0], mLarge[0]};
+        ByteBuf[] scales = ImageResize.resizeToWidths(
+                Buffer.buffer(ImageResize.imageToBytes(mImg, mExtension)), widths, mExtension
+        );
+
+        // i-th scale should be of i-th width
+        for (int i = 0; i < widths.length; i++) {
+            assertEquals(ImageResize.bytesToImage(ByteBufUtil.getBytes(scales[i])).getWidth(), widths[i]);
+            scales[i].release();
+        }
+    }
+
+
+    @Test
+    void subsamplingKeepsTwiceTheWidth() {
+        assertEquals(ImageResize.subsamplingFactor(6000, 480), 6);
+        assertEquals(ImageResize.subsamplingFactor(6000, 1440), 2);
+        // no subsampling when original is not at least twice as wide
+        assertEquals(ImageResize.subsamplingFactor(1000, 480), 1);
+        assertEquals(ImageResize.subsamplingFactor(480, 1440), 1);
+    }
+
+
     // data-transformations-relative tests/data
 
     @Test
@@ -0,0 +1,145 @@
+package unit;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import scales.utility.ResizeWorkers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(VertxExtension.class)
+class ResizeWorkersTest {
+
+    // pool, that is replaced by config update, runs what it has queued, and takes nothing new
+    @Test
+    void closeRunsQueuedJobs(Vertx vertx, VertxTestContext test) {
+        ResizeWorkers workers = new ResizeWorkers(vertx, 1, 16);
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        vertx.runOnContext(v -> {
+            List<Future> jobs = new ArrayList<>();
+            jobs.add(workers.<String>execute(promise -> {
+                await(blocked);
+                promise.complete("done");
+            }));
+            for (int i = 0; i < 3; i++) {
+                jobs.add(workers.<String>execute(promise -> promise.complete("done")));
+            }
+
+            workers.close();
+            Future<String> late = workers.execute(promise -> promise.complete("never"));
+            test.verify(() -> {
+                assertTrue(late.failed());
+                assertEquals(ResizeWorkers.CLOSED, late.cause().getMessage());
+            });
+            blocked.countDown();
+
+            CompositeFuture.all(jobs).setHandler(ar -> test.verify(() -> {
+                assertTrue(ar.succeeded());
+                jobs.forEach(job -> assertEquals("done", job.result()));
+                assertEquals(0, workers.getQueued());
+                test.completeNow();
+            }));
+        });
+    }
+
+    // pool of one thread is blocked, while both classes queue up, then takes them by weights 8 : 2
+    @Test
+    void prioritiesGetShareByWeight(Vertx vertx, VertxTestContext test) {
+        ResizeWorkers workers = new ResizeWorkers(vertx, 1, 64);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        vertx.runOnContext(v -> {
+            workers.<String>execute(promise -> {
+                await(blocked);
+                promise.complete();
+            });
+
+            List<Future> jobs = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                for (String priority : List.of(ResizeWorkers.BULK, ResizeWorkers.USERPIC)) {
+                    jobs.add(workers.<Void>execute(priority, promise -> {
+                        order.add(priority);
+                        promise.complete();
+                    }));
+                }
+            }
+            blocked.countDown();
+
+            CompositeFuture.all(jobs).setHandler(ar -> test.verify(() -> {
+                assertTrue(ar.succeeded());
+                List<String> first = order.subList(0, 10);
+                assertEquals(8, Collections.frequency(first, ResizeWorkers.USERPIC));
+                assertEquals(2, Collections.frequency(first, ResizeWorkers.BULK));
+                // the rest is bulk only, once userpics ran out
+                assertEquals(Collections.nCopies(8, ResizeWorkers.BULK), order.subList(12, 20));
+
+                workers.close();
+                test.completeNow();
+            }));
+        });
+    }
+
+    @Test
+    void rejectsOverMaxQueued(Vertx vertx, VertxTestContext test) {
+        ResizeWorkers workers = new ResizeWorkers(vertx, 1, 2);
+        // the worker tells the event loop it has started, the loop never waits on it
+        Promise<Void> started = Promise.promise();
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        vertx.runOnContext(v -> {
+            Context context = vertx.getOrCreateContext();
+            Future<Void> running = workers.execute(promise -> {
+                context.runOnContext(s -> started.complete());
+                await(blocked);
+                promise.complete();
+            });
+
+            // running job doesn't count as queued
+            started.future().setHandler(s -> {
+                List<Future> queued = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    queued.add(workers.<Void>execute(Promise::complete));
+                }
+                Future<Void> rejected = workers.execute(Promise::complete);
+
+                test.verify(() -> {
+                    assertTrue(rejected.failed());
+                    assertEquals(2, workers.getQueued());
+                    assertEquals(1L, workers.stats().getLong("rejected"));
+                });
+                blocked.countDown();
+
+                queued.add(running);
+                CompositeFuture.all(queued).setHandler(ar -> test.verify(() -> {
+                    assertTrue(ar.succeeded());
+                    assertEquals(0, workers.getQueued());
+
+                    workers.close();
+                    test.completeNow();
+                }));
+            });
+        });
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package unit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import scales.model.Config;
+import scales.storage.ObjectHead;
+import scales.storage.S3ObjectStore;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static unit.Fixtures.await;
+import static unit.Fixtures.awaitFailure;
+
+@ExtendWith(VertxExtension.class)
+class S3ObjectStoreTest {
+
+    private static final String mBucket = "photos";
+    private static final int mObjectBytes = 10;
+
+    // ranges come back in reverse order and in pieces, the stream puts every byte at it's place
+    @Test
+    void reassemblesRanges(Vertx vertx) throws Exception {
+        byte[] original = bytes(mObjectBytes);
+        FakeS3 store = new FakeS3(vertx, original);
+
+        ImageInputStream origin = await(onContext(vertx,
+                () -> store.get(mBucket, "1", new ObjectHead("etag", mObjectBytes))));
+        byte[] data = new byte[mObjectBytes];
+        origin.readFully(data);
+
+        assertArrayEquals(original, data);
+        assertEquals(List.of("0-3", "4-7", "8-9"), store.mRanges);
+        // no more than parallelism ranges at a time
+        assertEquals(2, store.mMaxRunning);
+    }
+
+    // range, that ends early, fails the reader instead of leaving a gap
+    @Test
+    void shortRangeFailsOrigin(Vertx vertx) throws Exception {
+        FakeS3 store = new FakeS3(vertx, bytes(mObjectBytes));
+        store.mShortRange = 4;
+
+        ImageInputStream origin = await(onContext(vertx,
+                () -> store.get(mBucket, "1", new ObjectHead("etag", mObjectBytes))));
+
+        IOException failed = assertThrows(IOException.class, () -> origin.readFully(new byte[mObjectBytes]));
+        assertEquals("Range 4-7 ended at 7", failed.getCause().getMessage());
+    }
+
+    // every part is retried on it's own, ETags go to complete in part order
+    @Test
+    void completesMultipartInPartOrder(Vertx vertx) throws Exception {
+        FakeS3 store = new FakeS3(vertx, null);
+        store.mPartFailures.put(2, 1);
+        ByteBuf data = Unpooled.wrappedBuffer(bytes(mObjectBytes));
+
+        await(onContext(vertx, () -> store.put(mBucket, "1_large", data)));
+
+        assertEquals(Map.of(1, 1, 2, 2, 3, 1), store.mPartAttempts);
+        assertEquals(List.of("etag-1", "etag-2", "etag-3"), store.mCompleted);
+        assertNull(store.mAborted);
+        assertEquals(0, data.refCnt());
+    }
+
+    // part, that fails all of it's retries, fails the upload, and the parts already uploaded are aborted
+    @Test
+    void abortsMultipartOnPartFailure(Vertx vertx) throws Exception {
+        FakeS3 store = new FakeS3(vertx, null);
+        store.mPartFailures.put(2, Integer.MAX_VALUE);
+        ByteBuf data = Unpooled.wrappedBuffer(bytes(mObjectBytes));
+
+        Throwable failed = awaitFailure(onContext(vertx, () -> store.put(mBucket, "1_large", data)));
+
+        assertEquals("Part 2 failed", failed.getMessage());
+        // first try and one retry
+        assertEquals(2, store.mPartAttempts.get(2));
+        assertNull(store.mCompleted);
+        assertEquals("upload-1", store.mAborted);
+        assertEquals(0, data.refCnt());
+    }
+
+    private static <T> Future<T> onContext(Vertx vertx, Supplier<Future<T>> call) {
+        Promise<T> promise = Promise.promise();
+        vertx.runOnContext(v -> call.get().setHandler(promise));
+        return promise.future();
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    // S3 of a single object: ranges of 4 bytes, parts of 4 bytes, both 2 at a time, parts are retried once
+    private static class FakeS3 extends S3ObjectStore {
+
+        private final Vertx mVertx;
+        private final byte[] mObject;
+
+        private final List<String> mRanges = new ArrayList<>();
+        private int mRunning;
+        private int mMaxRunning;
+        // range, that loses it's last byte, -1 if none
+        private long mShortRange = -1;
+
+        // part number -> failures left of it
+        private final Map<Integer, Integer> mPartFailures = new ConcurrentHashMap<>();
+        private final Map<Integer, Integer> mPartAttempts = new ConcurrentHashMap<>();
+        private List<String> mCompleted;
+        private String mAborted;
+
+        FakeS3(Vertx vertx, byte[] object) throws IOException {
+            super(vertx, new Config(Fixtures.readConfig().put("transfer", new JsonObject()
+                    .put("rangedDownloadThreshold", mObjectBytes)
+                    .put("rangeSize", 4)
+                    .put("multipartThreshold", mObjectBytes)
+                    .put("partSize", 4)
+                    .put("parallelism", 2)
+                    .put("partRetries", 1))), null);
+            mVertx = vertx;
+            mObject = object;
+        }
+
+        // the later range starts, the sooner it ends
+        @Override
+        protected Future<ReadStream<Buffer>> rangeData(String bucket, String key, long from, long to) {
+            mRanges.add(from + "-" + to);
+            mMaxRunning = Math.max(mMaxRunning, ++mRunning);
+
+            long end = from == mShortRange ? to : to + 1;
+            byte[] range = Arrays.copyOfRange(mObject, (int) from, (int) end);
+            return Future.succeededFuture(new Chunks(mVertx, 40 - from * 3, range, () -> mRunning--));
+        }
+
+        @Override
+        protected Future<String> initMultipart(String bucket, String key) {
+            return Future.succeededFuture("upload-1");
+        }
+
+        // later parts are uploaded sooner
+        @Override
+        protected Future<String> uploadPart(String bucket, String key, String uploadId, int partNumber, Buffer part) {
+            mPartAttempts.merge(partNumber, 1, Integer::sum);
+            Promise<String> promise = Promise.promise();
+            mVertx.setTimer(40 - partNumber * 10, id -> {
+                if (mPartFailures.getOrDefault(partNumber, 0) > 0) {
+                    mPartFailures.merge(partNumber, -1, Integer::sum);
+                    promise.fail("Part " + partNumber + " failed");
+                } else {
+                    promise.complete("etag-" + partNumber);
+                }
+            });
+            return promise.future();
+        }
+
+        @Override
+        protected Future<Void> completeMultipart(String bucket, String key, String uploadId, String[] eTags) {
+            mCompleted = List.of(eTags);
+            return Future.succeededFuture();
+        }
+
+        @Override
+        protected void abortMultipart(String bucket, String key, String uploadId) {
+            mAborted = uploadId;
+        }
+    }
+
+    // data of a response, that comes a byte at a time after the delay
+    private static class Chunks implements ReadStream<Buffer> {
+
+        private Handler<Buffer> mHandler;
+        private Handler<Void> mEndHandler;
+
+        Chunks(Vertx vertx, long delay, byte[] data, Runnable ended) {
+            vertx.setTimer(delay, id -> {
+                for (byte b : data) {
+                    mHandler.handle(Buffer.buffer(new byte[]{b}));
+                }
+                ended.run();
+                mEndHandler.handle(null);
+            });
+        }
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+            mHandler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> handler) {
+            mEndHandler = handler;
+            return this;
+        }
+    }
+}
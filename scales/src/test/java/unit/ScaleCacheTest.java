@@ -0,0 +1,104 @@
+package unit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.Vertx;
+import io.vertx.junit5.VertxExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import scales.storage.ScaleCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static unit.Fixtures.await;
+import static unit.Fixtures.awaitFailure;
+
+@ExtendWith(VertxExtension.class)
+class ScaleCacheTest {
+
+    private static final int mScaleBytes = 100;
+
+    @Test
+    void evictsLeastRecentlyUsed(Vertx vertx, @TempDir Path dir) throws Exception {
+        ScaleCache cache = new ScaleCache(vertx, dir.toString(), 3 * mScaleBytes);
+        await(cache.open());
+
+        put(cache, "a", "b", "c");
+        // a is used again, so b is the least recently used one
+        release(await(cache.getAll(Map.of("a", "a"))));
+        put(cache, "d");
+
+        // file goes along with it's entry, before put of the one, that pushed it out, is done
+        assertFalse(Files.exists(dir.resolve("b")));
+        assertEquals(1L, cache.stats().getLong("evictions"));
+
+        HashMap<String, ByteBuf> hits = await(cache.getAll(Map.of("a", "a", "b", "b", "c", "c", "d", "d")));
+        assertEquals(Map.of("a", mScaleBytes, "c", mScaleBytes, "d", mScaleBytes), sizes(hits));
+        release(hits);
+    }
+
+    // oldest files are evicted first, if the cache got smaller, half-written ones are dropped
+    @Test
+    void rebuildsIndexOnOpen(Vertx vertx, @TempDir Path dir) throws Exception {
+        ScaleCache cache = new ScaleCache(vertx, dir.toString(), 3 * mScaleBytes);
+        await(cache.open());
+        put(cache, "a", "b", "c");
+
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(dir.resolve("a"), FileTime.fromMillis(now - 3000));
+        Files.setLastModifiedTime(dir.resolve("b"), FileTime.fromMillis(now - 2000));
+        Files.setLastModifiedTime(dir.resolve("c"), FileTime.fromMillis(now - 1000));
+        Files.write(dir.resolve("d.1.part"), new byte[mScaleBytes]);
+
+        ScaleCache reopened = new ScaleCache(vertx, dir.toString(), 2 * mScaleBytes);
+        await(reopened.open());
+
+        HashMap<String, ByteBuf> hits = await(reopened.getAll(Map.of("a", "a", "b", "b", "c", "c")));
+        assertEquals(Map.of("b", mScaleBytes, "c", mScaleBytes), sizes(hits));
+        release(hits);
+
+        assertEquals(2, reopened.stats().getInteger("entries"));
+        assertEquals(2L * mScaleBytes, reopened.stats().getLong("bytes"));
+        assertFalse(Files.exists(dir.resolve("d.1.part")));
+    }
+
+    // scale, that can't be written, is released and leaves nothing behind
+    @Test
+    void failedWriteReleasesScale(Vertx vertx, @TempDir Path dir) throws Exception {
+        Path cacheDir = dir.resolve("cache");
+        ScaleCache cache = new ScaleCache(vertx, cacheDir.toString(), 3 * mScaleBytes);
+        await(cache.open());
+        Files.delete(cacheDir);
+
+        ByteBuf scale = Unpooled.wrappedBuffer(new byte[mScaleBytes]);
+        assertTrue(awaitFailure(cache.put("a", scale)) instanceof IOException);
+        assertEquals(0, scale.refCnt());
+        assertEquals(0, cache.stats().getInteger("entries"));
+    }
+
+    // one after another, so that the order of use is the order of keys
+    private static void put(ScaleCache cache, String... keys) throws Exception {
+        for (String key : keys) {
+            await(cache.put(key, Unpooled.wrappedBuffer(new byte[mScaleBytes])));
+        }
+    }
+
+    private static Map<String, Integer> sizes(Map<String, ByteBuf> scales) {
+        Map<String, Integer> sizes = new HashMap<>();
+        scales.forEach((name, scale) -> sizes.put(name, scale.readableBytes()));
+        return sizes;
+    }
+
+    private static void release(Map<String, ByteBuf> scales) {
+        scales.values().forEach(ByteBuf::release);
+    }
+}
@@ -0,0 +1,117 @@
+package unit;
+
+import io.vertx.core.buffer.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import scales.utility.StreamingImageInputStream;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamingImageInputStreamTest {
+
+    private final ExecutorService mReader = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void stopReader() {
+        mReader.shutdownNow();
+    }
+
+    // reader sees only the part, that is contiguous from the start, and waits for the gap to be filled
+    @Test
+    void readsFilledIntervalsInOrder() throws Exception {
+        StreamingImageInputStream stream = new StreamingImageInputStream(30);
+        stream.write(20, chunk(20, 10));
+        stream.write(10, chunk(10, 10));
+
+        Future<byte[]> read = mReader.submit(() -> {
+            byte[] data = new byte[30];
+            stream.readFully(data);
+            return data;
+        });
+        assertThrows(TimeoutException.class, () -> read.get(100, TimeUnit.MILLISECONDS));
+        assertEquals(-1, stream.length());
+
+        // the gap joins all three intervals at once
+        stream.write(0, chunk(0, 10));
+        assertArrayEquals(chunk(0, 30).getBytes(), read.get(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        stream.end();
+        assertTrue(stream.isEnded());
+        assertEquals(30, stream.length());
+        assertEquals(-1, stream.read());
+        assertArrayEquals(chunk(0, 30).getBytes(), stream.getBuffer().getBytes());
+    }
+
+    // chunks, that overlap the ones already there, don't move the readable end back
+    @Test
+    void mergesOverlappingChunks() throws IOException {
+        StreamingImageInputStream stream = new StreamingImageInputStream(0);
+        stream.write(5, chunk(5, 10));
+        stream.append(chunk(0, 8));
+        stream.write(12, chunk(12, 8));
+        stream.end();
+
+        assertEquals(20, stream.length());
+        byte[] data = new byte[20];
+        stream.readFully(data);
+        assertArrayEquals(chunk(0, 20).getBytes(), data);
+    }
+
+    // reader gives up only after the timeout passes without any new data
+    @Test
+    void timesOutWithoutProgress() throws Exception {
+        StreamingImageInputStream stream = new StreamingImageInputStream(10, 500);
+
+        Future<byte[]> read = mReader.submit(() -> {
+            byte[] data = new byte[10];
+            stream.readFully(data);
+            return data;
+        });
+        // every chunk comes before the timeout, though all of them together take longer
+        for (int i = 0; i < 8; i++) {
+            Thread.sleep(100);
+            stream.append(chunk(i, 1));
+        }
+        assertFalse(read.isDone());
+
+        ExecutionException timedOut = assertThrows(ExecutionException.class,
+                () -> read.get(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("Download timed out", timedOut.getCause().getMessage());
+    }
+
+    @Test
+    void failureReachesReader() throws Exception {
+        StreamingImageInputStream stream = new StreamingImageInputStream(10);
+        stream.append(chunk(0, 5));
+
+        Future<Integer> read = mReader.submit(() -> stream.read(new byte[10], 0, 10) + stream.read());
+        stream.fail(new IOException("Connection reset"));
+
+        ExecutionException failed = assertThrows(ExecutionException.class,
+                () -> read.get(Fixtures.TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("Download failed", failed.getCause().getMessage());
+        assertEquals("Connection reset", failed.getCause().getCause().getMessage());
+        assertFalse(stream.isEnded());
+    }
+
+    // bytes of the original at [position, position + length), each one is its own position
+    private static Buffer chunk(int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (position + i);
+        }
+        return Buffer.buffer(bytes);
+    }
+}
@@ -0,0 +1,121 @@
+package unit;
+
+import org.junit.jupiter.api.Test;
+import scales.utility.ImageResize;
+import scales.utility.ResizeEngines;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TiledResizeTest {
+
+    private static final int[] mWidths = {640, 200};
+    // mean difference of a channel, out of 255
+    private static final double mTolerance = 1.0;
+
+    // small enough to be resized by strips of a few rows
+    private static final long mTiledThreshold = 1000;
+    private static final int mStripPixels = 50_000;
+
+    @Test
+    void tiledJpegMatchesWhole() throws IOException {
+        assertTiledMatchesWhole(encode(original(), "jpg", false));
+    }
+
+    @Test
+    void tiledPngMatchesWhole() throws IOException {
+        assertTiledMatchesWhole(encode(original(), "png", false));
+    }
+
+    // rows of interlaced images don't come in order, they are read by regions
+    @Test
+    void tiledInterlacedPngMatchesWhole() throws IOException {
+        assertTiledMatchesWhole(encode(original(), "png", true));
+    }
+
+    // subsampled decoding, strips are of the subsampled rows
+    @Test
+    void tiledSubsampledMatchesWhole() throws IOException {
+        byte[] original = encode(original(), "jpg", false);
+        int[] widths = {300};
+
+        BufferedImage[] whole = resize(original, widths, Long.MAX_VALUE);
+        BufferedImage[] tiled = resize(original, widths, mTiledThreshold);
+        assertClose(whole[0], tiled[0]);
+    }
+
+    private static void assertTiledMatchesWhole(byte[] original) throws IOException {
+        BufferedImage[] whole = resize(original, mWidths, Long.MAX_VALUE);
+        BufferedImage[] tiled = resize(original, mWidths, mTiledThreshold);
+
+        for (int i = 0; i < mWidths.length; i++) {
+            assertClose(whole[i], tiled[i]);
+        }
+    }
+
+    private static BufferedImage[] resize(byte[] original, int[] widths, long tiledThreshold) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(original))) {
+            return ImageResize.resizeImages(iis, widths, ResizeEngines.DEFAULT, tiledThreshold, mStripPixels);
+        }
+    }
+
+    private static void assertClose(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+
+        double difference = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int fst = expected.getRGB(x, y);
+                int snd = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    difference += Math.abs(((fst >> shift) & 0xff) - ((snd >> shift) & 0xff));
+                }
+            }
+        }
+        difference /= 3.0 * expected.getWidth() * expected.getHeight();
+        assertTrue(difference <= mTolerance, "Mean difference is " + difference);
+    }
+
+    private static BufferedImage original() {
+        BufferedImage img = new BufferedImage(1600, 1200, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.RED, 1600, 1200, Color.BLUE));
+        g.fillRect(0, 0, 1600, 1200);
+        g.setColor(Color.WHITE);
+        g.fillOval(300, 200, 800, 600);
+        g.dispose();
+        return img;
+    }
+
+    private static byte[] encode(BufferedImage img, String format, boolean interlaced) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersBySuffix(format).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteProgressive()) {
+            param.setProgressiveMode(interlaced ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(baos)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return baos.toByteArray();
+    }
+}